@@ -0,0 +1,63 @@
+import utils.CompileContext;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// 在一个 JVM 里编译一批文件，省掉每个文件的 JVM 启动和 JIT 预热
+// 用法：java BatchCompiler [-j 线程数] 源文件...，每个源文件的汇编写到去掉扩展名加 .s 的文件
+// 每个文件用一个新的 CompileContext，编译完丢掉上下文，IR 和机器码随之整体释放
+public class BatchCompiler {
+    public static void main(String[] args) throws InterruptedException {
+        int threads = 1;
+        ArrayList<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; ++i) {
+            if (args[i].equals("-j") && i + 1 < args.length) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                files.add(args[i]);
+            }
+        }
+        long start = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(threads, 1));
+        ArrayList<Future<?>> results = new ArrayList<>();
+        for (String file : files) {
+            results.add(pool.submit(() -> compileOne(file)));
+        }
+        int failed = 0;
+        for (int i = 0; i < files.size(); ++i) {
+            try {
+                results.get(i).get();
+            } catch (java.util.concurrent.ExecutionException e) {
+                ++failed;
+                System.err.println(files.get(i) + ": " + e.getCause());
+            }
+        }
+        pool.shutdown();
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("compiled " + (files.size() - failed) + "/" + files.size() + " files in " + ms + " ms");
+        if (failed != 0) {
+            System.exit(1);
+        }
+    }
+
+    private static void compileOne(String file) {
+        CompileContext ctx = new CompileContext(outputFileName(file), false);
+        ctx.run(() -> {
+            try {
+                Compiler.compile(file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static String outputFileName(String file) {
+        int slash = Math.max(file.lastIndexOf('/'), file.lastIndexOf('\\'));
+        int dot = file.lastIndexOf('.');
+        return (dot > slash ? file.substring(0, dot) : file) + ".s";
+    }
+}
@@ -0,0 +1,153 @@
+import backend.CodeGen;
+import frontend.IncrementalParser;
+import midend.ir.EmitLLVM;
+import midend.ir.Module;
+import utils.CompileContext;
+import utils.Logger;
+import utils.PhaseStats;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+// 常驻的编译服务，只监听本机回环地址，省掉每次编译的 JVM 启动和 JIT 预热
+// 用法：java CompileServer [端口] [并发编译数]
+// 协议：一个连接上可以连续发多个请求
+//   请求："MIPS <字节数>\n" 或 "LLVM <字节数>\n"，后跟源码
+//   响应："OK <字节数> lex=<ms> parse=<ms> ...\n" 后跟汇编或 IR 文本；出错时是 "ERROR <信息>\n"
+// 每个请求用一个新的 CompileContext，互不干扰；同一连接上的请求共用一个 IncrementalParser，没改的函数不重新解析
+public class CompileServer {
+    private static final int MAX_SOURCE = 16 << 20;
+    private static final int MAX_HEADER = 256;
+
+    private final Semaphore permits;
+
+    private CompileServer(int concurrency) {
+        this.permits = new Semaphore(concurrency);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7878;
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        CompileServer server = new CompileServer(Math.max(concurrency, 1));
+        // 连接线程大多阻塞在读请求上，真正的编译并发由信号量限制
+        ExecutorService connections = Executors.newCachedThreadPool();
+        try (ServerSocket ss = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            System.out.println("compile server listening on " + ss.getLocalSocketAddress());
+            while (true) {
+                Socket socket = ss.accept();
+                connections.execute(() -> server.serve(socket));
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket;
+             InputStream in = new BufferedInputStream(s.getInputStream());
+             OutputStream out = new BufferedOutputStream(s.getOutputStream())) {
+            IncrementalParser parser = new IncrementalParser();
+            String header;
+            while ((header = readLine(in)) != null) {
+                String[] parts = header.split(" ");
+                int length;
+                try {
+                    length = parts.length == 2 ? Integer.parseInt(parts[1]) : -1;
+                } catch (NumberFormatException e) {
+                    length = -1;
+                }
+                boolean llvm = parts[0].equals("LLVM");
+                if (!llvm && !parts[0].equals("MIPS") || length < 0 || length > MAX_SOURCE) {
+                    // 请求头坏了就无法找到下一个请求的开头，只能断开
+                    writeError(out, "bad request: " + header);
+                    return;
+                }
+                byte[] src = new byte[length];
+                new DataInputStream(in).readFully(src);
+                respond(out, src, llvm, parser);
+                out.flush();
+            }
+        } catch (IOException e) {
+            // 客户端断开，丢掉这个连接即可
+        }
+    }
+
+    private void respond(OutputStream out, byte[] src, boolean llvm, IncrementalParser parser) throws IOException {
+        CompileContext ctx = new CompileContext(null, false);
+        String[] text = new String[1];
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeError(out, "interrupted");
+            return;
+        }
+        try {
+            ctx.run(() -> text[0] = compile(src, llvm, parser));
+        } catch (Throwable e) {
+            // OutOfMemoryError、-ea 下的 AssertionError 等也要回复，否则客户端一直等在读上
+            writeError(out, String.valueOf(e));
+            return;
+        } finally {
+            permits.release();
+        }
+        byte[] body = text[0].getBytes(StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder("OK ").append(body.length);
+        for (Map.Entry<String, Long> e : ctx.phases.topLevelNanos().entrySet()) {
+            sb.append(' ').append(e.getKey()).append('=').append(String.format("%.3f", e.getValue() / 1e6));
+        }
+        out.write(sb.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+        out.write(body);
+    }
+
+    private static String compile(byte[] src, boolean llvm, IncrementalParser parser) {
+        try {
+            Compiler.buildIR(src, parser);
+            if (!Logger.getErrors().isEmpty()) {
+                // 有错误的源码生成的 IR 不完整，只报告第一个错误
+                throw new RuntimeException(Logger.getErrors().size() + " error(s), first: " + Logger.getErrors().get(0));
+            }
+            if (llvm) {
+                StringWriter w = new StringWriter();
+                new EmitLLVM(null).run(Module.get(), w);
+                return w.toString();
+            }
+            PhaseStats.Phase phase = PhaseStats.begin("codegen", null);
+            CodeGen cg = new CodeGen();
+            cg.codeGen();
+            phase.end();
+            return cg.getMIPS();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeError(OutputStream out, String msg) throws IOException {
+        out.write(("ERROR " + msg.replace('\n', ' ') + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    // 读一行请求头，连接在行首关闭时返回 null
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                if (sb.length() == 0) {
+                    return null;
+                }
+                throw new EOFException();
+            }
+            if (sb.length() >= MAX_HEADER) {
+                throw new IOException("request header too long");
+            }
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+}
@@ -1,44 +1,157 @@
 import backend.CodeGen;
+import backend.MIPSEmitter;
 import backend.mc.Interpreter;
 import backend.mc.MCModule;
 import midend.MidendRunner;
+import utils.CompileContext;
 import utils.Config;
+import frontend.Ast;
+import frontend.IncrementalParser;
 import frontend.Lexer;
 import frontend.Parser;
 import frontend.Visitor;
+import midend.ir.IRSerializer;
 import midend.ir.Module;
 import utils.Logger;
+import utils.PhaseStats;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.Arrays;
 
 public class Compiler {
     public static void main(String[] args) throws IOException {
         String inputFile = Arrays.stream(args).filter(name -> name.endsWith(".sy")).findAny().orElse(Config.inputFileName);
-        FileInputStream fis = new FileInputStream(inputFile);
-        BufferedInputStream bis = new BufferedInputStream(fis);
-        Lexer lexer = new Lexer(bis);
+        compile(inputFile);
+        if (Config.phaseStatistic) {
+            Logger.printPhaseStatistic(Config.phaseStatisticFileName);
+        }
+        if (!Config.submit) {
+            Interpreter interpreter = new Interpreter();
+            interpreter.interpret(MCModule.get(), false);
+        }
+    }
+
+    // 在当前线程的 CompileContext 里编译一个文件，汇编写到上下文指定的文件
+    static void compile(String inputFile) throws IOException {
+        if (Config.lexWholeFile || Config.cacheIR) {
+            compile(Files.readAllBytes(Paths.get(inputFile)));
+        } else {
+            PhaseStats.Phase phase = PhaseStats.begin("lex", null);
+            Lexer lexer = new Lexer(new BufferedInputStream(new FileInputStream(inputFile)));
+            phase.end();
+            buildIR(lexer);
+            codeGen();
+        }
+    }
+
+    // 源码已经在内存里（整文件读入或编译服务收到的请求）
+    static void compile(byte[] src) throws IOException {
+        buildIR(src);
+        codeGen();
+    }
+
+    static void buildIR(byte[] src) throws IOException {
+        buildIR(src, null);
+    }
+
+    // parser 非空时用它增量解析，只重新解析和上次提交相比变了的函数（编译服务每个连接一个）
+    static void buildIR(byte[] src, IncrementalParser parser) throws IOException {
+        if (Config.cacheIR) {
+            // 中端跑完的 IR 按源码哈希缓存，命中时跳过前端和中端
+            File cacheFile = new File(Config.irCacheDir, IRSerializer.cacheKey(src) + ".ir");
+            PhaseStats.Phase phase = PhaseStats.begin("cache", Module.get()::getInstrCount);
+            boolean hit = IRSerializer.readCache(cacheFile, src, Module.get());
+            phase.end();
+            if (hit) {
+                return;
+            }
+            frontend(src, parser);
+            // 有错误的源码 IR 不完整，缓存命中时又不会重新报错，不能写入
+            if (Logger.getErrors().isEmpty()) {
+                IRSerializer.writeCache(Module.get(), cacheFile, src);
+            }
+        } else {
+            frontend(src, parser);
+        }
+    }
+
+    private static void frontend(byte[] src, IncrementalParser parser) {
+        if (parser == null || Config.streamFrontend) {
+            buildIR(lex(src));
+            return;
+        }
+        // 增量解析自己做词法分析，两个阶段合在一起计时
+        PhaseStats.Phase phase = PhaseStats.begin("parse", null);
+        Ast ast = parser.parse(src);
+        phase.end();
+        buildIR(ast);
+    }
+
+    private static Lexer lex(byte[] src) {
+        PhaseStats.Phase phase = PhaseStats.begin("lex", null);
+        Lexer lexer = new Lexer(src);
+        phase.end();
+        return lexer;
+    }
+
+    private static void buildIR(Lexer lexer) {
+        Module m = Module.get();
         Lexer.TokenStream tokens = lexer.getRes();
         // Logger.logLexerResult(tokens);
         // Logger.printLexerResult(Config.outputFileName);
-        Parser parser = new Parser(tokens);
-        // Logger.logAst(parser.getRes());
-        // parser.getRes().print();
-        // new Semantic(parser.getRes());
-        // Logger.printErrors(Config.errorOutputFileName);
-        // Logger.printParserResult(Config.outputFileName);
-        new Visitor(parser.getRes());
+        if (Config.streamFrontend) {
+            // 边解析边生成 IR，两个阶段合在一起计时
+            PhaseStats.Phase phase = PhaseStats.begin("parse", m::getInstrCount);
+            Ast ast = new Ast(tokens.getNames());
+            Visitor visitor = new Visitor(ast);
+            new Parser(tokens, ast, visitor::visitCompUnit);
+            phase.end();
+            optimize();
+        } else {
+            PhaseStats.Phase phase = PhaseStats.begin("parse", null);
+            Parser parser = new Parser(tokens);
+            phase.end();
+            // Logger.logAst(parser.getRes());
+            // parser.getRes().print();
+            // new Semantic(parser.getRes());
+            // Logger.printErrors(Config.errorOutputFileName);
+            // Logger.printParserResult(Config.outputFileName);
+            buildIR(parser.getRes());
+        }
+    }
+
+    private static void buildIR(Ast ast) {
+        PhaseStats.Phase phase = PhaseStats.begin("visit", Module.get()::getInstrCount);
+        new Visitor(ast);
+        phase.end();
+        optimize();
+    }
+
+    private static void optimize() {
+        Module m = Module.get();
         // Logger.printLLVM();
         if (Config.optimize) {
-            new MidendRunner().run(Module.module);
+            PhaseStats.Phase phase = PhaseStats.begin("midend", m::getInstrCount);
+            new MidendRunner().run(m);
+            phase.end();
         }
+    }
+
+    private static void codeGen() throws IOException {
         Logger.logLLVM("beforeCodeGen");
+        PhaseStats.Phase phase = PhaseStats.begin("codegen", null);
         CodeGen cg = new CodeGen();
-        cg.codeGen();
-        Logger.printMIPS(cg.getMIPS());
-        if (!Config.submit) {
-            Interpreter interpreter = new Interpreter();
-            interpreter.interpret(MCModule.module, false);
+        if (Config.streamMIPS) {
+            try (MIPSEmitter emitter = new MIPSEmitter(CompileContext.get().mipsFileName)) {
+                cg.codeGen(emitter);
+            }
+            phase.end();
+        } else {
+            cg.codeGen();
+            phase.end();
+            Logger.printMIPS(cg.getMIPS());
         }
     }
 }
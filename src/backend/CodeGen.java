@@ -9,13 +9,13 @@ import midend.analysis.InterproceduralAnalysis;
 import java.util.ArrayList;
 
 public class CodeGen {
-    private final MCModule lirm = MCModule.module;
+    private final MCModule lirm = MCModule.get();
     private final MCOperand.MCPhyReg GP = new MCOperand.MCPhyReg(RegisterManager.MCPhyRegTag.gp);
 
     public void codeGen() {
         int startPos = 0x10010000;
         MCOperand.MCGlobalData.allocate(lirm, startPos);
-        ArrayList<Function> order = InterproceduralAnalysis.reversedCallOrder(Module.module);
+        ArrayList<Function> order = InterproceduralAnalysis.reversedCallOrder(Module.get());
         for (Function f : order) {
             new MCFunction(f);
         }
@@ -23,19 +23,48 @@ public class CodeGen {
         if (!lirm.mcGlobalDatas.isEmpty()) {
             for (MCFunction lirf : lirm.functions.values()) {
                 if (lirf.getFunc().getName().equals("main")) {
-                    MCInstr.buildLuiAtEntry(GP, new MCOperand.MCImm(0x1001), lirf.getList().getEntry().getValue());
+                    buildLoadGP(lirf);
                     break;
                 }
             }
         }
     }
 
-    public String getMIPS() {
+    // 流式生成：每个函数分配完寄存器、做完窥孔就交给 emitter 写出，不再拼接整个程序的汇编
+    // 调用方要知道被调函数用了哪些寄存器，main 总是最后生成，所以 .text 开头先跳到 main
+    public void codeGen(MIPSEmitter emitter) {
+        int startPos = 0x10010000;
+        MCOperand.MCGlobalData.allocate(lirm, startPos);
+        emitter.emit(getDataMIPS());
+        emitter.emit(".text\n\tj\t\tmain\n");
+        ArrayList<Function> order = InterproceduralAnalysis.reversedCallOrder(Module.get());
+        Peephole peephole = new Peephole();
+        for (Function f : order) {
+            MCFunction lirf = new MCFunction(f);
+            peephole.run(lirf);
+            if (!lirm.mcGlobalDatas.isEmpty() && f.getName().equals("main")) {
+                buildLoadGP(lirf);
+            }
+            emitter.emit(lirf.getMIPS());
+        }
+    }
+
+    private void buildLoadGP(MCFunction main) {
+        MCInstr.buildLuiAtEntry(GP, new MCOperand.MCImm(0x1001), main.getList().getEntry().getValue());
+    }
+
+    private String getDataMIPS() {
         StringBuilder sb = new StringBuilder();
         sb.append(".data\n");
         for (MCOperand.MCGlobalData gd : lirm.mcGlobalDatas) {
             sb.append(gd.getMIPS());
         }
+        return sb.toString();
+    }
+
+    public String getMIPS() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getDataMIPS());
         sb.append(".text\n");
         for (MCFunction lirf : lirm.functions.values()) {
             if (lirf.getFunc().getName().equals("main")) {
@@ -0,0 +1,73 @@
+package backend;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+// 后台线程把汇编文本写进文件：CodeGen 每完成一个函数就提交一段，写文件和后面函数的生成重叠
+// 队列有界，生成比写快时提交会阻塞，内存里最多只有几个函数的文本
+public class MIPSEmitter implements Closeable {
+    private static final String END = new String("");
+    private final BlockingQueue<String> queue = new ArrayBlockingQueue<>(8);
+    private final Thread writerThread;
+    private volatile IOException error;
+
+    public MIPSEmitter(String fileName) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), StandardCharsets.UTF_8), 1 << 16);
+        writerThread = new Thread(() -> {
+            try (Writer w = writer) {
+                while (true) {
+                    String chunk = queue.take();
+                    if (chunk == END) {
+                        break;
+                    }
+                    w.write(chunk);
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "mips-emitter");
+        writerThread.start();
+    }
+
+    // 写线程出错退出后队列不会再被取空，所以不能一直阻塞在 put 上
+    private boolean put(String chunk) throws InterruptedException {
+        while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+            if (!writerThread.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void emit(String chunk) {
+        try {
+            if (!writerThread.isAlive() || !put(chunk)) {
+                throw new RuntimeException("MIPS writer has stopped", error);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while emitting MIPS", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (writerThread.isAlive()) {
+                put(END);
+            }
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while closing MIPS writer", e);
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+}
@@ -216,7 +216,7 @@ public class Interpreter {
     }
 
     private static MCInstr labelNext(MCLabel label) {
-        return startFromBB(MCModule.module.label2BB.get(label));
+        return startFromBB(MCModule.get().label2BB.get(label));
     }
 
     private static boolean condBranchE(int lhs, int rhs, MCInstrTag tag) {
@@ -307,8 +307,10 @@ public class Interpreter {
                 }
                 for (MCGlobalVariable.Seg s : mcGV.getSegs().getSegs()) {
                     if (s.getType() == MCGlobalVariable.Seg.SegType.word) {
-                        datas.setMemInt(dotDataPos, s.getVal());
-                        dotDataPos += 4;
+                        for (int i = 0; i < s.getWordCount(); ++i) {
+                            datas.setMemInt(dotDataPos, s.getWord(i));
+                            dotDataPos += 4;
+                        }
                     } else {
                         dotDataPos += s.getVal();
                     }
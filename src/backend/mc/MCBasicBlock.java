@@ -6,27 +6,23 @@ import midend.ir.Instruction;
 import utils.IList;
 
 import java.util.ArrayList;
-import java.util.HashSet;
 
 public class MCBasicBlock {
     private final IList<MCInstr, MCBasicBlock> list = new IList<>(this);
     public final IList.INode<MCBasicBlock, MCFunction> node = new IList.INode<>(this);
     private final MCFunction mcf;
     private final BasicBlock irBB;
-    public final HashSet<MCOperand> liveUse = new HashSet<>();
-    public final HashSet<MCOperand> liveDef = new HashSet<>();
-    public final HashSet<MCOperand> liveIn = new HashSet<>();
-    public final HashSet<MCOperand> liveOut = new HashSet<>();
     private final ArrayList<MCBasicBlock> succ = new ArrayList<>();
     private final ArrayList<MCBasicBlock> pred = new ArrayList<>();
     private final MCOperand.MCLabel label;
+    private int index = -1;
 
     public MCBasicBlock(BasicBlock irBB, MCOperand.MCLabel label, MCFunction mcf, MCInstrFactory instrFactory) {
         this.node.insertAtEnd(mcf.getList());
         this.mcf = mcf;
         this.label = label;
         this.irBB = irBB;
-        MCModule.module.label2BB.put(label, this);
+        MCModule.get().label2BB.put(label, this);
         if (irBB != null) {
             instrFactory.setMcBB(this);
             Function func = mcf.getFunc();
@@ -41,6 +37,14 @@ public class MCBasicBlock {
         }
     }
 
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
     public MCFunction getMCFunction() {
         return this.mcf;
     }
@@ -11,6 +11,7 @@ import midend.ir.Instruction;
 import midend.ir.Value;
 import utils.Config;
 import utils.IList;
+import utils.PhaseStats;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -33,15 +34,21 @@ public class MCFunction {
     private final ArrayList<MCInstr.MCLw> lwsToGetArg = new ArrayList<>();
     private final MCPhyReg RA = new MCPhyReg(RegisterManager.MCPhyRegTag.ra);
     private final MCPhyReg SP = new MCPhyReg(RegisterManager.MCPhyRegTag.sp);
+    private int numBlocks = 0;
+    private int numVirtualRegs = 0;
 
     public MCFunction(Function func) {
         this.func = func;
         this.name = func.getName();
-        MCModule.module.functions.put(name, this);
+        MCModule.get().functions.put(name, this);
         gepOffsets.clear();
         this.isBuiltin = func.isBuiltin();
         if (!this.isBuiltin) {
+            PhaseStats.Phase lower = PhaseStats.begin("lower/" + name, this::getInstrCount);
             workOnBB();
+            lower.end();
+            // 栈帧和调用的展开依赖分配结果，一起计入寄存器分配
+            PhaseStats.Phase regalloc = PhaseStats.begin("regalloc/" + name, this::getInstrCount);
             allocateRegisters();
             addInOutMoveSp();
             expandCalls();
@@ -50,6 +57,7 @@ public class MCFunction {
             for (MCInstr.MCLw lw : this.getLwsToGetArg()) {
                 lw.setOffset(new MCOperand.MCImm(lw.getOffset().getImm() + this.getStackSize() + (regTempSave.size() + 1) * 4, false));
             }
+            regalloc.end();
         }
     }
 
@@ -138,7 +146,7 @@ public class MCFunction {
     private ArrayList<MCPhyReg> getChildDefRegs() {
         ArrayList<MCOperand.MCPhyReg> childDefRegs = new ArrayList<>();
         for (Function child : func.getCallees()) {
-            MCFunction childMcf = MCModule.module.functions.get(child.getName());
+            MCFunction childMcf = MCModule.get().functions.get(child.getName());
             for (MCOperand.MCPhyReg pr : childMcf.getDefRegsExceptRaSp()) {
                 if (!childDefRegs.contains(pr)) {
                     childDefRegs.add(pr);
@@ -156,7 +164,7 @@ public class MCFunction {
     }
 
     public MCBasicBlock BB2mcBB(BasicBlock bb) {
-        return MCModule.module.label2BB.get(this.BBLabelMap.get(bb));
+        return MCModule.get().label2BB.get(this.BBLabelMap.get(bb));
     }
 
     public String getMIPS() {
@@ -186,6 +194,14 @@ public class MCFunction {
         return list;
     }
 
+    public int getInstrCount() {
+        int cnt = 0;
+        for (IList.INode<MCBasicBlock, MCFunction> bNode : list) {
+            cnt += bNode.getValue().getList().getNodeNum();
+        }
+        return cnt;
+    }
+
     public HashMap<MCOperand, MCGlobalVariable> reg2Gv() {
         return reg2Gv;
     }
@@ -244,4 +260,52 @@ public class MCFunction {
     public HashMap<Instruction.GEP, Integer> getGepOffsets() {
         return gepOffsets;
     }
+
+    // 基本块和出现在指令中的虚拟寄存器各自编号为 0..n-1，供 liveness、分配器用数组或 BitSet 代替 HashMap
+    public void renumber() {
+        for (IList.INode<MCBasicBlock, MCFunction> bNode : list) {
+            for (IList.INode<MCInstr, MCBasicBlock> iNode : bNode.getValue().getList()) {
+                MCInstr instr = iNode.getValue();
+                for (MCReg reg : instr.getDefReg()) {
+                    if (reg instanceof MCVirtualReg) {
+                        ((MCVirtualReg) reg).setIndex(-1);
+                    }
+                }
+                for (MCReg reg : instr.getUseReg()) {
+                    if (reg instanceof MCVirtualReg) {
+                        ((MCVirtualReg) reg).setIndex(-1);
+                    }
+                }
+            }
+        }
+        int blockCnt = 0;
+        int regCnt = 0;
+        for (IList.INode<MCBasicBlock, MCFunction> bNode : list) {
+            MCBasicBlock mcBB = bNode.getValue();
+            mcBB.setIndex(blockCnt++);
+            for (IList.INode<MCInstr, MCBasicBlock> iNode : mcBB.getList()) {
+                MCInstr instr = iNode.getValue();
+                for (MCReg reg : instr.getDefReg()) {
+                    if (reg instanceof MCVirtualReg && ((MCVirtualReg) reg).getIndex() < 0) {
+                        ((MCVirtualReg) reg).setIndex(regCnt++);
+                    }
+                }
+                for (MCReg reg : instr.getUseReg()) {
+                    if (reg instanceof MCVirtualReg && ((MCVirtualReg) reg).getIndex() < 0) {
+                        ((MCVirtualReg) reg).setIndex(regCnt++);
+                    }
+                }
+            }
+        }
+        this.numBlocks = blockCnt;
+        this.numVirtualRegs = regCnt;
+    }
+
+    public int getNumBlocks() {
+        return numBlocks;
+    }
+
+    public int getNumVirtualRegs() {
+        return numVirtualRegs;
+    }
 }
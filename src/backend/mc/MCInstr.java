@@ -14,7 +14,6 @@ public abstract class MCInstr {
     private static final MCPhyReg V0 = new MCPhyReg(RegisterManager.MCPhyRegTag.v0);
     private final MCInstrTag tag;
     private final int id;
-    private static int curId = 0;
     public String comment;
 
     public MCInstr(MCInstrTag tag, MCBasicBlock mcBB) {
@@ -22,8 +21,9 @@ public abstract class MCInstr {
         if (mcBB != null) {
             this.node.insertAtEnd(mcBB.getList());
         }
-        this.id = curId++;
-        MCModule.module.idToMCInstr.put(this.id, this);
+        MCModule m = MCModule.get();
+        this.id = m.instrId++;
+        m.idToMCInstr.put(this.id, this);
     }
 
     public MCFunction getMCFunction() {
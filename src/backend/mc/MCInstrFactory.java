@@ -25,7 +25,7 @@ public class MCInstrFactory {
 
     public MCInstrFactory(MCFunction mcf) {
         this.mcf = mcf;
-        this.m = MCModule.module;
+        this.m = MCModule.get();
     }
 
     public void setMcBB(MCBasicBlock mcBB) {
@@ -49,7 +49,7 @@ public class MCInstrFactory {
                                 String str = sb.toString();
                                 sb = new StringBuilder();
                                 if (!str.equals("")) {
-                                    buildSaveCIIn(A0, MCModule.module.strings.get(str).getPos());
+                                    buildSaveCIIn(A0, MCModule.get().strings.get(str).getPos());
                                     buildSaveCIIn(V0, 4);
                                     MCInstr.buildSyscallAtEnd(mcBB, MCInstr.MCSyscall.SyscallType.PrintStr);
                                 }
@@ -68,7 +68,7 @@ public class MCInstrFactory {
                         }
                         String str = sb.toString();
                         if (!str.equals("")) {
-                            buildSaveCIIn(A0, MCModule.module.strings.get(str).getPos());
+                            buildSaveCIIn(A0, MCModule.get().strings.get(str).getPos());
                             buildSaveCIIn(V0, 4);
                             MCInstr.buildSyscallAtEnd(mcBB, MCInstr.MCSyscall.SyscallType.PrintStr);
                         }
@@ -136,7 +136,7 @@ public class MCInstrFactory {
                             }
                             argsRegs.add(arg);
                         }
-                        MCFunction callee = MCModule.module.functions.get(call.getFunc().getName());
+                        MCFunction callee = MCModule.get().functions.get(call.getFunc().getName());
                         int argsCnt = argsRegs.size();
                         for (int i = 0; i < argsCnt; ++i) {
                             MCReg val = argsRegs.get(i);
@@ -166,7 +166,7 @@ public class MCInstrFactory {
                 MCReg dst = irOp2mcR(load);
                 Value pointer = load.getPointer();
                 if (pointer instanceof GlobalVariable) {
-                    int pos = MCModule.module.lirGVs.get((GlobalVariable) pointer).getPos();
+                    int pos = MCModule.get().lirGVs.get((GlobalVariable) pointer).getPos();
                     if (MCImm.HI(pos).getImm() != 0) {
                         if (MCImm.HI(pos).getImm() == 0x1001) {
                             MCInstr.buildLwAtEnd(dst, MCImm.LO(pos), GP, mcBB);
@@ -194,7 +194,7 @@ public class MCInstrFactory {
                 MCReg val = irOp2mcR(store.getValue());
                 Value pointer = store.getPointer();
                 if (pointer instanceof GlobalVariable) {
-                    int pos = MCModule.module.lirGVs.get((GlobalVariable) pointer).getPos();
+                    int pos = MCModule.get().lirGVs.get((GlobalVariable) pointer).getPos();
                     if (MCImm.HI(pos).getImm() != 0) {
                         if (MCImm.HI(pos).getImm() == 0x1001) {
                             MCInstr.buildSwAtEnd(val, MCImm.LO(pos), GP, mcBB);
@@ -446,7 +446,7 @@ public class MCInstrFactory {
                     } else if (MCImm.one_bit(dims.get(i - 1) * 4) != -1) {
                         slls.add(new Pair<>(irOp2mcR(op), MCImm.one_bit(dims.get(i - 1) * 4)));
                     } else {
-                        addMuls.add(new Pair<>(irOp2mcR(op), irOp2mcR(new Constant.ConstantInt(dims.get(i - 1) * 4))));
+                        addMuls.add(new Pair<>(irOp2mcR(op), irOp2mcR(Constant.ConstantInt.get(dims.get(i - 1) * 4))));
                     }
                 }
                 MCReg dst = irOp2mcR(instr);
@@ -881,13 +881,13 @@ public class MCInstrFactory {
         } else if (MCImm.canEncodeImm(rhs)) {
             MCInstr.buildBinaryIAtEnd(MCInstr.MCInstrTag.addiu, dst, lhs, new MCImm(rhs), mcBB);
         } else if (MCImm.canEncodeImm(-rhs)) {
-            MCReg rhsReg = irOp2mcR(new Constant.ConstantInt(-rhs));
+            MCReg rhsReg = irOp2mcR(Constant.ConstantInt.get(-rhs));
             MCInstr.buildBinaryRAtEnd(MCInstr.MCInstrTag.subu, dst, lhs, rhsReg, mcBB);
         } else if (MCImm.HI(rhs).getImm() == 0x1001) {
             MCInstr.buildBinaryRAtEnd(MCInstr.MCInstrTag.addu, dst, lhs, GP, mcBB);
             MCInstr.buildBinaryIAtEnd(MCInstr.MCInstrTag.addiu, dst, dst, MCImm.LO(rhs), mcBB);
         } else {
-            MCInstr.buildBinaryRAtEnd(MCInstr.MCInstrTag.addu, dst, lhs, irOp2mcR(new Constant.ConstantInt(rhs)), mcBB);
+            MCInstr.buildBinaryRAtEnd(MCInstr.MCInstrTag.addu, dst, lhs, irOp2mcR(Constant.ConstantInt.get(rhs)), mcBB);
         }
     }
 
@@ -903,7 +903,7 @@ public class MCInstrFactory {
         } else if (MCImm.canEncodeImm(rhs)) {
             MCInstr.buildBinaryIAtEnd(tagi, dst, lhs, new MCImm(rhs), mcBB);
         } else {
-            MCInstr.buildBinaryRAtEnd(tag, dst, lhs, irOp2mcR(new Constant.ConstantInt(rhs)), mcBB);
+            MCInstr.buildBinaryRAtEnd(tag, dst, lhs, irOp2mcR(Constant.ConstantInt.get(rhs)), mcBB);
         }
     }
 
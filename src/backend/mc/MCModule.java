@@ -6,9 +6,9 @@ import java.util.HashMap;
 import backend.mc.MCOperand.*;
 import backend.register.RegisterManager;
 import midend.ir.GlobalVariable;
+import utils.CompileContext;
 
 public class MCModule {
-    public static final MCModule module = new MCModule();
     public final HashMap<GlobalVariable, MCGlobalVariable> lirGVs = new HashMap<>();
     public final HashMap<String, MCFunction> functions = new HashMap<>();
     public final HashMap<String, MCString> strings = new HashMap<>();
@@ -16,4 +16,12 @@ public class MCModule {
     public final HashMap<Integer, MCInstr> idToMCInstr = new HashMap<>();
     public final HashMap<MCLabel, MCBasicBlock> label2BB = new HashMap<>();
     public final RegisterManager registerManager = new RegisterManager();
+    // 指令 id 和虚拟寄存器编号按编译分配，每次编译都从 0 开始
+    int instrId = 0;
+    int virtualRegId = 0;
+
+    // 当前线程所在编译的机器码模块
+    public static MCModule get() {
+        return CompileContext.get().mcModule;
+    }
 }
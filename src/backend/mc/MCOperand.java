@@ -8,7 +8,6 @@ import midend.ir.Type;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Objects;
 
 public class MCOperand {
 
@@ -80,7 +79,7 @@ public class MCOperand {
 
         @Override
         public int hashCode() {
-            return Objects.hash(imm);
+            return 31 + imm;
         }
     }
 
@@ -115,26 +114,36 @@ public class MCOperand {
 
         @Override
         public int hashCode() {
-            return Objects.hash(tag);
+            // 枚举的 hashCode 是 identity hash，每次运行都不同；用序号让散列顺序固定
+            return 31 + tag.ordinal();
         }
     }
 
     public static class MCVirtualReg extends MCReg {
         private final String name;
-        private static int curId = 0;
+        // 函数内的稠密编号，由 MCFunction.renumber 分配
+        private int index = -1;
 
         public MCVirtualReg() {
-            this.name = "$virtual" + ++curId;
+            this.name = "$virtual" + ++MCModule.get().virtualRegId;
         }
 
         public MCVirtualReg(String name) {
-            this.name = "$virtual-" + name + ":" + ++curId;
+            this.name = "$virtual-" + name + ":" + ++MCModule.get().virtualRegId;
         }
 
         public String getName() {
             return name;
         }
 
+        public int getIndex() {
+            return index;
+        }
+
+        public void setIndex(int index) {
+            this.index = index;
+        }
+
         @Override
         public String toString() {
             return this.name;
@@ -159,7 +168,7 @@ public class MCOperand {
 
         public static void allocate(MCModule mcm, int startPos) {
             int curPos = startPos;
-            Module m = Module.module;
+            Module m = Module.get();
             for (GlobalVariable gv : m.globalList) {
                 if (gv.getInit() instanceof Constant.ConstantString) {
                     String origin = ((Constant.ConstantString) gv.getInit()).getString();
@@ -220,6 +229,9 @@ public class MCOperand {
         }
 
         private MCGlobalVariable.Segs calcConstantSegs(Constant constant) {
+            if (constant instanceof Constant.ConstantArray && ((Constant.ConstantArray) constant).isDense()) {
+                return calcDenseSegs((Constant.ConstantArray) constant);
+            }
             if (constant instanceof Constant.ConstantInt) {
                 return new MCGlobalVariable.Segs(new MCGlobalVariable.Seg(MCGlobalVariable.Seg.SegType.word, ((Constant.ConstantInt) constant).getValue()));
             } else {
@@ -238,14 +250,56 @@ public class MCOperand {
             }
         }
 
+        // 直接按稠密数组的非零段生成，段外的 0 和段内的 0 都成为 .space，不逐个创建常量
+        private MCGlobalVariable.Segs calcDenseSegs(Constant.ConstantArray ca) {
+            MCGlobalVariable.Segs res = new MCGlobalVariable.Segs();
+            int[] next = new int[1];
+            ca.forEachSeg((offset, data, from, to) -> {
+                res.addSpace((offset - next[0]) * 4);
+                int i = from;
+                while (i < to) {
+                    int j = i;
+                    if (data[i] == 0) {
+                        while (j < to && data[j] == 0) {
+                            ++j;
+                        }
+                        res.addSpace((j - i) * 4);
+                    } else {
+                        while (j < to && data[j] != 0) {
+                            ++j;
+                        }
+                        res.segs.add(new MCGlobalVariable.Seg(data, i, j));
+                    }
+                    i = j;
+                }
+                next[0] = offset + to - from;
+            });
+            res.addSpace((ca.getNumOfAtoms() - next[0]) * 4);
+            return res;
+        }
+
         public static class Seg {
             public enum SegType { word, space }
             private int val;
             private final MCGlobalVariable.Seg.SegType type;
+            // 连续的若干 .word，取自常量数组的 data[from, to)；data 为 null 时只有 val 一个字
+            private final int[] data;
+            private final int from;
+            private final int to;
 
             private Seg(MCGlobalVariable.Seg.SegType type, int val) {
                 this.type = type;
                 this.val = val;
+                this.data = null;
+                this.from = 0;
+                this.to = 0;
+            }
+
+            private Seg(int[] data, int from, int to) {
+                this.type = SegType.word;
+                this.data = data;
+                this.from = from;
+                this.to = to;
             }
 
             public SegType getType() {
@@ -255,6 +309,14 @@ public class MCOperand {
             public int getVal() {
                 return val;
             }
+
+            public int getWordCount() {
+                return data == null ? 1 : to - from;
+            }
+
+            public int getWord(int i) {
+                return data == null ? val : data[from + i];
+            }
         }
 
         public static class Segs {
@@ -266,6 +328,17 @@ public class MCOperand {
 
             private Segs() {}
 
+            private void addSpace(int bytes) {
+                if (bytes == 0) {
+                    return;
+                }
+                if (!segs.isEmpty() && segs.get(segs.size() - 1).type == Seg.SegType.space) {
+                    segs.get(segs.size() - 1).val += bytes;
+                } else {
+                    segs.add(new Seg(Seg.SegType.space, bytes));
+                }
+            }
+
             private void mergeWith(MCGlobalVariable.Segs that) {
                 if (this.segs.isEmpty()) {
                     this.segs.addAll(that.segs);
@@ -286,7 +359,13 @@ public class MCOperand {
             public String toString() {
                 StringBuilder sb = new StringBuilder();
                 for (MCGlobalVariable.Seg seg : this.segs) {
-                    sb.append("\t.").append(seg.type).append("\t").append(seg.val).append("\n");
+                    if (seg.type == Seg.SegType.space) {
+                        sb.append("\t.space\t").append(seg.val).append("\n");
+                        continue;
+                    }
+                    for (int i = 0; i < seg.getWordCount(); ++i) {
+                        sb.append("\t.word\t").append(seg.getWord(i)).append("\n");
+                    }
                 }
                 return sb.toString();
             }
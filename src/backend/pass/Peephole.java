@@ -7,29 +7,36 @@ import backend.register.LivenessAnalysis;
 import backend.register.RegisterManager;
 import utils.IList;
 import utils.Pair;
+import utils.PhaseStats;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 
 public class Peephole {
-    private final MCModule m = MCModule.module;
+    private final MCModule m = MCModule.get();
     private final MCOperand.MCPhyReg ZERO = new MCOperand.MCPhyReg(RegisterManager.MCPhyRegTag.zero);
     private final MCOperand.MCPhyReg SP = new MCOperand.MCPhyReg(RegisterManager.MCPhyRegTag.sp);
 
     public void run() {
         for (MCFunction mcf : m.functions.values()) {
-            if (mcf.isBuiltin()) {
-                continue;
-            }
-            boolean done = false;
-            while (!done) {
-                done = simplePeephole(mcf);
-                done &= dataFlowPeephole(mcf);
-            }
+            run(mcf);
         }
     }
 
+    public void run(MCFunction mcf) {
+        if (mcf.isBuiltin()) {
+            return;
+        }
+        PhaseStats.Phase phase = PhaseStats.begin("peephole/" + mcf.getFunc().getName(), mcf::getInstrCount);
+        boolean done = false;
+        while (!done) {
+            done = simplePeephole(mcf);
+            done &= dataFlowPeephole(mcf);
+        }
+        phase.end();
+    }
+
     public boolean simplePeephole(MCFunction mcf) {
         boolean done = true;
         for (IList.INode<MCBasicBlock, MCFunction> bNode : mcf.getList()) {
@@ -42,12 +49,8 @@ public class Peephole {
     public boolean simplePeepholeForBlock(MCBasicBlock mcBB) {
         boolean done = true;
         MCBasicBlock nextBB = mcBB.node.getNext().getValue();
-        ArrayList<MCInstr> instrs = new ArrayList<>();
         for (IList.INode<MCInstr, MCBasicBlock> iNode : mcBB.getList()) {
-            instrs.add(iNode.getValue());
-        }
-        for (int i = 0; i < instrs.size(); ++i) {
-            MCInstr instr = instrs.get(i);
+            MCInstr instr = iNode.getValue();
             MCInstr prev = instr.node.getPrev().getValue();
             MCInstr next = instr.node.getNext().getValue();
             if (instr instanceof MCMove) {
@@ -74,7 +77,6 @@ public class Peephole {
                             nextMove.getSrc().equals(move.getDst())) {
                         nextMove.node.removeSelf();
                         done = false;
-                        ++i;
                     }
                 }
             } else if (nextBB != null && instr instanceof MCJ) {
@@ -189,11 +191,10 @@ public class Peephole {
             Pair<HashMap<MCOperand, MCInstr>, HashMap<MCInstr, MCInstr>> readWriterInfo = readWriteAnalyze(mcBB);
             HashMap<MCOperand, MCInstr> lastWriter = readWriterInfo.getFir();
             HashMap<MCInstr, MCInstr> writer2Reader = readWriterInfo.getSec();
-            HashSet<MCOperand> liveOut = mcBB.liveOut;
             for (IList.INode<MCInstr, MCBasicBlock> iNode : mcBB.getList()) {
                 MCInstr instr = iNode.getValue();
                 boolean isLastWriter = instr.getDefReg().stream().allMatch(def -> lastWriter.get(def).equals(instr));
-                boolean inLiveOut = instr.getDefReg().stream().anyMatch(liveOut::contains);
+                boolean inLiveOut = instr.getDefReg().stream().anyMatch(def -> livenessAnalysis.isLiveOut(mcBB, def));
                 if (!(isLastWriter && inLiveOut)) {
                     MCInstr lastReader = writer2Reader.get(instr);
                     if (lastReader == null) {
@@ -22,18 +22,20 @@ public class FullRegisterAllocator {
     private final HashMap<MCVirtualReg, MCVirtualReg> new2old = new HashMap<>();
     private final LivenessAnalysis liveness = new LivenessAnalysis();
     private final HashMap<MCVirtualReg, Integer> newRegLiveLength = new HashMap<>();
-    private final HashSet<MCVirtualReg> simplifyWorkList = new HashSet<>();
-    private final HashSet<MCMove> coalesceWorkList = new HashSet<>();
-    private final HashSet<MCVirtualReg> freezeWorkList = new HashSet<>();
-    protected final HashSet<MCVirtualReg> spilledNodes = new HashSet<>();
-    protected final HashSet<MCVirtualReg> spillWorklist = new HashSet<>();
+    private final LinkedHashSet<MCVirtualReg> simplifyWorkList = new LinkedHashSet<>();
+    private final LinkedHashSet<MCMove> coalesceWorkList = new LinkedHashSet<>();
+    private final LinkedHashSet<MCVirtualReg> freezeWorkList = new LinkedHashSet<>();
+    protected final LinkedHashSet<MCVirtualReg> spilledNodes = new LinkedHashSet<>();
+    protected final LinkedHashSet<MCVirtualReg> spillWorklist = new LinkedHashSet<>();
     protected final Stack<MCVirtualReg> selectedStack = new Stack<>();
-    private final HashSet<MCVirtualReg> coalescedNodes = new HashSet<>();
+    // 与 selectedStack 同步，查询是否在栈里不必线性扫描
+    private final LinkedHashSet<MCVirtualReg> selectedNodes = new LinkedHashSet<>();
+    private final LinkedHashSet<MCVirtualReg> coalescedNodes = new LinkedHashSet<>();
     private final HashMap<MCOperand, MCOperand> alias = new HashMap<>();
     private final InterfereGraph graph = new InterfereGraph();
-    private final HashMap<MCOperand, HashSet<MCInstr.MCMove>> moveList = new HashMap<>();
+    private final HashMap<MCOperand, LinkedHashSet<MCInstr.MCMove>> moveList = new HashMap<>();
     private final HashMap<MCOperand, Integer> loopDepth = new HashMap<>();
-    private final HashSet<MCMove> activeMoves = new HashSet<>();
+    private final LinkedHashSet<MCMove> activeMoves = new LinkedHashSet<>();
     private static final int INF = 0x3f3f3f3f;
     private final MCPhyReg SP = new MCPhyReg(MCPhyRegTag.sp);
     private final MCPhyReg ZERO = new MCPhyReg(MCPhyRegTag.zero);
@@ -52,13 +54,14 @@ public class FullRegisterAllocator {
         spillWorklist.clear();
         moveList.clear();
         for (MCVirtualReg vr : mcf.str2Reg().values()) {
-            moveList.put(vr, new HashSet<>());
+            moveList.put(vr, new LinkedHashSet<>());
         }
         spilledNodes.clear();
         coalescedNodes.clear();
         alias.clear();
         activeMoves.clear();
         selectedStack.clear();
+        selectedNodes.clear();
         graph.init();
         for (MCPhyRegTag tag : MCPhyRegTag.values()) {
             graph.setDegreeINF(new MCPhyReg(tag));
@@ -101,31 +104,34 @@ public class FullRegisterAllocator {
         // TODO: 2022/11/6 正着快还是反着快？？？
         for (IList.INode<MCBasicBlock, MCFunction> bNode = mcf.getList().getLast(); !bNode.isGuard(); bNode = bNode.getPrev()) {
             MCBasicBlock mcBB = bNode.getValue();
-            HashSet<MCOperand> live = new HashSet<>(mcBB.liveOut);
+            // 以 liveness 的寄存器编号为下标的位集
+            long[] live = liveness.copyLiveOut(mcBB);
             for (IList.INode<MCInstr, MCBasicBlock> iNode = mcBB.getList().getLast(); !iNode.isGuard(); iNode = iNode.getPrev()) {
                 MCInstr instr = iNode.getValue();
                 if (instr instanceof MCMove && !((MCMove) instr).getSrc().equals(ZERO)) {
                     // TODO: 2022/11/7 move from $zero
                     MCMove move = (MCMove) instr;
-                    live.remove(move.getSrc());
-                    moveList.computeIfAbsent(move.getSrc(), k -> new HashSet<>()).add(move);
-                    moveList.computeIfAbsent(move.getDst(), k -> new HashSet<>()).add(move);
+                    LivenessAnalysis.clear(live, liveness.indexOf(move.getSrc()));
+                    moveList.computeIfAbsent(move.getSrc(), k -> new LinkedHashSet<>()).add(move);
+                    moveList.computeIfAbsent(move.getDst(), k -> new LinkedHashSet<>()).add(move);
                     coalesceWorkList.add(move);
                 }
-                live.addAll(instr.getDefReg());
-                for (MCOperand d : instr.getDefReg()) {
-                    for (MCOperand l : live) {
-                        graph.addEdge(l, d);
+                for (MCReg d : instr.getDefReg()) {
+                    LivenessAnalysis.set(live, liveness.indexOf(d));
+                }
+                for (MCReg d : instr.getDefReg()) {
+                    for (int l = LivenessAnalysis.nextSetBit(live, 0); l >= 0; l = LivenessAnalysis.nextSetBit(live, l + 1)) {
+                        graph.addEdge(liveness.regOf(l), d);
                     }
                 }
                 // TODO: 2022/11/6 choose spill Scheme!!!
-                for (MCOperand def : instr.getDefReg()) {
+                for (MCReg def : instr.getDefReg()) {
                     loopDepth.compute(def, (k, v) -> v == null ? 0 : v + mcBB.getLoopDepth());
-                    live.remove(def);
+                    LivenessAnalysis.clear(live, liveness.indexOf(def));
                 }
-                for (MCOperand use : instr.getUseReg()) {
+                for (MCReg use : instr.getUseReg()) {
                     loopDepth.compute(use, (k, v) -> v == null ? 0 : v + mcBB.getLoopDepth());
-                    live.add(use);
+                    LivenessAnalysis.set(live, liveness.indexOf(use));
                 }
             }
         }
@@ -144,13 +150,17 @@ public class FullRegisterAllocator {
     }
 
     private Set<MCOperand> adjacent(MCVirtualReg vr) {
-        Predicate<MCOperand> ok = (t) -> !(t instanceof MCVirtualReg && (selectedStack.contains(t) || coalescedNodes.contains(t)));
-        return graph.getAllAdjacent(vr).stream().filter(ok).collect(Collectors.toSet());
+        return graph.getAllAdjacent(vr).stream().filter(this::isAdjacent).collect(Collectors.toCollection(LinkedHashSet::new));
+    }
+
+    // 已经出栈或被合并掉的点不再算作邻居
+    private boolean isAdjacent(MCOperand t) {
+        return !(t instanceof MCVirtualReg && (selectedNodes.contains(t) || coalescedNodes.contains(t)));
     }
 
     private Set<MCMove> nodeMoves(MCOperand n) {
         Predicate<MCMove> ok = (t) -> (activeMoves.contains(t) || coalesceWorkList.contains(t));
-        return moveList.getOrDefault(n, new HashSet<>()).stream().filter(ok).collect(Collectors.toSet());
+        return moveList.getOrDefault(n, new LinkedHashSet<>()).stream().filter(ok).collect(Collectors.toCollection(LinkedHashSet::new));
     }
 
     private boolean moveRelated(MCOperand n) {
@@ -161,6 +171,7 @@ public class FullRegisterAllocator {
         MCVirtualReg n = simplifyWorkList.iterator().next();
         simplifyWorkList.remove(n);
         selectedStack.push(n);
+        selectedNodes.add(n);
         for (MCOperand m : adjacent(n)) {
             decrementDegree(m);
         }
@@ -171,7 +182,7 @@ public class FullRegisterAllocator {
         graph.decrementDegree(m);
         if (d == ALLOCATABLE_REG_COUNT) {
             MCVirtualReg vr = (MCVirtualReg) m;
-            enableMoves(new HashSet<MCOperand>() {{ add(vr); addAll(adjacent(vr)); }});
+            enableMoves(new LinkedHashSet<MCOperand>() {{ add(vr); addAll(adjacent(vr)); }});
             spillWorklist.remove(vr);
             if (moveRelated(vr)) {
                 freezeWorkList.add(vr);
@@ -212,8 +223,8 @@ public class FullRegisterAllocator {
             Logger.logConstrainedMove(move);
             addWorkList(u);
             addWorkList(v);
-        } else if ((u instanceof MCPhyReg && adjacent((MCVirtualReg) v).stream().allMatch(t -> OK(t, (MCPhyReg) u))) ||
-                (u instanceof MCVirtualReg && conservative(new HashSet<MCOperand>() {{ addAll(adjacent((MCVirtualReg) u)); addAll(adjacent((MCVirtualReg) v)); }}))) {
+        } else if ((u instanceof MCPhyReg && allOK((MCVirtualReg) v, (MCPhyReg) u)) ||
+                (u instanceof MCVirtualReg && conservative((MCVirtualReg) u, (MCVirtualReg) v))) {
             Logger.logCoalescedMove(move);
             combine(u, (MCVirtualReg) v);
             addWorkList(u);
@@ -236,8 +247,31 @@ public class FullRegisterAllocator {
         return graph.getDegree(t) < ALLOCATABLE_REG_COUNT || t instanceof MCPhyReg || graph.isLinked(t, r);
     }
 
-    private boolean conservative(Set<MCOperand> s) {
-        return s.stream().filter(n -> graph.getDegree(n) >= ALLOCATABLE_REG_COUNT).count() < ALLOCATABLE_REG_COUNT;
+    // George 测试：v 的每个邻居都满足 OK(t, r)
+    private boolean allOK(MCVirtualReg v, MCPhyReg r) {
+        for (MCOperand t : graph.getAllAdjacent(v)) {
+            if (isAdjacent(t) && !OK(t, r)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Briggs 测试：u、v 合并后度数不小于 K 的邻居少于 K 个；不构造两个邻居集合的并集，数够 K 个就返回
+    private boolean conservative(MCVirtualReg u, MCVirtualReg v) {
+        Set<MCOperand> adjU = graph.getAllAdjacent(u);
+        int cnt = 0;
+        for (MCOperand n : adjU) {
+            if (isAdjacent(n) && graph.getDegree(n) >= ALLOCATABLE_REG_COUNT && ++cnt >= ALLOCATABLE_REG_COUNT) {
+                return false;
+            }
+        }
+        for (MCOperand n : graph.getAllAdjacent(v)) {
+            if (isAdjacent(n) && !adjU.contains(n) && graph.getDegree(n) >= ALLOCATABLE_REG_COUNT && ++cnt >= ALLOCATABLE_REG_COUNT) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private MCOperand getAlias(MCOperand n) {
@@ -256,7 +290,7 @@ public class FullRegisterAllocator {
         }
         coalescedNodes.add(v);
         alias.put(v, u);
-        moveList.computeIfAbsent(u, k -> new HashSet<>()).addAll(moveList.get(v));
+        moveList.computeIfAbsent(u, k -> new LinkedHashSet<>()).addAll(moveList.get(v));
         enableMoves(Collections.singleton(v));
         for (MCOperand t : adjacent(v)) {
             graph.addEdge(t, u);
@@ -322,7 +356,8 @@ public class FullRegisterAllocator {
         color.clear();
         while (!selectedStack.isEmpty()) {
             MCVirtualReg n = selectedStack.pop();
-            HashSet<MCPhyRegTag> okColors = new HashSet<>(allocatableRegs);
+            selectedNodes.remove(n);
+            HashSet<MCPhyRegTag> okColors = new LinkedHashSet<>(allocatableRegs);
             for (MCOperand w : graph.getAllAdjacent(n)) {
                 MCOperand aliasW = getAlias(w);
                 MCPhyRegTag removedTag = null;
@@ -377,27 +412,24 @@ public class FullRegisterAllocator {
             }
             for (IList.INode<MCInstr, MCBasicBlock> iNode : mcBB.getList()) {
                 MCInstr instr = iNode.getValue();
-                HashSet<MCReg> defs = new HashSet<>(instr.getDefReg());
-                HashSet<MCReg> uses = new HashSet<>(instr.getUseReg());
-                for (MCReg use : uses) {
-                    if (use.equals(vr)) {
-                        if (spillReg == null) {
-                            spillReg = cloneVReg(vr);
-                        }
-                        instr.replaceOperandOfInstr(use, spillReg);
-                        if (firstUse == null && lastDef == null) {
-                            firstUse = instr;
-                        }
+                // 每个溢出的寄存器都要扫一遍所有指令，这里不复制 def/use 表
+                boolean isUse = instr.getUseReg().contains(vr);
+                boolean isDef = instr.getDefReg().contains(vr);
+                if (isUse) {
+                    if (spillReg == null) {
+                        spillReg = cloneVReg(vr);
+                    }
+                    instr.replaceOperandOfInstr(vr, spillReg);
+                    if (firstUse == null && lastDef == null) {
+                        firstUse = instr;
                     }
                 }
-                for (MCReg def : defs) {
-                    if (def.equals(vr)) {
-                        if (spillReg == null) {
-                            spillReg = cloneVReg(vr);
-                        }
-                        instr.replaceOperandOfInstr(def, spillReg);
-                        lastDef = instr;
+                if (isDef) {
+                    if (spillReg == null) {
+                        spillReg = cloneVReg(vr);
                     }
+                    instr.replaceOperandOfInstr(vr, spillReg);
+                    lastDef = instr;
                 }
                 if (spillScheme.checkToSpill()) {
                     spillOneToStore(spillReg, firstUse, lastDef, mcBB, storeInStack, offset);
@@ -1,41 +1,49 @@
 package backend.register;
 
 import backend.mc.MCOperand;
-import utils.Pair;
+import backend.register.RegisterManager.MCPhyRegTag;
 
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 
 public class InterfereGraph {
     private final int INF = 0x3f3f3f3f;
-    private final HashSet<Pair<MCOperand, MCOperand>> edges = new HashSet<>();
-    private final HashMap<MCOperand, HashSet<MCOperand>> edge = new HashMap<>();
+    // 有虚拟寄存器一端的边直接查它的邻接表，两端都是物理寄存器的边记在矩阵里，不再为每次查询构造 Pair
+    private final HashMap<MCOperand, LinkedHashSet<MCOperand>> edge = new HashMap<>();
+    private final boolean[][] phyEdges = new boolean[MCPhyRegTag.values().length][MCPhyRegTag.values().length];
     private final HashMap<MCOperand, Integer> degree = new HashMap<>();
 
     public void init() {
         edge.clear();
-        edges.clear();
+        for (boolean[] row : phyEdges) {
+            Arrays.fill(row, false);
+        }
         degree.clear();
     }
 
     public void addEdge(MCOperand u, MCOperand v) {
-        if (u.equals(v) || edges.contains(new Pair<>(u, v))) {
+        if (u.equals(v) || isLinked(u, v)) {
             return;
         }
-        edges.add(new Pair<>(u, v));
-        edges.add(new Pair<>(v, u));
+        if (u instanceof MCOperand.MCPhyReg && v instanceof MCOperand.MCPhyReg) {
+            int a = ((MCOperand.MCPhyReg) u).getTag().ordinal();
+            int b = ((MCOperand.MCPhyReg) v).getTag().ordinal();
+            phyEdges[a][b] = true;
+            phyEdges[b][a] = true;
+        }
         if (u instanceof MCOperand.MCVirtualReg) {
-            edge.computeIfAbsent(u, key -> new HashSet<>()).add(v);
+            edge.computeIfAbsent(u, key -> new LinkedHashSet<>()).add(v);
             degree.put(u, degree.computeIfAbsent(u, key -> 0) + 1);
         }
         if (v instanceof MCOperand.MCVirtualReg) {
-            edge.computeIfAbsent(v, key -> new HashSet<>()).add(u);
+            edge.computeIfAbsent(v, key -> new LinkedHashSet<>()).add(u);
             degree.put(v, degree.computeIfAbsent(v, key -> 0) + 1);
         }
     }
 
-    public HashSet<MCOperand> getAllAdjacent(MCOperand k) {
-        return edge.getOrDefault(k, new HashSet<>());
+    public LinkedHashSet<MCOperand> getAllAdjacent(MCOperand k) {
+        return edge.getOrDefault(k, new LinkedHashSet<>());
     }
 
     public void decrementDegree(MCOperand k) {
@@ -52,6 +60,17 @@ public class InterfereGraph {
     }
 
     public boolean isLinked(MCOperand a, MCOperand b) {
-        return edges.contains(new Pair<>(a, b));
+        if (a instanceof MCOperand.MCVirtualReg) {
+            LinkedHashSet<MCOperand> adj = edge.get(a);
+            return adj != null && adj.contains(b);
+        }
+        if (b instanceof MCOperand.MCVirtualReg) {
+            LinkedHashSet<MCOperand> adj = edge.get(b);
+            return adj != null && adj.contains(a);
+        }
+        if (a instanceof MCOperand.MCPhyReg && b instanceof MCOperand.MCPhyReg) {
+            return phyEdges[((MCOperand.MCPhyReg) a).getTag().ordinal()][((MCOperand.MCPhyReg) b).getTag().ordinal()];
+        }
+        return false;
     }
 }
@@ -4,59 +4,195 @@ import backend.mc.MCBasicBlock;
 import backend.mc.MCFunction;
 import backend.mc.MCInstr;
 import backend.mc.MCOperand;
+import backend.mc.MCOperand.*;
+import backend.register.RegisterManager.MCPhyRegTag;
 import utils.IList;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 
+// 寄存器编号：物理寄存器按 tag 编号 0..31，虚拟寄存器接在后面（MCFunction.renumber 的编号 + 32）
+// 每个块的 use/def/liveIn/liveOut 都是以寄存器编号为下标的 long[] 位集，以块编号为下标存放
+// 活跃性是逆向问题，工作表按 CFG 的后序取块（即反图的逆后序），liveIn 变了才把前驱放回工作表
 public class LivenessAnalysis {
+    private static final MCPhyRegTag[] PHY_TAGS = MCPhyRegTag.values();
+
+    private MCReg[] regs;
+    private int words;
+    private long[][] use;
+    private long[][] def;
+    private long[][] liveIn;
+    private long[][] liveOut;
 
     public void analysis(MCFunction mcf) {
+        mcf.renumber();
+        int n = mcf.getNumBlocks();
+        regs = new MCReg[PHY_TAGS.length + mcf.getNumVirtualRegs()];
+        for (MCPhyRegTag tag : PHY_TAGS) {
+            regs[tag.ordinal()] = new MCPhyReg(tag);
+        }
+        words = (regs.length + 63) >>> 6;
+        use = new long[n][words];
+        def = new long[n][words];
+        liveIn = new long[n][];
+        liveOut = new long[n][words];
+        MCBasicBlock[] blocks = new MCBasicBlock[n];
         for (IList.INode<MCBasicBlock, MCFunction> bNode : mcf.getList()) {
             MCBasicBlock mcBB = bNode.getValue();
-            mcBB.liveUse.clear();
-            mcBB.liveDef.clear();
+            int b = mcBB.getIndex();
+            blocks[b] = mcBB;
             for (IList.INode<MCInstr, MCBasicBlock> iNode : mcBB.getList()) {
                 MCInstr instr = iNode.getValue();
-                instr.getUseReg().forEach(reg -> {
-                    if (!mcBB.liveDef.contains(reg)) {
-                        mcBB.liveUse.add(reg);
-                    }
-                });
-                instr.getDefReg().forEach(reg -> {
-                    if (!mcBB.liveUse.contains(reg)) {
-                        mcBB.liveDef.add(reg);
+                for (MCReg reg : instr.getUseReg()) {
+                    int r = indexOf(reg);
+                    regs[r] = regs[r] == null ? reg : regs[r];
+                    if (!get(def[b], r)) {
+                        set(use[b], r);
                     }
-                });
-            }
-            mcBB.liveIn.clear();
-            mcBB.liveOut.clear();
-            mcBB.liveIn.addAll(mcBB.liveUse);
-        }
-        boolean stable = false;
-        while (!stable) {
-            stable = true;
-            for (IList.INode<MCBasicBlock, MCFunction> bNode = mcf.getList().getLast(); !bNode.isGuard(); bNode = bNode.getPrev()) {
-                MCBasicBlock mcBB = bNode.getValue();
-                HashSet<MCOperand> newLiveOut = new HashSet<>();
-                for (MCBasicBlock succ : mcBB.getSucc()) {
-                    for (MCOperand liveIn : succ.liveIn) {
-                        if (mcBB.liveOut.add(liveIn)) {
-                            newLiveOut.add(liveIn);
-                        }
+                }
+                for (MCReg reg : instr.getDefReg()) {
+                    int r = indexOf(reg);
+                    regs[r] = regs[r] == null ? reg : regs[r];
+                    if (!get(use[b], r)) {
+                        set(def[b], r);
                     }
                 }
-                if (newLiveOut.size() > 0) {
-                    stable = false;
+            }
+            liveIn[b] = use[b].clone();
+        }
+        // rank[b] 为块在后序中的位置，入口不可达的块排在最后
+        int[] order = postOrder(blocks);
+        int[] rank = new int[n];
+        for (int i = 0; i < n; ++i) {
+            rank[order[i]] = i;
+        }
+        BitSet worklist = new BitSet(n);
+        worklist.set(0, n);
+        long[] out = new long[words];
+        for (int p = worklist.nextSetBit(0); p >= 0; p = worklist.nextSetBit(0)) {
+            worklist.clear(p);
+            int b = order[p];
+            Arrays.fill(out, 0);
+            for (MCBasicBlock succ : blocks[b].getSucc()) {
+                long[] in = liveIn[succ.getIndex()];
+                for (int w = 0; w < words; ++w) {
+                    out[w] |= in[w];
                 }
-                if (!stable) {
-                    for (MCOperand op : mcBB.liveOut) {
-                        if (!mcBB.liveDef.contains(op)) {
-                            mcBB.liveIn.add(op);
-                        }
-                    }
+            }
+            System.arraycopy(out, 0, liveOut[b], 0, words);
+            boolean changed = false;
+            long[] in = liveIn[b];
+            for (int w = 0; w < words; ++w) {
+                long x = use[b][w] | out[w] & ~def[b][w];
+                if (x != in[w]) {
+                    in[w] = x;
+                    changed = true;
+                }
+            }
+            if (changed) {
+                for (MCBasicBlock pred : blocks[b].getPred()) {
+                    worklist.set(rank[pred.getIndex()]);
                 }
             }
         }
     }
+
+    // 从入口迭代 dfs 求后序，再补上不可达的块
+    private static int[] postOrder(MCBasicBlock[] blocks) {
+        int n = blocks.length;
+        int[] order = new int[n];
+        int cnt = 0;
+        boolean[] visited = new boolean[n];
+        int[] stack = new int[n];
+        int[] edge = new int[n];
+        for (int root = 0; root < n; ++root) {
+            if (visited[root]) {
+                continue;
+            }
+            int top = 0;
+            visited[root] = true;
+            stack[top] = root;
+            edge[top++] = 0;
+            while (top > 0) {
+                ArrayList<MCBasicBlock> succs = blocks[stack[top - 1]].getSucc();
+                if (edge[top - 1] == succs.size()) {
+                    order[cnt++] = stack[--top];
+                    continue;
+                }
+                int v = succs.get(edge[top - 1]++).getIndex();
+                if (!visited[v]) {
+                    visited[v] = true;
+                    stack[top] = v;
+                    edge[top++] = 0;
+                }
+            }
+        }
+        return order;
+    }
+
+    public int getNumRegs() {
+        return regs.length;
+    }
+
+    public int indexOf(MCReg reg) {
+        if (reg instanceof MCPhyReg) {
+            return ((MCPhyReg) reg).getTag().ordinal();
+        }
+        return PHY_TAGS.length + ((MCVirtualReg) reg).getIndex();
+    }
+
+    public MCReg regOf(int index) {
+        return regs[index];
+    }
+
+    // 返回副本，调用方可以直接在上面逐条指令倒着更新
+    public long[] copyLiveOut(MCBasicBlock mcBB) {
+        return liveOut[mcBB.getIndex()].clone();
+    }
+
+    public boolean isLiveOut(MCBasicBlock mcBB, MCReg reg) {
+        int r = indexOf(reg);
+        return r >= 0 && r < regs.length && get(liveOut[mcBB.getIndex()], r);
+    }
+
+    public HashSet<MCOperand> getLiveOut(MCBasicBlock mcBB) {
+        HashSet<MCOperand> res = new LinkedHashSet<>();
+        long[] set = liveOut[mcBB.getIndex()];
+        for (int r = nextSetBit(set, 0); r >= 0; r = nextSetBit(set, r + 1)) {
+            res.add(regs[r]);
+        }
+        return res;
+    }
+
+    static boolean get(long[] set, int i) {
+        return (set[i >>> 6] & 1L << i) != 0;
+    }
+
+    static void set(long[] set, int i) {
+        set[i >>> 6] |= 1L << i;
+    }
+
+    static void clear(long[] set, int i) {
+        set[i >>> 6] &= ~(1L << i);
+    }
+
+    static int nextSetBit(long[] set, int from) {
+        int w = from >>> 6;
+        if (w >= set.length) {
+            return -1;
+        }
+        long word = set[w] & -1L << from;
+        while (true) {
+            if (word != 0) {
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            }
+            if (++w == set.length) {
+                return -1;
+            }
+            word = set[w];
+        }
+    }
 }
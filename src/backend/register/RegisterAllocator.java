@@ -17,7 +17,7 @@ public abstract class RegisterAllocator {
     protected final MCFunction mcf;
     private final LivenessAnalysis livenessAnalysis = new LivenessAnalysis();
     private final InterfereGraph graph = new InterfereGraph();
-    private final HashSet<MCVirtualReg> spilledNodes = new HashSet<>();
+    private final LinkedHashSet<MCVirtualReg> spilledNodes = new LinkedHashSet<>();
     protected final Stack<MCVirtualReg> selectedStack = new Stack<>();
     private final HashMap<MCVirtualReg, Integer> newRegLiveLength = new HashMap<>();
 
@@ -40,7 +40,7 @@ public abstract class RegisterAllocator {
     protected void buildGraph() {
         for (IList.INode<MCBasicBlock, MCFunction> bNode = mcf.getList().getLast(); !bNode.isGuard(); bNode = bNode.getPrev()) {
             MCBasicBlock mcBB = bNode.getValue();
-            HashSet<MCOperand> liveSet = new HashSet<>(mcBB.liveOut);
+            HashSet<MCOperand> liveSet = livenessAnalysis.getLiveOut(mcBB);
             for (IList.INode<MCInstr, MCBasicBlock> iNode = mcBB.getList().getLast(); !iNode.isGuard(); iNode = iNode.getPrev()) {
                 MCInstr mcInstr = iNode.getValue();
                 dealDefUse(liveSet, mcInstr, mcBB);
@@ -6,6 +6,7 @@ import midend.ir.Instruction;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 
 public class RegisterManager {
     public enum MCPhyRegTag {
@@ -16,19 +17,19 @@ public class RegisterManager {
         t8, t9, k0, k1, gp, sp, fp, ra;
 
         public static HashSet<MCPhyRegTag> getSs() {
-            return new HashSet<>(Arrays.asList(s0, s1, s2, s3, s4, s5, s6, s7, fp));
+            return new LinkedHashSet<>(Arrays.asList(s0, s1, s2, s3, s4, s5, s6, s7, fp));
         }
 
         public static HashSet<MCPhyRegTag> getTs() {
-            return new HashSet<>(Arrays.asList(t0, t1, t2, t3, t4, t5, t6, t7));
+            return new LinkedHashSet<>(Arrays.asList(t0, t1, t2, t3, t4, t5, t6, t7));
         }
 
         public static HashSet<MCPhyRegTag> getVs() {
-            return new HashSet<>(Arrays.asList(v0, v1));
+            return new LinkedHashSet<>(Arrays.asList(v0, v1));
         }
 
         public static HashSet<MCPhyRegTag> getAs() {
-            return new HashSet<>(Arrays.asList(a0, a1, a2, a3));
+            return new LinkedHashSet<>(Arrays.asList(a0, a1, a2, a3));
         }
     }
 
@@ -37,7 +38,7 @@ public class RegisterManager {
     }
 
     public static HashSet<MCPhyRegTag> getAllocatableRegisters() {
-        HashSet<MCPhyRegTag> regs = new HashSet<>();
+        HashSet<MCPhyRegTag> regs = new LinkedHashSet<>();
         regs.addAll(MCPhyRegTag.getSs());
         regs.addAll(MCPhyRegTag.getTs());
         return regs;
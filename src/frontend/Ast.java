@@ -1,14 +1,21 @@
 package frontend;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import frontend.Lexer.Token.TokenType;
 
 public class Ast {
     private final ArrayList<CompUnit> compUnits;
     private final ArrayList<String> res = new ArrayList<>();
+    private final Lexer.NameTable names;
 
-    public Ast() {
+    public Ast(Lexer.NameTable names) {
         this.compUnits = new ArrayList<>();
+        this.names = names;
+    }
+
+    public Lexer.NameTable getNames() {
+        return names;
     }
 
     public ArrayList<String> getRes() {
@@ -168,6 +175,8 @@ public class Ast {
         private final Lexer.Token ident;
         private final ArrayList<FuncFParam> funcFParams;
         private final Block block;
+        // 增量解析复用时函数整体移动的行数，token 里记的还是第一次解析时的行号，报错时加上
+        private int lineShift = 0;
 
         public FuncDef(Lexer.Token returnType, Lexer.Token ident, ArrayList<FuncFParam> funcFParams, Block block) {
             this.returnType = returnType;
@@ -192,6 +201,14 @@ public class Ast {
             return block;
         }
 
+        public int getLineShift() {
+            return lineShift;
+        }
+
+        public void setLineShift(int lineShift) {
+            this.lineShift = lineShift;
+        }
+
         public void print(Ast ast) {
             ast.addLine(this.returnType);
             if (!this.ident.getText().equals("main")) {
@@ -698,18 +715,49 @@ public class Ast {
 
     // Exp -> BinaryExp | UnaryExp
     public static class Exp implements PrimaryExp.PrimaryExpItem, InitVal.InitValItem, FuncRParam.FuncRParamItem {
-        private final AddExp addExp;
+        private AddExp addExp;
+        // 紧凑形式：表达式存在 pool 中，以 root 为根，需要对象树时再展开
+        private final ExpPool pool;
+        private final int root;
 
         public Exp(AddExp addExp) {
             this.addExp = addExp;
+            this.pool = null;
+            this.root = -1;
+        }
+
+        public Exp(ExpPool pool, int root) {
+            this.pool = pool;
+            this.root = root;
+        }
+
+        public static Exp of(int value) {
+            UnaryExp unaryExp = new UnaryExp(new ArrayList<>(), new PrimaryExp(Number.of(value)));
+            MulExp mulExp = new MulExp(unaryExp, new ArrayList<>(), new ArrayList<>());
+            return new Exp(new AddExp(mulExp, new ArrayList<>(), new ArrayList<>()));
+        }
+
+        public boolean isFlat() {
+            return pool != null;
+        }
+
+        public ExpPool getPool() {
+            return pool;
+        }
+
+        public int getRoot() {
+            return root;
         }
 
         public AddExp getExpItem() {
+            if (addExp == null) {
+                addExp = pool.inflateAdd(root);
+            }
             return addExp;
         }
 
         public void print(Ast ast, boolean allConst) {
-            this.addExp.print(ast, allConst);
+            this.getExpItem().print(ast, allConst);
             ast.addLine(allConst ? "<ConstExp>" : "<Exp>");
         }
     }
@@ -738,7 +786,10 @@ public class Ast {
         }
 
         public static boolean isSignal(Lexer.Token token) {
-            TokenType type = token.getType();
+            return isSignal(token.getType());
+        }
+
+        public static boolean isSignal(TokenType type) {
             return type == TokenType.Mult || type == TokenType.Div || type == TokenType.Mod || type == TokenType.BitAnd;
         }
 
@@ -777,7 +828,10 @@ public class Ast {
         }
 
         public static boolean isSignal(Lexer.Token token) {
-            TokenType type = token.getType();
+            return isSignal(token.getType());
+        }
+
+        public static boolean isSignal(TokenType type) {
             return type == TokenType.Plus || type == TokenType.Minu;
         }
 
@@ -816,7 +870,10 @@ public class Ast {
         }
 
         public static boolean isSignal(Lexer.Token token) {
-            TokenType type = token.getType();
+            return isSignal(token.getType());
+        }
+
+        public static boolean isSignal(TokenType type) {
             return type == TokenType.Lss || type == TokenType.Leq || type == TokenType.Gre || type == TokenType.Geq;
         }
 
@@ -855,7 +912,10 @@ public class Ast {
         }
 
         public static boolean isSignal(Lexer.Token token) {
-            TokenType type = token.getType();
+            return isSignal(token.getType());
+        }
+
+        public static boolean isSignal(TokenType type) {
             return type == TokenType.Eql || type == TokenType.Neq;
         }
 
@@ -871,19 +931,43 @@ public class Ast {
     }
 
     public static class LOrExp {
-        private final ArrayList<LAndExp> exps;
+        private ArrayList<LAndExp> exps;
+        private final ExpPool pool;
+        private final int root;
 
         public LOrExp(ArrayList<LAndExp> exps) {
             this.exps = exps;
+            this.pool = null;
+            this.root = -1;
+        }
+
+        public LOrExp(ExpPool pool, int root) {
+            this.pool = pool;
+            this.root = root;
+        }
+
+        public boolean isFlat() {
+            return pool != null;
+        }
+
+        public ExpPool getPool() {
+            return pool;
+        }
+
+        public int getRoot() {
+            return root;
         }
 
         public ArrayList<LAndExp> getExps() {
+            if (exps == null) {
+                exps = pool.inflateLOr(root);
+            }
             return exps;
         }
 
         public void print(Ast ast) {
             boolean notFirst = false;
-            for (LAndExp exp : this.exps) {
+            for (LAndExp exp : this.getExps()) {
                 if (notFirst) {
                     ast.addLine(TokenType.Or);
                 }
@@ -923,6 +1007,11 @@ public class Ast {
             this.val = val;
         }
 
+        // 常量折叠的结果，没有对应的源码 token
+        public static Number of(int value) {
+            return new Number(new Lexer.Token(TokenType.IntCon, String.valueOf(value), 0));
+        }
+
         public Lexer.Token getToken() {
             return val;
         }
@@ -952,4 +1041,216 @@ public class Ast {
             ast.addLine(this.context);
         }
     }
+
+    // 表达式的紧凑编码：每个结点是并列数组中的一个下标，孩子按 first child / next sibling 串起来，
+    // token 记为 TokenStream 中的下标。二元运算左结合地嵌套，一元运算符各占一个结点
+    public static class ExpPool {
+        public static final int NUMBER = 0;
+        public static final int LVAL = 1;
+        public static final int CALL = 2;
+        public static final int STRING = 3;
+        public static final int PAREN = 4;
+        public static final int UNARY = 5;
+        public static final int BINARY = 6;
+        public static final int LAND = 7;
+        public static final int LOR = 8;
+        // 解析时折叠出的常量，值直接存在 toks 中
+        public static final int CONST = 9;
+
+        // detach 之后 tokens 为空，结点的 token 改从 detached 中取
+        private Lexer.TokenStream tokens;
+        private Lexer.Token[] detached;
+        private byte[] kinds = new byte[16];
+        private int[] toks = new int[16];
+        private int[] children = new int[16];
+        private int[] nexts = new int[16];
+        private int size = 0;
+
+        public ExpPool(Lexer.TokenStream tokens) {
+            this.tokens = tokens;
+        }
+
+        public int add(int kind, int tok) {
+            if (size == kinds.length) {
+                kinds = Arrays.copyOf(kinds, size * 2);
+                toks = Arrays.copyOf(toks, size * 2);
+                children = Arrays.copyOf(children, size * 2);
+                nexts = Arrays.copyOf(nexts, size * 2);
+            }
+            kinds[size] = (byte) kind;
+            toks[size] = tok;
+            children[size] = -1;
+            nexts[size] = -1;
+            return size++;
+        }
+
+        public int addConst(int value) {
+            return add(CONST, value);
+        }
+
+        // 丢弃 mark 之后加入的结点
+        public void truncate(int mark) {
+            size = mark;
+        }
+
+        public void setChild(int node, int child) {
+            children[node] = child;
+        }
+
+        public void setNext(int node, int next) {
+            nexts[node] = next;
+        }
+
+        public int getKind(int node) {
+            return kinds[node];
+        }
+
+        public int getChild(int node) {
+            return children[node];
+        }
+
+        public int getNext(int node) {
+            return nexts[node];
+        }
+
+        public Lexer.Token getToken(int node) {
+            return tokens == null ? detached[node] : tokens.get(toks[node]);
+        }
+
+        public TokenType getTokenType(int node) {
+            return tokens == null ? detached[node].getType() : tokens.getType(toks[node]);
+        }
+
+        // 把结点用到的 token 取出来单独保存，不再引用整个 TokenStream（以及它背后的源码）
+        public void detach() {
+            if (tokens == null) {
+                return;
+            }
+            detached = new Lexer.Token[size];
+            for (int i = 0; i < size; ++i) {
+                if (kinds[i] != CONST && toks[i] >= 0) {
+                    detached[i] = tokens.get(toks[i]);
+                }
+            }
+            tokens = null;
+        }
+
+        public int getValue(int node) {
+            return toks[node];
+        }
+
+        public int size() {
+            return size;
+        }
+
+        // 以下把紧凑形式展开成对象树，供 Semantic 和语法输出使用
+
+        private boolean isBinary(int node, int level) {
+            if (kinds[node] != BINARY) {
+                return false;
+            }
+            TokenType type = getTokenType(node);
+            switch (level) {
+                case 0: return EqExp.isSignal(type);
+                case 1: return RelExp.isSignal(type);
+                case 2: return AddExp.isSignal(type);
+                default: return MulExp.isSignal(type);
+            }
+        }
+
+        ArrayList<LAndExp> inflateLOr(int node) {
+            ArrayList<LAndExp> lAndExps = new ArrayList<>();
+            for (int c = children[node]; c != -1; c = nexts[c]) {
+                ArrayList<EqExp> eqExps = new ArrayList<>();
+                for (int e = children[c]; e != -1; e = nexts[e]) {
+                    eqExps.add(inflateEq(e));
+                }
+                lAndExps.add(new LAndExp(eqExps));
+            }
+            return lAndExps;
+        }
+
+        private EqExp inflateEq(int node) {
+            ArrayList<Lexer.Token> ops = new ArrayList<>();
+            ArrayList<RelExp> rhs = new ArrayList<>();
+            while (isBinary(node, 0)) {
+                ops.add(0, getToken(node));
+                rhs.add(0, inflateRel(nexts[children[node]]));
+                node = children[node];
+            }
+            return new EqExp(inflateRel(node), ops, rhs);
+        }
+
+        private RelExp inflateRel(int node) {
+            ArrayList<Lexer.Token> ops = new ArrayList<>();
+            ArrayList<AddExp> rhs = new ArrayList<>();
+            while (isBinary(node, 1)) {
+                ops.add(0, getToken(node));
+                rhs.add(0, inflateAdd(nexts[children[node]]));
+                node = children[node];
+            }
+            return new RelExp(inflateAdd(node), ops, rhs);
+        }
+
+        AddExp inflateAdd(int node) {
+            ArrayList<Lexer.Token> ops = new ArrayList<>();
+            ArrayList<MulExp> rhs = new ArrayList<>();
+            while (isBinary(node, 2)) {
+                ops.add(0, getToken(node));
+                rhs.add(0, inflateMul(nexts[children[node]]));
+                node = children[node];
+            }
+            return new AddExp(inflateMul(node), ops, rhs);
+        }
+
+        private MulExp inflateMul(int node) {
+            ArrayList<Lexer.Token> ops = new ArrayList<>();
+            ArrayList<UnaryExp> rhs = new ArrayList<>();
+            while (isBinary(node, 3)) {
+                ops.add(0, getToken(node));
+                rhs.add(0, inflateUnary(nexts[children[node]]));
+                node = children[node];
+            }
+            return new MulExp(inflateUnary(node), ops, rhs);
+        }
+
+        private UnaryExp inflateUnary(int node) {
+            ArrayList<UnaryOp> unaryOps = new ArrayList<>();
+            while (kinds[node] == UNARY) {
+                unaryOps.add(new UnaryOp(getToken(node)));
+                node = children[node];
+            }
+            PrimaryExp.PrimaryExpItem item;
+            switch (kinds[node]) {
+                case NUMBER:
+                    item = new Number(getToken(node));
+                    break;
+                case CONST:
+                    item = Number.of(toks[node]);
+                    break;
+                case PAREN:
+                    item = new Exp(this, children[node]);
+                    break;
+                case LVAL: {
+                    ArrayList<Exp> exps = new ArrayList<>();
+                    for (int c = children[node]; c != -1; c = nexts[c]) {
+                        exps.add(new Exp(this, c));
+                    }
+                    item = new LVal(getToken(node), exps);
+                    break;
+                }
+                case CALL: {
+                    ArrayList<FuncRParam> params = new ArrayList<>();
+                    for (int c = children[node]; c != -1; c = nexts[c]) {
+                        params.add(new FuncRParam(kinds[c] == STRING ? new FormatString(getToken(c)) : new Exp(this, c)));
+                    }
+                    item = new Callee(getToken(node), params);
+                    break;
+                }
+                default:
+                    throw new RuntimeException("unexpected exp node " + kinds[node]);
+            }
+            return new UnaryExp(unaryOps, new PrimaryExp(item));
+        }
+    }
 }
@@ -30,16 +30,14 @@ public class ErrorHandler {
         }
     }
 
-    static void checkPrintfArgsMatchesFormatString(String formatString, int argsNum, int printfLine) {
+    static boolean printfArgsMatchFormatString(String formatString, int argsNum) {
         for (int i = 0; i < formatString.length(); ++i) {
             char ci = formatString.charAt(i);
             if (ci == '%' && i + 1 < formatString.length() && formatString.charAt(i + 1) == 'd') {
                 --argsNum;
             }
         }
-        if (argsNum != 0) {
-            Logger.logError(printfLine, Error.ErrorType.UnmatchedPrintfFormatString);
-        }
+        return argsNum == 0;
     }
 
     public static class Error implements Comparable<Error> {
@@ -73,6 +71,14 @@ public class ErrorHandler {
             this.type = type;
         }
 
+        public int getLine() {
+            return line;
+        }
+
+        public ErrorType getType() {
+            return type;
+        }
+
         @Override
         public String toString() {
             return line + " " + type.errorCode;
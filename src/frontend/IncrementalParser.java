@@ -0,0 +1,104 @@
+package frontend;
+
+import utils.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+// 增量解析：按函数的 token 内容哈希缓存 FuncDef，源码再次提交时只重新解析内容变化的函数
+// 所有版本共用一张名字表，缓存的 token 里的名字 id 在新版本中仍然有效
+// 哈希只看函数内部的相对行号，函数整体上下移动也能复用，报错的行号按移动的行数平移
+// 编译服务的每个连接用一个，同一连接上连续提交的各版本源码之间复用
+public class IncrementalParser {
+    private final Lexer.NameTable names = new Lexer.NameTable();
+    private HashMap<Long, Entry> cache = new HashMap<>();
+    private byte[] declContent;
+    private int reused;
+    private int reparsed;
+
+    private static class Entry {
+        private final Ast.FuncDef funcDef;
+        // 第一次解析时函数首行的行号，FuncDef 的 token 里记的是按它算的行号
+        private final int firstLine;
+        private final int length;
+        // 函数的全部 token 内容，哈希只用来查找，命中后逐字节比较才复用
+        private final byte[] content;
+        // 解析该函数时报告的语法错误，命中缓存时重新报告
+        private final List<ErrorHandler.Error> errors;
+
+        private Entry(Ast.FuncDef funcDef, int firstLine, int length, byte[] content, List<ErrorHandler.Error> errors) {
+            this.funcDef = funcDef;
+            this.firstLine = firstLine;
+            this.length = length;
+            this.content = content;
+            this.errors = errors;
+        }
+    }
+
+    public Ast parse(byte[] src) {
+        Lexer.TokenStream tokens = new Lexer(src, names).getRes();
+        Ast ast = new Ast(names);
+        Parser parser = new Parser(tokens, ast);
+        HashMap<Long, Entry> next = new HashMap<>();
+        reused = 0;
+        reparsed = 0;
+        int funcCount = tokens.getFuncCount();
+        // 函数体中折叠的常量依赖全局 const 的值，全局声明有变化时缓存全部作废
+        byte[] decls = tokens.getDeclContent();
+        if (!Arrays.equals(decls, declContent)) {
+            cache.clear();
+            declContent = decls;
+        }
+        int k = 0;
+        while (tokens.hasNext()) {
+            int start = tokens.getCur();
+            while (k < funcCount && tokens.getFuncStart(k) < start) {
+                ++k;
+            }
+            if (k == funcCount || tokens.getFuncStart(k) != start) {
+                ast.getCompUnits().add(parser.parseUnit());
+                continue;
+            }
+            int end = tokens.getFuncEnd(k);
+            long hash = tokens.getFuncHash(k);
+            Entry entry = cache.get(hash);
+            if (entry != null && entry.length == end - start && tokens.rangeEquals(start, end, entry.content)) {
+                int shift = tokens.getLine(start) - entry.firstLine;
+                entry.funcDef.setLineShift(shift);
+                for (ErrorHandler.Error error : entry.errors) {
+                    Logger.logError(error.getLine() + shift, error.getType());
+                }
+                ast.getCompUnits().add(entry.funcDef);
+                tokens.seek(end);
+                ++reused;
+            } else {
+                int errorCnt = Logger.getErrors().size();
+                Ast.CompUnit compUnit = parser.parseUnit();
+                ast.getCompUnits().add(compUnit);
+                ++reparsed;
+                if (tokens.getCur() != end || !(compUnit instanceof Ast.FuncDef)) {
+                    continue;
+                }
+                // 缓存的函数不能拖住这一版的整个 TokenStream 和源码
+                if (parser.getUnitPool() != null) {
+                    parser.getUnitPool().detach();
+                }
+                List<ErrorHandler.Error> errors = new ArrayList<>(Logger.getErrors().subList(errorCnt, Logger.getErrors().size()));
+                entry = new Entry((Ast.FuncDef) compUnit, tokens.getLine(start), end - start, tokens.getRangeContent(start, end), errors);
+            }
+            next.put(hash, entry);
+        }
+        cache = next;
+        return ast;
+    }
+
+    public int getReused() {
+        return reused;
+    }
+
+    public int getReparsed() {
+        return reparsed;
+    }
+}
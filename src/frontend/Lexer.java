@@ -5,22 +5,34 @@ import midend.ir.Type;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.Locale;
 
 public class Lexer {
     private final BufferedInputStream bis;
-    private final TokenStream res = new TokenStream();
+    // 整个源文件读入内存时使用，pos 指向下一个待读字节
+    private final byte[] buf;
+    private int pos = 0;
+    private final NameTable names;
+    private final TokenStream res;
     private char curChar;
     private boolean end = false;
     private int line = 1;
 
     private boolean nextChar() {
         int ch = -1;
-        try {
-            ch = bis.read();
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (buf != null) {
+            if (pos < buf.length) {
+                ch = buf[pos++] & 0xff;
+            }
+        } else {
+            try {
+                ch = bis.read();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
         if (ch == -1) {
             end = true;
@@ -49,6 +61,73 @@ public class Lexer {
         return isAlphabetic(c) || isDigit(c) || c == '_';
     }
 
+    // 当前 token 在 buf 中的结束位置（不含），curChar 若已读到文件尾则属于 token
+    private int curEnd() {
+        return end ? pos : pos - 1;
+    }
+
+    // 关键字的完美哈希：(首字符 + 尾字符) * 3 + 长度，在 32 个槽内无冲突
+    private static int keywordHash(int first, int last, int length) {
+        return ((first + last) * 3 + length) & 31;
+    }
+
+    private static final Token.TokenType[] KEYWORD_TABLE = new Token.TokenType[32];
+
+    static {
+        for (Token.TokenType type : Token.TokenType.KEYWORDS) {
+            String text = type.text;
+            int h = keywordHash(text.charAt(0), text.charAt(text.length() - 1), text.length());
+            if (KEYWORD_TABLE[h] != null) {
+                throw new RuntimeException("keyword hash collision: " + text + " " + KEYWORD_TABLE[h].text);
+            }
+            KEYWORD_TABLE[h] = type;
+        }
+    }
+
+    private Token.TokenType matchKeyword(int start, int length) {
+        Token.TokenType type = KEYWORD_TABLE[keywordHash(buf[start], buf[start + length - 1], length)];
+        if (type == null || type.text.length() != length) {
+            return Token.TokenType.Idenfr;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (buf[start + i] != type.text.charAt(i)) {
+                return Token.TokenType.Idenfr;
+            }
+        }
+        return type;
+    }
+
+    private void scanKeywordIdent() {
+        int start = pos - 1;
+        while (!end && isIdent(curChar)) {
+            nextChar();
+        }
+        int length = curEnd() - start;
+        Token.TokenType type = matchKeyword(start, length);
+        int id = type.isName() ? names.intern(buf, start, length) : -1;
+        res.add(type, start, length, line, id);
+    }
+
+    private void scanDigit() {
+        int start = pos - 1;
+        while (!end && isIdent(curChar)) {
+            nextChar();
+        }
+        res.add(Token.TokenType.IntCon, start, curEnd() - start, line, -1);
+    }
+
+    private void scanString() {
+        int start = pos - 1;
+        while (nextChar()) {
+            if (curChar == '\"') {
+                break;
+            }
+        }
+        int length = pos - start;
+        nextChar();
+        ErrorHandler.checkIllegalCharInFormatString(res.get(res.add(Token.TokenType.StrCon, start, length, line, -1)));
+    }
+
     private Token nextKeywordIdent() {
         StringBuilder sb = new StringBuilder();
         while (!end && isIdent(curChar)) {
@@ -57,7 +136,7 @@ public class Lexer {
         }
         String text = sb.toString();
         switch (text) {
-            case "main": return new Token(Token.TokenType.MainTK, text, line);
+            case "main": return new Token(Token.TokenType.MainTK, text, line, names.intern(text));
             case "const": return new Token(Token.TokenType.ConstTK, text, line);
             case "int": return new Token(Token.TokenType.IntTK, text, line);
             case "break": return new Token(Token.TokenType.BreakTK, text, line);
@@ -67,10 +146,10 @@ public class Lexer {
             case "while": return new Token(Token.TokenType.WhileTK, text, line);
             case "return": return new Token(Token.TokenType.ReturnTK, text, line);
             case "void": return new Token(Token.TokenType.VoidTK, text, line);
-            case "getint": return new Token(Token.TokenType.GetIntTK, text, line);
+            case "getint": return new Token(Token.TokenType.GetIntTK, text, line, names.intern(text));
             case "printf": return new Token(Token.TokenType.PrintfTK, text, line);
             case "bitand": return new Token(Token.TokenType.BitAnd, text, line);
-            default: return new Token(Token.TokenType.Idenfr, text, line);
+            default: return new Token(Token.TokenType.Idenfr, text, line, names.intern(text));
         }
     }
 
@@ -96,19 +175,19 @@ public class Lexer {
         return token;
     }
 
-    private Token nextOp() {
+    private Token.TokenType nextOp() {
         char firChar = curChar;
         nextChar();
         char secChar = curChar;
         switch (firChar) {
             case '+': {
-                return new Token(Token.TokenType.Plus, "+", line);
+                return Token.TokenType.Plus;
             }
             case '-': {
-                return new Token(Token.TokenType.Minu, "-", line);
+                return Token.TokenType.Minu;
             }
             case '*': {
-                return new Token(Token.TokenType.Mult, "*", line);
+                return Token.TokenType.Mult;
             }
             case '/': {
                 if (secChar == '/') {
@@ -133,75 +212,75 @@ public class Lexer {
                     nextChar();
                     return null;
                 } else {
-                    return new Token(Token.TokenType.Div, "/", line);
+                    return Token.TokenType.Div;
                 }
             }
             case '%': {
-                return new Token(Token.TokenType.Mod, "%", line);
+                return Token.TokenType.Mod;
             }
             case '!': {
                 if (secChar == '=') {
                     nextChar();
-                    return new Token(Token.TokenType.Neq, "!=", line);
+                    return Token.TokenType.Neq;
                 } else {
-                    return new Token(Token.TokenType.Not, "!", line);
+                    return Token.TokenType.Not;
                 }
             }
             case '&': {
                 nextChar();
-                return new Token(Token.TokenType.And, "&&", line);
+                return Token.TokenType.And;
             }
             case '|': {
                 nextChar();
-                return new Token(Token.TokenType.Or, "||", line);
+                return Token.TokenType.Or;
             }
             case '<': {
                 if (secChar == '=') {
                     nextChar();
-                    return new Token(Token.TokenType.Leq, "<=", line);
+                    return Token.TokenType.Leq;
                 } else {
-                    return new Token(Token.TokenType.Lss, "<", line);
+                    return Token.TokenType.Lss;
                 }
             }
             case '>': {
                 if (secChar == '=') {
                     nextChar();
-                    return new Token(Token.TokenType.Geq, ">=", line);
+                    return Token.TokenType.Geq;
                 } else {
-                    return new Token(Token.TokenType.Gre, ">", line);
+                    return Token.TokenType.Gre;
                 }
             }
             case '=': {
                 if (secChar == '=') {
                     nextChar();
-                    return new Token(Token.TokenType.Eql, "==", line);
+                    return Token.TokenType.Eql;
                 } else {
-                    return new Token(Token.TokenType.Assign, "=", line);
+                    return Token.TokenType.Assign;
                 }
             }
             case ';': {
-                return new Token(Token.TokenType.Semicn, ";", line);
+                return Token.TokenType.Semicn;
             }
             case ',': {
-                return new Token(Token.TokenType.Comma, ",", line);
+                return Token.TokenType.Comma;
             }
             case '(': {
-                return new Token(Token.TokenType.LParent, "(", line);
+                return Token.TokenType.LParent;
             }
             case ')': {
-                return new Token(Token.TokenType.RParent, ")", line);
+                return Token.TokenType.RParent;
             }
             case '[': {
-                return new Token(Token.TokenType.LBrack, "[", line);
+                return Token.TokenType.LBrack;
             }
             case ']': {
-                return new Token(Token.TokenType.RBrack, "]", line);
+                return Token.TokenType.RBrack;
             }
             case '{': {
-                return new Token(Token.TokenType.LBrace, "{", line);
+                return Token.TokenType.LBrace;
             }
             case '}': {
-                return new Token(Token.TokenType.RBrace, "}", line);
+                return Token.TokenType.RBrace;
             }
             default: {
                 throw new RuntimeException(firChar + " illegal op!");
@@ -211,30 +290,69 @@ public class Lexer {
 
     public Lexer(BufferedInputStream bis) {
         this.bis = bis;
+        this.buf = null;
+        this.names = new NameTable();
+        this.res = new TokenStream(null, names);
+        lex();
+    }
+
+    public Lexer(byte[] buf) {
+        this(buf, new NameTable());
+    }
+
+    // 复用已有的名字表，同一个名字在多次扫描之间保持相同的 id
+    public Lexer(byte[] buf, NameTable names) {
+        this.bis = null;
+        this.buf = buf;
+        this.names = names;
+        this.res = new TokenStream(buf, names);
+        lex();
+    }
+
+    public static Lexer fromFile(String fileName) throws IOException {
+        return new Lexer(Files.readAllBytes(Paths.get(fileName)));
+    }
+
+    private void lex() {
         nextChar();
         while (!end) {
             if (isAlphabetic(curChar) || curChar == '_') {
-                res.add(nextKeywordIdent());
+                if (buf != null) {
+                    scanKeywordIdent();
+                } else {
+                    res.add(nextKeywordIdent());
+                }
             } else if (isBlank(curChar)) {
                 nextChar();
             } else if (isDigit(curChar)) {
-                res.add(nextDigit());
+                if (buf != null) {
+                    scanDigit();
+                } else {
+                    res.add(nextDigit());
+                }
             } else if (curChar == '\"') {
-                res.add(nextString());
+                if (buf != null) {
+                    scanString();
+                } else {
+                    res.add(nextString());
+                }
             } else {
-                Token token = nextOp();
-                if (token != null) {
-                    res.add(token);
+                Token.TokenType type = nextOp();
+                if (type != null) {
+                    res.add(type, -1, 0, line, -1);
                 }
             }
         }
-
     }
 
     public TokenStream getRes() {
         return res;
     }
 
+    public NameTable getNames() {
+        return names;
+    }
+
     public static class Token {
         public enum TokenType {
             Idenfr, IntCon, StrCon, MainTK("main"), ConstTK("const"), IntTK("int"),
@@ -249,6 +367,12 @@ public class Lexer {
             Eql("==", Instruction.InstrTag.Eq), Neq("!=", Instruction.InstrTag.Ne),
             Assign("="), Semicn(";"), Comma(","), LParent("("), RParent(")"), LBrack("["), RBrack("]"), LBrace("{"), RBrace("}");
 
+            static final TokenType[] KEYWORDS = {
+                    MainTK, ConstTK, IntTK, BreakTK, ContinueTK, IfTK, ElseTK,
+                    WhileTK, ReturnTK, VoidTK, GetIntTK, PrintfTK, BitAnd
+            };
+            private static final TokenType[] VALUES = values();
+
             private final String text;
             private final Instruction.InstrTag tag;
 
@@ -271,6 +395,11 @@ public class Lexer {
                 return tag;
             }
 
+            // 会被放进 NameTable 的 token，main 和 getint 也作为函数名参与符号查找
+            public boolean isName() {
+                return this == Idenfr || this == MainTK || this == GetIntTK;
+            }
+
             @Override
             public String toString() {
                 return this.name().toUpperCase(Locale.ROOT);
@@ -284,11 +413,17 @@ public class Lexer {
         private final TokenType type;
         private final String text;
         private final Integer line;
+        private final int id;
 
         public Token(TokenType type, String text, Integer line) {
+            this(type, text, line, -1);
+        }
+
+        public Token(TokenType type, String text, Integer line, int id) {
             this.type = type;
             this.text = text;
             this.line = line;
+            this.id = id;
         }
 
         public TokenType getType() {
@@ -297,7 +432,7 @@ public class Lexer {
 
         public Type getIRType() {
             if (this.type == TokenType.IntTK) {
-                return new Type.IntegerType(32);
+                return Type.IntegerType.getI32();
             } else if (this.type == TokenType.VoidTK) {
                 return new Type.VoidType();
             } else {
@@ -313,6 +448,10 @@ public class Lexer {
             return line;
         }
 
+        public int getId() {
+            return id;
+        }
+
         @Override
         public String toString() {
             return this.type.toString() + " " + this.text;
@@ -320,20 +459,101 @@ public class Lexer {
     }
 
     public static class TokenStream {
-        private final ArrayList<Token> tokens = new ArrayList<>();
+        // token 按 (type, start, length, line) 存在并列数组中，Token 对象在访问时才创建
+        private final byte[] src;
+        private final NameTable names;
+        private byte[] types = new byte[64];
+        private int[] starts = new int[64];
+        private int[] lengths = new int[64];
+        private int[] lines = new int[64];
+        private int[] ids = new int[64];
+        private Token[] tokens = new Token[64];
+        private int size = 0;
         private int cur = 0;
+        private int released = 0;
+        // 顶层函数定义的 token 区间 [funcStarts[k], funcEnds[k]) 和内容哈希，第一次查询时计算
+        private int[] funcStarts;
+        private int[] funcEnds;
+        private long[] funcHashes;
+        private int funcCount = -1;
+        private byte[] scratch = new byte[256];
+        private int scratchLen;
+
+        public TokenStream(byte[] src, NameTable names) {
+            this.src = src;
+            this.names = names;
+        }
+
+        private void grow() {
+            int capacity = types.length * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            tokens = Arrays.copyOf(tokens, capacity);
+        }
+
+        public int add(Token.TokenType type, int start, int length, int line, int id) {
+            if (size == types.length) {
+                grow();
+            }
+            types[size] = (byte) type.ordinal();
+            starts[size] = start;
+            lengths[size] = length;
+            lines[size] = line;
+            ids[size] = id;
+            return size++;
+        }
 
         public void add(Token token) {
-            tokens.add(token);
+            int index = add(token.getType(), -1, 0, token.getLine(), token.getId());
+            tokens[index] = token;
+        }
+
+        public Token get(int index) {
+            if (tokens[index] == null) {
+                Token.TokenType type = Token.TokenType.VALUES[types[index]];
+                String text;
+                if (ids[index] >= 0) {
+                    text = names.getName(ids[index]);
+                } else if (type.text != null) {
+                    text = type.text;
+                } else {
+                    text = new String(src, starts[index], lengths[index], StandardCharsets.ISO_8859_1);
+                }
+                tokens[index] = new Token(type, text, lines[index], ids[index]);
+            }
+            return tokens[index];
+        }
+
+        public Token.TokenType getType(int index) {
+            return Token.TokenType.VALUES[types[index]];
+        }
+
+        public int getLine(int index) {
+            return lines[index];
+        }
+
+        public int getId(int index) {
+            return ids[index];
+        }
+
+        public NameTable getNames() {
+            return names;
+        }
+
+        public int size() {
+            return size;
         }
 
         public boolean hasNext() {
-            return cur < tokens.size();
+            return cur < size;
         }
 
         public void print() {
-            for (Token token : tokens) {
-                System.out.println(token);
+            for (int i = 0; i < size; ++i) {
+                System.out.println(get(i));
             }
         }
 
@@ -343,8 +563,8 @@ public class Lexer {
                 FileOutputStream fos = new FileOutputStream(file);
                 OutputStreamWriter osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
                 BufferedWriter writer = new BufferedWriter(osw);
-                for (Token token : tokens) {
-                    writer.append(String.valueOf(token)).append("\n");
+                for (int i = 0; i < size; ++i) {
+                    writer.append(String.valueOf(get(i))).append("\n");
                 }
                 writer.close();
                 osw.close();
@@ -355,27 +575,346 @@ public class Lexer {
         }
 
         public boolean haveAhead(int index) {
-            return cur + index < tokens.size();
+            return cur + index < size;
         }
 
         public Token ahead(int index) {
-            return tokens.get(cur + index);
+            return get(cur + index);
+        }
+
+        public Token.TokenType aheadType(int index) {
+            return getType(cur + index);
         }
 
         public Token getAndConsume() {
-            return tokens.get(cur++);
+            return get(cur++);
+        }
+
+        public void consume() {
+            ++cur;
+        }
+
+        // 丢掉已消费 token 的缓存对象，之后再访问会从 src 重新构造
+        public void releaseConsumed() {
+            if (src == null) {
+                return;
+            }
+            Arrays.fill(tokens, released, cur, null);
+            released = cur;
         }
 
         public boolean haveCur() {
-            return cur < tokens.size();
+            return cur < size;
+        }
+
+        public int getCur() {
+            return cur;
+        }
+
+        public void seek(int index) {
+            cur = index;
+        }
+
+        private boolean isFuncStart(int i) {
+            return i + 2 < size && (getType(i) == Token.TokenType.IntTK || getType(i) == Token.TokenType.VoidTK)
+                    && getType(i + 1).isName() && getType(i + 2) == Token.TokenType.LParent;
+        }
+
+        private void findFunctions() {
+            funcStarts = new int[16];
+            funcEnds = new int[16];
+            funcHashes = new long[16];
+            funcCount = 0;
+            int i = 0;
+            while (i < size) {
+                if (!isFuncStart(i)) {
+                    if (getType(i) == Token.TokenType.LBrace) {
+                        i = skipBraces(i);
+                    } else {
+                        ++i;
+                    }
+                    continue;
+                }
+                int end = i;
+                while (end < size && getType(end) != Token.TokenType.LBrace) {
+                    ++end;
+                }
+                end = skipBraces(end);
+                if (funcCount == funcStarts.length) {
+                    funcStarts = Arrays.copyOf(funcStarts, funcCount * 2);
+                    funcEnds = Arrays.copyOf(funcEnds, funcCount * 2);
+                    funcHashes = Arrays.copyOf(funcHashes, funcCount * 2);
+                }
+                funcStarts[funcCount] = i;
+                funcEnds[funcCount] = end;
+                funcHashes[funcCount] = hashRange(i, end);
+                ++funcCount;
+                i = end;
+            }
+        }
+
+        // i 指向 '{'，返回与之匹配的 '}' 之后的位置，不匹配时到结尾
+        private int skipBraces(int i) {
+            int depth = 0;
+            for (; i < size; ++i) {
+                if (getType(i) == Token.TokenType.LBrace) {
+                    ++depth;
+                } else if (getType(i) == Token.TokenType.RBrace && --depth == 0) {
+                    return i + 1;
+                }
+            }
+            return size;
+        }
+
+        // FNV-1a，行号取相对区间首个 token 的偏移，名字按名字表里的 id 计入
+        private long hashRange(int from, int to) {
+            long h = 0xcbf29ce484222325L;
+            int baseLine = lines[from];
+            for (int i = from; i < to; ++i) {
+                h = (h ^ types[i]) * 0x100000001b3L;
+                h = (h ^ (lines[i] - baseLine)) * 0x100000001b3L;
+                if (ids[i] >= 0) {
+                    h = (h ^ ids[i]) * 0x100000001b3L;
+                } else if (getType(i).text == null) {
+                    if (src != null && starts[i] >= 0) {
+                        for (int j = starts[i]; j < starts[i] + lengths[i]; ++j) {
+                            h = (h ^ src[j]) * 0x100000001b3L;
+                        }
+                    } else {
+                        h = (h ^ get(i).getText().hashCode()) * 0x100000001b3L;
+                    }
+                }
+            }
+            return h;
+        }
+
+        // 区间内 token 的完整内容：类型、相对行号、名字 id、字面量文本，哈希相同时用它确认内容真的一样
+        public byte[] getRangeContent(int from, int to) {
+            return Arrays.copyOf(scratch, encodeRange(from, to));
+        }
+
+        public boolean rangeEquals(int from, int to, byte[] content) {
+            int length = encodeRange(from, to);
+            if (length != content.length) {
+                return false;
+            }
+            for (int i = 0; i < length; ++i) {
+                if (scratch[i] != content[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // 编码到 scratch 里，返回长度
+        private int encodeRange(int from, int to) {
+            scratchLen = 0;
+            int baseLine = lines[from];
+            for (int i = from; i < to; ++i) {
+                writeByte(types[i]);
+                writeVarInt(lines[i] - baseLine);
+                if (ids[i] >= 0) {
+                    writeVarInt(ids[i]);
+                } else if (getType(i).text == null) {
+                    if (src != null && starts[i] >= 0) {
+                        writeVarInt(lengths[i]);
+                        for (int j = starts[i]; j < starts[i] + lengths[i]; ++j) {
+                            writeByte(src[j]);
+                        }
+                    } else {
+                        byte[] text = get(i).getText().getBytes(StandardCharsets.ISO_8859_1);
+                        writeVarInt(text.length);
+                        for (byte c : text) {
+                            writeByte(c);
+                        }
+                    }
+                }
+            }
+            return scratchLen;
+        }
+
+        private void writeByte(int b) {
+            if (scratchLen == scratch.length) {
+                scratch = Arrays.copyOf(scratch, scratch.length * 2);
+            }
+            scratch[scratchLen++] = (byte) b;
+        }
+
+        private void writeVarInt(int v) {
+            while ((v & ~0x7f) != 0) {
+                writeByte((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            writeByte(v);
+        }
+
+        // 函数定义之外的全部 token（全局声明）的内容，各段之间用一个不会出现的类型字节分开
+        public byte[] getDeclContent() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int from = 0;
+            for (int k = 0; k <= getFuncCount(); ++k) {
+                int to = k < funcCount ? funcStarts[k] : size;
+                if (from < to) {
+                    byte[] content = getRangeContent(from, to);
+                    out.write(content, 0, content.length);
+                }
+                out.write(-1);
+                if (k < funcCount) {
+                    from = funcEnds[k];
+                }
+            }
+            return out.toByteArray();
+        }
+
+        public int getFuncCount() {
+            if (funcCount < 0) {
+                findFunctions();
+            }
+            return funcCount;
+        }
+
+        public int getFuncStart(int k) {
+            return funcStarts[k];
+        }
+
+        public int getFuncEnd(int k) {
+            return funcEnds[k];
+        }
+
+        public long getFuncHash(int k) {
+            return funcHashes[k];
         }
 
         public Token get() {
-            return tokens.get(cur);
+            return get(cur);
+        }
+
+        public Token.TokenType getType() {
+            return getType(cur);
         }
 
         public Token getPre() {
-            return tokens.get(cur - 1);
+            return get(cur - 1);
+        }
+
+        public int getPreLine() {
+            return lines[cur - 1];
+        }
+    }
+
+    // 标识符驻留表：每个不同的名字在扫描时分到一个稠密的 id，名字的 String 只创建一次
+    public static class NameTable {
+        // 开放寻址表，存 id + 1，0 表示空槽
+        private int[] slots = new int[256];
+        private String[] names = new String[64];
+        private int[] hashes = new int[64];
+        private int size = 0;
+
+        private static int hash(byte[] src, int start, int length) {
+            int h = 0;
+            for (int i = 0; i < length; ++i) {
+                h = 31 * h + (src[start + i] & 0xff);
+            }
+            return h;
+        }
+
+        private static int mix(int h) {
+            return h ^ (h >>> 16);
+        }
+
+        private boolean matches(int id, byte[] src, int start, int length) {
+            String name = names[id];
+            if (name.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; ++i) {
+                if (name.charAt(i) != (src[start + i] & 0xff)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private int probe(int h) {
+            int mask = slots.length - 1;
+            return mix(h) & mask;
+        }
+
+        public int intern(byte[] src, int start, int length) {
+            int h = hash(src, start, length);
+            int mask = slots.length - 1;
+            for (int i = probe(h); ; i = (i + 1) & mask) {
+                int id = slots[i] - 1;
+                if (id < 0) {
+                    return insert(i, new String(src, start, length, StandardCharsets.ISO_8859_1), h);
+                }
+                if (hashes[id] == h && matches(id, src, start, length)) {
+                    return id;
+                }
+            }
+        }
+
+        public int intern(String name) {
+            int h = name.hashCode();
+            int mask = slots.length - 1;
+            for (int i = probe(h); ; i = (i + 1) & mask) {
+                int id = slots[i] - 1;
+                if (id < 0) {
+                    return insert(i, name, h);
+                }
+                if (hashes[id] == h && names[id].equals(name)) {
+                    return id;
+                }
+            }
+        }
+
+        public int find(String name) {
+            int h = name.hashCode();
+            int mask = slots.length - 1;
+            for (int i = probe(h); ; i = (i + 1) & mask) {
+                int id = slots[i] - 1;
+                if (id < 0) {
+                    return -1;
+                }
+                if (hashes[id] == h && names[id].equals(name)) {
+                    return id;
+                }
+            }
+        }
+
+        private int insert(int slot, String name, int h) {
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+                hashes = Arrays.copyOf(hashes, size * 2);
+            }
+            int id = size++;
+            names[id] = name;
+            hashes[id] = h;
+            slots[slot] = id + 1;
+            if (size * 2 > slots.length) {
+                rehash();
+            }
+            return id;
+        }
+
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int id = 0; id < size; ++id) {
+                int i = probe(hashes[id]);
+                while (slots[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                slots[i] = id + 1;
+            }
+        }
+
+        public String getName(int id) {
+            return names[id];
+        }
+
+        public int size() {
+            return size;
         }
     }
 }
@@ -1,51 +1,103 @@
 package frontend;
 
+import utils.Config;
 import utils.Logger;
 
 import java.util.ArrayList;
+import java.util.function.Consumer;
 import static frontend.Lexer.Token.*;
+import static midend.ir.Instruction.BinaryInst.calcBinaryInt;
 
 public class Parser {
     private final Lexer.TokenStream tokens;
     private final Ast ast;
+    // 非空时每个顶层 CompUnit 解析完就交给 sink，不再挂到 ast 上
+    private final Consumer<Ast.CompUnit> sink;
+    // 非空时表达式按紧凑形式存进 pool；每个顶层单元一个 pool，流式前端交出去的单元处理完就连同 pool 一起释放
+    private Ast.ExpPool pool;
+    // 已知值的常量，按作用域维护，用于在解析时折叠常量表达式
+    private final Scope consts;
+    private static final long NOT_CONST = Long.MIN_VALUE;
+
+    private static class ConstSymbol extends Scope.Symbol {
+        private final int[] dims;
+        // 按行优先展开的全部元素，未初始化的为 0
+        private final int[] values;
+
+        private ConstSymbol(int[] dims, int[] values) {
+            super(true, null, null);
+            this.dims = dims;
+            this.values = values;
+        }
+    }
 
     public Parser(Lexer.TokenStream tokens) {
+        this(tokens, new Ast(tokens.getNames()), null);
+    }
+
+    public Parser(Lexer.TokenStream tokens, Ast ast, Consumer<Ast.CompUnit> sink) {
         this.tokens = tokens;
-        this.ast = new Ast();
+        this.ast = ast;
+        this.sink = sink;
+        this.consts = new Scope(tokens.getNames());
         parseCompUnit();
     }
 
+    // 不自动解析，由调用方逐个调用 parseUnit
+    Parser(Lexer.TokenStream tokens, Ast ast) {
+        this.tokens = tokens;
+        this.ast = ast;
+        this.sink = null;
+        this.consts = new Scope(tokens.getNames());
+    }
+
     public Ast getRes() {
         return ast;
     }
 
     private void parseCompUnit() {
         while (tokens.hasNext()) {
-            if (tokens.haveAhead(2) && tokens.ahead(2).getType() == TokenType.LParent) {
-                ast.getCompUnits().add(parseFuncDef());
+            Ast.CompUnit compUnit = parseUnit();
+            if (sink == null) {
+                ast.getCompUnits().add(compUnit);
             } else {
-                ast.getCompUnits().add(parseDecl());
+                sink.accept(compUnit);
+                tokens.releaseConsumed();
+                pool = null;
             }
         }
     }
 
+    // 最近一次 parseUnit 用的 pool
+    Ast.ExpPool getUnitPool() {
+        return pool;
+    }
+
+    Ast.CompUnit parseUnit() {
+        pool = Config.flatExp ? new Ast.ExpPool(tokens) : null;
+        if (tokens.haveAhead(2) && tokens.aheadType(2) == TokenType.LParent) {
+            return parseFuncDef();
+        }
+        return parseDecl();
+    }
+
     private Ast.Decl parseDecl() {
         boolean isConstant = false;
-        if (tokens.get().getType() == TokenType.ConstTK) {
+        if (tokens.getType() == TokenType.ConstTK) {
             isConstant = true;
-            tokens.getAndConsume();
+            tokens.consume();
         }
-        tokens.getAndConsume();
+        tokens.consume();
         ArrayList<Ast.Def> defs = new ArrayList<>();
         defs.add(parseDef(isConstant));
-        while (tokens.haveCur() && tokens.get().getType() == TokenType.Comma) {
-            tokens.getAndConsume();
+        while (tokens.haveCur() && tokens.getType() == TokenType.Comma) {
+            tokens.consume();
             defs.add(parseDef(isConstant));
         }
-        if (tokens.get().getType() != TokenType.Semicn) {
-            Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
+        if (tokens.getType() != TokenType.Semicn) {
+            Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
         } else {
-            tokens.getAndConsume();
+            tokens.consume();
         }
         return new Ast.Decl(isConstant, defs);
     }
@@ -53,47 +105,253 @@ public class Parser {
     private Ast.Def parseDef(boolean isConstant) {
         Lexer.Token ident = tokens.getAndConsume();
         ArrayList<Ast.Exp> exps = new ArrayList<>();
-        while (tokens.haveCur() && tokens.get().getType() == TokenType.LBrack) {
-            tokens.getAndConsume();
-            exps.add(parseExp());
-            if (tokens.get().getType() != TokenType.RBrack) {
-                Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackRBrack);
+        while (tokens.haveCur() && tokens.getType() == TokenType.LBrack) {
+            tokens.consume();
+            exps.add(parseConstExp());
+            if (tokens.getType() != TokenType.RBrack) {
+                Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackRBrack);
             } else {
-                tokens.getAndConsume();
+                tokens.consume();
             }
         }
         Ast.InitVal initVal = null;
-        if (tokens.haveCur() && tokens.get().getType() == TokenType.Assign) {
-            tokens.getAndConsume();
-            initVal = parseInitVal(isConstant);
+        if (tokens.haveCur() && tokens.getType() == TokenType.Assign) {
+            tokens.consume();
+            // const 和全局变量的初值都是常量表达式
+            initVal = parseInitVal(isConstant || consts.isGlobal());
         }
+        putConst(ident, isConstant, exps, initVal);
         return new Ast.Def(ident, exps, initVal);
     }
 
-    private Ast.InitVal parseInitVal(boolean isConstant) {
+    private Ast.InitVal parseInitVal(boolean fold) {
         Ast.InitVal initVal;
-        if (tokens.get().getType() == TokenType.LBrace) {
-            initVal = new Ast.InitVal(parseInitArrayVal(isConstant));
+        if (tokens.getType() == TokenType.LBrace) {
+            initVal = new Ast.InitVal(parseInitArrayVal(fold));
         } else {
-            initVal = new Ast.InitVal(parseExp());
+            initVal = new Ast.InitVal(fold ? parseConstExp() : parseExp());
         }
         return initVal;
     }
 
-    private Ast.InitArrayVal parseInitArrayVal(boolean isConstant) {
+    private Ast.InitArrayVal parseInitArrayVal(boolean fold) {
         ArrayList<Ast.InitVal> initVals = new ArrayList<>();
-        tokens.getAndConsume();
-        if (tokens.haveCur() && tokens.get().getType() != TokenType.RBrace) {
-            initVals.add(parseInitVal(isConstant));
-            while (tokens.haveCur() && tokens.get().getType() == TokenType.Comma) {
-                tokens.getAndConsume();
-                initVals.add(parseInitVal(isConstant));
+        tokens.consume();
+        if (tokens.haveCur() && tokens.getType() != TokenType.RBrace) {
+            initVals.add(parseInitVal(fold));
+            while (tokens.haveCur() && tokens.getType() == TokenType.Comma) {
+                tokens.consume();
+                initVals.add(parseInitVal(fold));
             }
         }
-        tokens.getAndConsume();
+        tokens.consume();
         return new Ast.InitArrayVal(initVals);
     }
 
+    // 记录定义的名字：值全部已知的 const 可供之后折叠，其他定义只用来遮蔽外层同名常量
+    private void putConst(Lexer.Token ident, boolean isConstant, ArrayList<Ast.Exp> dims, Ast.InitVal initVal) {
+        if (ident.getId() < 0) {
+            return;
+        }
+        Scope.Symbol symbol = null;
+        if (isConstant && initVal != null && Config.foldConstInParser) {
+            int[] lens = new int[dims.size()];
+            long size = 1;
+            for (int i = 0; i < lens.length && size > 0; ++i) {
+                long len = foldExp(dims.get(i));
+                size = len == NOT_CONST || len <= 0 ? 0 : size * len;
+                lens[i] = (int) len;
+            }
+            if (size > 0 && size <= (1 << 20)) {
+                int[] values = new int[(int) size];
+                boolean known;
+                if (initVal.getInitValItem() instanceof Ast.Exp) {
+                    long v = lens.length == 0 ? foldExp((Ast.Exp) initVal.getInitValItem()) : NOT_CONST;
+                    values[0] = (int) v;
+                    known = v != NOT_CONST;
+                } else {
+                    known = lens.length != 0 && fillConst(((Ast.InitArrayVal) initVal.getInitValItem()).getInitVals(),
+                            new int[1], lens, 0, values, 0);
+                }
+                if (known) {
+                    symbol = new ConstSymbol(lens, values);
+                }
+            }
+        }
+        consts.put(ident.getId(), symbol == null ? new Scope.Symbol(isConstant, null, null) : symbol);
+    }
+
+    // 与 Visitor.calcLocalInitVal 相同的展开规则：裸表达式按顺序填入子数组，花括号对应一个子数组
+    private boolean fillConst(ArrayList<Ast.InitVal> vals, int[] pos, int[] dims, int d, int[] out, int base) {
+        if (d == dims.length) {
+            if (pos[0] == vals.size()) {
+                return true;
+            }
+            Ast.InitVal.InitValItem item = vals.get(pos[0]++).getInitValItem();
+            long v = item instanceof Ast.Exp ? foldExp((Ast.Exp) item) : NOT_CONST;
+            out[base] = (int) v;
+            return v != NOT_CONST;
+        }
+        int stride = 1;
+        for (int i = d + 1; i < dims.length; ++i) {
+            stride *= dims[i];
+        }
+        for (int i = 0; i < dims[d] && pos[0] != vals.size(); ++i) {
+            Ast.InitVal.InitValItem item = vals.get(pos[0]).getInitValItem();
+            boolean known;
+            if (item instanceof Ast.Exp) {
+                known = fillConst(vals, pos, dims, d + 1, out, base + i * stride);
+            } else {
+                known = fillConst(((Ast.InitArrayVal) item).getInitVals(), new int[1], dims, d + 1, out, base + i * stride);
+                ++pos[0];
+            }
+            if (!known) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // 解析常量表达式，能求值时直接换成一个数字，表达式树不再保留
+    private Ast.Exp parseConstExp() {
+        if (!Config.foldConstInParser) {
+            return parseExp();
+        }
+        if (pool != null) {
+            int mark = pool.size();
+            int root = parseFlatAddExp();
+            long v = foldFlat(root);
+            if (v == NOT_CONST) {
+                return new Ast.Exp(pool, root);
+            }
+            pool.truncate(mark);
+            return new Ast.Exp(pool, pool.addConst((int) v));
+        }
+        Ast.Exp exp = new Ast.Exp(parseAddExp());
+        long v = foldExp(exp);
+        return v == NOT_CONST ? exp : Ast.Exp.of((int) v);
+    }
+
+    // 以下求值规则与 Visitor 中 allConst 的求值一致，遇到不能确定的情况返回 NOT_CONST
+
+    private long foldNumber(String text) {
+        if (text.equals("2147483648")) {
+            return Integer.MIN_VALUE;
+        }
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            return NOT_CONST;
+        }
+    }
+
+    private long foldBinary(TokenType op, long lhs, long rhs) {
+        if (lhs == NOT_CONST || rhs == NOT_CONST) {
+            return NOT_CONST;
+        }
+        if ((op == TokenType.Div || op == TokenType.Mod) && rhs == 0) {
+            return NOT_CONST;
+        }
+        return calcBinaryInt(op.getTag(), (int) lhs, (int) rhs);
+    }
+
+    private long foldUnary(TokenType op, long val) {
+        if (val == NOT_CONST || op == TokenType.Not) {
+            return NOT_CONST;
+        }
+        return op == TokenType.Minu ? (int) -val : val;
+    }
+
+    private long foldLVal(Lexer.Token ident, long[] indexes) {
+        Scope.Symbol symbol = ident.getId() < 0 ? null : consts.find(ident.getId());
+        if (!(symbol instanceof ConstSymbol) || ((ConstSymbol) symbol).dims.length != indexes.length) {
+            return NOT_CONST;
+        }
+        ConstSymbol cs = (ConstSymbol) symbol;
+        int offset = 0;
+        for (int i = 0; i < indexes.length; ++i) {
+            if (indexes[i] == NOT_CONST || indexes[i] < 0 || indexes[i] >= cs.dims[i]) {
+                return NOT_CONST;
+            }
+            offset = offset * cs.dims[i] + (int) indexes[i];
+        }
+        return cs.values[offset];
+    }
+
+    private long foldFlat(int node) {
+        switch (pool.getKind(node)) {
+            case Ast.ExpPool.NUMBER:
+                return foldNumber(pool.getToken(node).getText());
+            case Ast.ExpPool.CONST:
+                return pool.getValue(node);
+            case Ast.ExpPool.PAREN:
+                return foldFlat(pool.getChild(node));
+            case Ast.ExpPool.UNARY:
+                return foldUnary(pool.getTokenType(node), foldFlat(pool.getChild(node)));
+            case Ast.ExpPool.BINARY: {
+                int lhs = pool.getChild(node);
+                return foldBinary(pool.getTokenType(node), foldFlat(lhs), foldFlat(pool.getNext(lhs)));
+            }
+            case Ast.ExpPool.LVAL: {
+                int cnt = 0;
+                for (int c = pool.getChild(node); c != -1; c = pool.getNext(c)) {
+                    ++cnt;
+                }
+                long[] indexes = new long[cnt];
+                int i = 0;
+                for (int c = pool.getChild(node); c != -1; c = pool.getNext(c)) {
+                    indexes[i++] = foldFlat(c);
+                }
+                return foldLVal(pool.getToken(node), indexes);
+            }
+            default:
+                return NOT_CONST;
+        }
+    }
+
+    private long foldExp(Ast.Exp exp) {
+        if (exp.isFlat()) {
+            return foldFlat(exp.getRoot());
+        }
+        Ast.AddExp addExp = exp.getExpItem();
+        long v = foldMulExp(addExp.getLhs());
+        for (int i = 0; i < addExp.getOps().size(); ++i) {
+            v = foldBinary(addExp.getOps().get(i).getType(), v, foldMulExp(addExp.getRhs().get(i)));
+        }
+        return v;
+    }
+
+    private long foldMulExp(Ast.MulExp mulExp) {
+        long v = foldUnaryExp(mulExp.getLhs());
+        for (int i = 0; i < mulExp.getOps().size(); ++i) {
+            v = foldBinary(mulExp.getOps().get(i).getType(), v, foldUnaryExp(mulExp.getRhs().get(i)));
+        }
+        return v;
+    }
+
+    private long foldUnaryExp(Ast.UnaryExp unaryExp) {
+        Ast.PrimaryExp.PrimaryExpItem item = unaryExp.getPrimaryExp().getPrimaryExpItem();
+        long v;
+        if (item instanceof Ast.Exp) {
+            v = foldExp((Ast.Exp) item);
+        } else if (item instanceof Ast.Number) {
+            v = foldNumber(((Ast.Number) item).getToken().getText());
+        } else if (item instanceof Ast.LVal) {
+            Ast.LVal lVal = (Ast.LVal) item;
+            long[] indexes = new long[lVal.getExps().size()];
+            for (int i = 0; i < indexes.length; ++i) {
+                indexes[i] = foldExp(lVal.getExps().get(i));
+            }
+            v = foldLVal(lVal.getIdent(), indexes);
+        } else {
+            v = NOT_CONST;
+        }
+        for (int i = unaryExp.getUnaryOps().size() - 1; i >= 0; --i) {
+            v = foldUnary(unaryExp.getUnaryOps().get(i).getOp().getType(), v);
+        }
+        return v;
+    }
+
     private boolean isExp(Lexer.Token.TokenType tokenType) {
         return tokenType == TokenType.MainTK ||
                 tokenType == TokenType.Idenfr ||
@@ -109,38 +367,41 @@ public class Parser {
     private Ast.FuncDef parseFuncDef() {
         Lexer.Token funcType = tokens.getAndConsume();
         Lexer.Token ident = tokens.getAndConsume();
-        tokens.getAndConsume();
+        tokens.consume();
+        consts.push();
         ArrayList<Ast.FuncFParam> funcFParams = new ArrayList<>();
-        if (tokens.haveCur() && tokens.get().getType() == TokenType.IntTK) {
+        if (tokens.haveCur() && tokens.getType() == TokenType.IntTK) {
             funcFParams.add(parseFuncFParam());
-            while (tokens.haveCur() && tokens.get().getType() == TokenType.Comma) {
-                tokens.getAndConsume();
+            while (tokens.haveCur() && tokens.getType() == TokenType.Comma) {
+                tokens.consume();
                 funcFParams.add(parseFuncFParam());
             }
         }
-        if (tokens.get().getType() != TokenType.RParent) {
-            Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackRParent);
+        if (tokens.getType() != TokenType.RParent) {
+            Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackRParent);
         } else {
-            tokens.getAndConsume();
+            tokens.consume();
         }
         Ast.Block block = parseBlock(false);
+        consts.pop();
         return new Ast.FuncDef(funcType, ident, funcFParams, block);
     }
 
     private Ast.FuncFParam parseFuncFParam() {
-        tokens.getAndConsume();
+        tokens.consume();
         Lexer.Token ident = tokens.getAndConsume();
+        putConst(ident, false, null, null);
         ArrayList<Ast.Exp> exps = new ArrayList<>();
-        if (tokens.haveCur() && tokens.get().getType() == TokenType.LBrack) {
-            tokens.getAndConsume();
-            tokens.getAndConsume();
-            while (tokens.haveCur() && tokens.get().getType() == TokenType.LBrack) {
-                tokens.getAndConsume();
-                exps.add(parseExp());
-                if (tokens.get().getType() != TokenType.RBrack) {
-                    Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackRBrack);
+        if (tokens.haveCur() && tokens.getType() == TokenType.LBrack) {
+            tokens.consume();
+            tokens.consume();
+            while (tokens.haveCur() && tokens.getType() == TokenType.LBrack) {
+                tokens.consume();
+                exps.add(parseConstExp());
+                if (tokens.getType() != TokenType.RBrack) {
+                    Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackRBrack);
                 } else {
-                    tokens.getAndConsume();
+                    tokens.consume();
                 }
             }
             return new Ast.FuncFParam(ident, true, exps);
@@ -150,16 +411,18 @@ public class Parser {
 
     private Ast.Block parseBlock(boolean inLoop) {
         ArrayList<Ast.BlockItem> blockItems = new ArrayList<>();
-        tokens.getAndConsume();
-        while (tokens.haveCur() && tokens.get().getType() != TokenType.RBrace) {
+        tokens.consume();
+        consts.push();
+        while (tokens.haveCur() && tokens.getType() != TokenType.RBrace) {
             blockItems.add(parseBlockItem(inLoop));
         }
+        consts.pop();
         Lexer.Token rBrace = tokens.getAndConsume();
         return new Ast.Block(blockItems, rBrace);
     }
 
     private Ast.BlockItem parseBlockItem(boolean inLoop) {
-        TokenType tokenType = tokens.get().getType();
+        TokenType tokenType = tokens.getType();
         Ast.BlockItem blockItem;
         if (tokenType == TokenType.ConstTK || tokenType == TokenType.IntTK) {
             blockItem = new Ast.BlockItem(parseDecl());
@@ -178,7 +441,7 @@ public class Parser {
     }
 
     private Ast.Stmt parseStmt(boolean inLoop) {
-        TokenType tokenType = tokens.get().getType();
+        TokenType tokenType = tokens.getType();
         Ast.Stmt.StmtItem res;
         if (tokenType == TokenType.IfTK) {
             res = parseIfStmt(inLoop);
@@ -193,66 +456,66 @@ public class Parser {
         } else if (tokenType == TokenType.ReturnTK) {
             res = parseReturnStmt();
         } else if (tokenType == TokenType.Semicn) {
-            tokens.getAndConsume();
+            tokens.consume();
             res = new Ast.ExpStmt(null);
         } else if (tokenType == TokenType.PrintfTK) {
             Lexer.Token printfToken = tokens.getAndConsume();
-            tokens.getAndConsume();
+            tokens.consume();
             Ast.FormatString string = parseFormatString();
             ArrayList<Ast.Exp> args = new ArrayList<>();
-            while (tokens.haveCur() && tokens.get().getType() == TokenType.Comma) {
-                tokens.getAndConsume();
+            while (tokens.haveCur() && tokens.getType() == TokenType.Comma) {
+                tokens.consume();
                 args.add(parseExp());
             }
-            if (tokens.get().getType() != TokenType.RParent) {
-                Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackRParent);
+            if (tokens.getType() != TokenType.RParent) {
+                Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackRParent);
             } else {
-                tokens.getAndConsume();
+                tokens.consume();
             }
-            if (tokens.get().getType() != TokenType.Semicn) {
-                Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
+            if (tokens.getType() != TokenType.Semicn) {
+                Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
             } else {
-                tokens.getAndConsume();
+                tokens.consume();
             }
             res = new Ast.PrintfStmt(printfToken, string, args);
         } else if (isExp(tokenType)) {
             Ast.Exp exp = parseExp();
-            if (tokens.haveCur() && tokens.get().getType() != TokenType.Assign) {
-                tokens.getAndConsume();
+            if (tokens.haveCur() && tokens.getType() != TokenType.Assign) {
+                tokens.consume();
                 res = new Ast.ExpStmt(exp);
             } else {
                 Ast.LVal lVal = calcLValFromExp(exp);
-                tokens.getAndConsume();
-                if (tokens.get().getType() == TokenType.GetIntTK) {
-                    tokens.getAndConsume();
-                    tokens.getAndConsume();
-                    if (tokens.get().getType() != TokenType.RParent) {
-                        Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackRParent);
+                tokens.consume();
+                if (tokens.getType() == TokenType.GetIntTK) {
+                    tokens.consume();
+                    tokens.consume();
+                    if (tokens.getType() != TokenType.RParent) {
+                        Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackRParent);
                     } else {
-                        tokens.getAndConsume();
+                        tokens.consume();
                     }
-                    if (tokens.get().getType() != TokenType.Semicn) {
-                        Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
+                    if (tokens.getType() != TokenType.Semicn) {
+                        Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
                     } else {
-                        tokens.getAndConsume();
+                        tokens.consume();
                     }
                     res = new Ast.GetIntStmt(lVal);
                 } else {
                     Ast.Exp rVal = parseExp();
-                    if (tokens.get().getType() != TokenType.Semicn) {
-                        Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
+                    if (tokens.getType() != TokenType.Semicn) {
+                        Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
                     } else {
-                        tokens.getAndConsume();
+                        tokens.consume();
                     }
                     res = new Ast.AssignStmt(lVal, rVal);
                 }
             }
         } else {
             Ast.Exp exp = parseExp();
-            if (tokens.get().getType() != TokenType.Semicn) {
-                Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
+            if (tokens.getType() != TokenType.Semicn) {
+                Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
             } else {
-                tokens.getAndConsume();
+                tokens.consume();
             }
             res = new Ast.ExpStmt(exp);
         }
@@ -260,31 +523,31 @@ public class Parser {
     }
 
     private Ast.IfStmt parseIfStmt(boolean inLoop) {
-        tokens.getAndConsume();
-        tokens.getAndConsume();
+        tokens.consume();
+        tokens.consume();
         Ast.LOrExp cond = parseLOrExp();
-        if (tokens.get().getType() != TokenType.RParent) {
-            Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackRParent);
+        if (tokens.getType() != TokenType.RParent) {
+            Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackRParent);
         } else {
-            tokens.getAndConsume();
+            tokens.consume();
         }
         Ast.Stmt trueStmt = parseStmt(inLoop);
         Ast.Stmt falseStmt = null;
-        if (tokens.haveCur() && tokens.get().getType() == TokenType.ElseTK) {
-            tokens.getAndConsume();
+        if (tokens.haveCur() && tokens.getType() == TokenType.ElseTK) {
+            tokens.consume();
             falseStmt = parseStmt(inLoop);
         }
         return new Ast.IfStmt(cond, trueStmt, falseStmt);
     }
 
     private Ast.WhileStmt parseWhileStmt() {
-        tokens.getAndConsume();
-        tokens.getAndConsume();
+        tokens.consume();
+        tokens.consume();
         Ast.LOrExp cond = parseLOrExp();
-        if (tokens.get().getType() != TokenType.RParent) {
-            Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackRParent);
+        if (tokens.getType() != TokenType.RParent) {
+            Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackRParent);
         } else {
-            tokens.getAndConsume();
+            tokens.consume();
         }
         Ast.Stmt body = parseStmt(true);
         return new Ast.WhileStmt(cond, body);
@@ -295,10 +558,10 @@ public class Parser {
         if (!inLoop) {
             Logger.logError(breakToken.getLine(), ErrorHandler.Error.ErrorType.BreakContinueOutOfLoop);
         }
-        if (tokens.get().getType() != TokenType.Semicn) {
-            Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
+        if (tokens.getType() != TokenType.Semicn) {
+            Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
         } else {
-            tokens.getAndConsume();
+            tokens.consume();
         }
         return new Ast.BreakStmt();
     }
@@ -308,10 +571,10 @@ public class Parser {
         if (!inLoop) {
             Logger.logError(continueToken.getLine(), ErrorHandler.Error.ErrorType.BreakContinueOutOfLoop);
         }
-        if (tokens.get().getType() != TokenType.Semicn) {
-            Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
+        if (tokens.getType() != TokenType.Semicn) {
+            Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
         } else {
-            tokens.getAndConsume();
+            tokens.consume();
         }
         return new Ast.ContinueStmt();
     }
@@ -319,22 +582,25 @@ public class Parser {
     private Ast.ReturnStmt parseReturnStmt() {
         Lexer.Token returnToken = tokens.getAndConsume();
         Ast.Exp exp = null;
-        if (isExp(tokens.get().getType())) {
+        if (isExp(tokens.getType())) {
             exp = parseExp();
         }
-        if (tokens.get().getType() != TokenType.Semicn) {
-            Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
+        if (tokens.getType() != TokenType.Semicn) {
+            Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackSemicolon);
         } else {
-            tokens.getAndConsume();
+            tokens.consume();
         }
         return new Ast.ReturnStmt(exp, returnToken);
     }
 
     private Ast.LOrExp parseLOrExp() {
+        if (pool != null) {
+            return new Ast.LOrExp(pool, parseFlatLOrExp());
+        }
         ArrayList<Ast.LAndExp> exps = new ArrayList<>();
         exps.add(parseLAndExp());
-        while (tokens.haveCur() && tokens.get().getType() == TokenType.Or) {
-            tokens.getAndConsume();
+        while (tokens.haveCur() && tokens.getType() == TokenType.Or) {
+            tokens.consume();
             exps.add(parseLAndExp());
         }
         return new Ast.LOrExp(exps);
@@ -343,14 +609,17 @@ public class Parser {
     private Ast.LAndExp parseLAndExp() {
         ArrayList<Ast.EqExp> exps = new ArrayList<>();
         exps.add(parseEqExp());
-        while (tokens.haveCur() && tokens.get().getType() == TokenType.And) {
-            tokens.getAndConsume();
+        while (tokens.haveCur() && tokens.getType() == TokenType.And) {
+            tokens.consume();
             exps.add(parseEqExp());
         }
         return new Ast.LAndExp(exps);
     }
 
     private Ast.Exp parseExp() {
+        if (pool != null) {
+            return new Ast.Exp(pool, parseFlatAddExp());
+        }
         return new Ast.Exp(parseAddExp());
     }
 
@@ -400,7 +669,7 @@ public class Parser {
 
     private Ast.UnaryExp parseUnaryExp() {
         ArrayList<Ast.UnaryOp> unaryOps = new ArrayList<>();
-        while (tokens.haveCur() && tokens.get().getType() == TokenType.Plus || tokens.get().getType() == TokenType.Minu || tokens.get().getType() == TokenType.Not) {
+        while (tokens.haveCur() && tokens.getType() == TokenType.Plus || tokens.getType() == TokenType.Minu || tokens.getType() == TokenType.Not) {
             unaryOps.add(new Ast.UnaryOp(tokens.getAndConsume()));
         }
         Ast.PrimaryExp primaryExp = parsePrimaryExp();
@@ -408,14 +677,14 @@ public class Parser {
     }
 
     private Ast.PrimaryExp parsePrimaryExp() {
-        if (tokens.get().getType() == TokenType.IntCon) {
+        if (tokens.getType() == TokenType.IntCon) {
             return new Ast.PrimaryExp(parseNumber());
-        } else if (tokens.get().getType() == TokenType.LParent) {
-            tokens.getAndConsume();
+        } else if (tokens.getType() == TokenType.LParent) {
+            tokens.consume();
             Ast.Exp exp = parseExp();
-            tokens.getAndConsume();
+            tokens.consume();
             return new Ast.PrimaryExp(exp);
-        } else if (tokens.ahead(1).getType() == TokenType.LParent) {
+        } else if (tokens.aheadType(1) == TokenType.LParent) {
             return new Ast.PrimaryExp(parseCallee());
         } else {
             return new Ast.PrimaryExp(parseLVal());
@@ -424,26 +693,26 @@ public class Parser {
 
     private Ast.Callee parseCallee() {
         Lexer.Token ident = tokens.getAndConsume();
-        tokens.getAndConsume();
+        tokens.consume();
         ArrayList<Ast.FuncRParam> funcRParams = new ArrayList<>();
-        if (tokens.haveCur() && isExp(tokens.get().getType())) {
+        if (tokens.haveCur() && isExp(tokens.getType())) {
             funcRParams.add(parseFuncRParam());
-            while (tokens.haveCur() && tokens.get().getType() == TokenType.Comma) {
-                tokens.getAndConsume();
+            while (tokens.haveCur() && tokens.getType() == TokenType.Comma) {
+                tokens.consume();
                 funcRParams.add(parseFuncRParam());
             }
         }
-        if (tokens.get().getType() != TokenType.RParent) {
-            Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackRParent);
+        if (tokens.getType() != TokenType.RParent) {
+            Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackRParent);
         } else {
-            tokens.getAndConsume();
+            tokens.consume();
         }
         return new Ast.Callee(ident, funcRParams);
     }
 
     private Ast.FuncRParam parseFuncRParam() {
         Ast.FuncRParam funcRParam;
-        if (tokens.get().getType() == TokenType.StrCon) {
+        if (tokens.getType() == TokenType.StrCon) {
             funcRParam = new Ast.FuncRParam(parseFormatString());
         } else {
             funcRParam = new Ast.FuncRParam(parseExp());
@@ -454,13 +723,13 @@ public class Parser {
     private Ast.LVal parseLVal() {
         Lexer.Token ident = tokens.getAndConsume();
         ArrayList<Ast.Exp> exps = new ArrayList<>();
-        while (tokens.haveCur() && tokens.get().getType() == TokenType.LBrack) {
-            tokens.getAndConsume();
+        while (tokens.haveCur() && tokens.getType() == TokenType.LBrack) {
+            tokens.consume();
             exps.add(parseExp());
-            if (tokens.get().getType() != TokenType.RBrack) {
-                Logger.logError(tokens.getPre().getLine(), ErrorHandler.Error.ErrorType.LackRBrack);
+            if (tokens.getType() != TokenType.RBrack) {
+                Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackRBrack);
             } else {
-                tokens.getAndConsume();
+                tokens.consume();
             }
         }
         return new Ast.LVal(ident, exps);
@@ -473,4 +742,144 @@ public class Parser {
     private Ast.Number parseNumber() {
         return new Ast.Number(tokens.getAndConsume());
     }
+
+    // 以下为紧凑形式的表达式解析，返回结点在 pool 中的下标
+
+    private int parseFlatList(int kind, TokenType sep) {
+        int node = pool.add(kind, -1);
+        int last = kind == Ast.ExpPool.LOR ? parseFlatList(Ast.ExpPool.LAND, TokenType.And) : parseFlatEqExp();
+        pool.setChild(node, last);
+        while (tokens.haveCur() && tokens.getType() == sep) {
+            tokens.consume();
+            int next = kind == Ast.ExpPool.LOR ? parseFlatList(Ast.ExpPool.LAND, TokenType.And) : parseFlatEqExp();
+            pool.setNext(last, next);
+            last = next;
+        }
+        return node;
+    }
+
+    private int parseFlatLOrExp() {
+        return parseFlatList(Ast.ExpPool.LOR, TokenType.Or);
+    }
+
+    private int buildFlatBinary(int op, int lhs, int rhs) {
+        int node = pool.add(Ast.ExpPool.BINARY, op);
+        pool.setChild(node, lhs);
+        pool.setNext(lhs, rhs);
+        return node;
+    }
+
+    private int parseFlatEqExp() {
+        int lhs = parseFlatRelExp();
+        while (tokens.haveCur() && Ast.EqExp.isSignal(tokens.getType())) {
+            int op = tokens.getCur();
+            tokens.consume();
+            lhs = buildFlatBinary(op, lhs, parseFlatRelExp());
+        }
+        return lhs;
+    }
+
+    private int parseFlatRelExp() {
+        int lhs = parseFlatAddExp();
+        while (tokens.haveCur() && Ast.RelExp.isSignal(tokens.getType())) {
+            int op = tokens.getCur();
+            tokens.consume();
+            lhs = buildFlatBinary(op, lhs, parseFlatAddExp());
+        }
+        return lhs;
+    }
+
+    private int parseFlatAddExp() {
+        int lhs = parseFlatMulExp();
+        while (tokens.haveCur() && Ast.AddExp.isSignal(tokens.getType())) {
+            int op = tokens.getCur();
+            tokens.consume();
+            lhs = buildFlatBinary(op, lhs, parseFlatMulExp());
+        }
+        return lhs;
+    }
+
+    private int parseFlatMulExp() {
+        int lhs = parseFlatUnaryExp();
+        while (tokens.haveCur() && Ast.MulExp.isSignal(tokens.getType())) {
+            int op = tokens.getCur();
+            tokens.consume();
+            lhs = buildFlatBinary(op, lhs, parseFlatUnaryExp());
+        }
+        return lhs;
+    }
+
+    private int parseFlatUnaryExp() {
+        TokenType type = tokens.getType();
+        if (type == TokenType.Plus || type == TokenType.Minu || type == TokenType.Not) {
+            int node = pool.add(Ast.ExpPool.UNARY, tokens.getCur());
+            tokens.consume();
+            pool.setChild(node, parseFlatUnaryExp());
+            return node;
+        }
+        return parseFlatPrimaryExp();
+    }
+
+    private int parseFlatPrimaryExp() {
+        int start = tokens.getCur();
+        if (tokens.getType() == TokenType.IntCon) {
+            tokens.consume();
+            return pool.add(Ast.ExpPool.NUMBER, start);
+        } else if (tokens.getType() == TokenType.LParent) {
+            tokens.consume();
+            int node = pool.add(Ast.ExpPool.PAREN, start);
+            pool.setChild(node, parseFlatAddExp());
+            tokens.consume();
+            return node;
+        } else if (tokens.aheadType(1) == TokenType.LParent) {
+            tokens.consume();
+            tokens.consume();
+            int node = pool.add(Ast.ExpPool.CALL, start);
+            int last = -1;
+            while (tokens.haveCur() && (last == -1 ? isExp(tokens.getType()) : tokens.getType() == TokenType.Comma)) {
+                if (last != -1) {
+                    tokens.consume();
+                }
+                int param;
+                if (tokens.getType() == TokenType.StrCon) {
+                    param = pool.add(Ast.ExpPool.STRING, tokens.getCur());
+                    tokens.consume();
+                } else {
+                    param = parseFlatAddExp();
+                }
+                if (last == -1) {
+                    pool.setChild(node, param);
+                } else {
+                    pool.setNext(last, param);
+                }
+                last = param;
+            }
+            if (tokens.getType() != TokenType.RParent) {
+                Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackRParent);
+            } else {
+                tokens.consume();
+            }
+            return node;
+        } else {
+            tokens.consume();
+            int node = pool.add(Ast.ExpPool.LVAL, start);
+            int last = -1;
+            while (tokens.haveCur() && tokens.getType() == TokenType.LBrack) {
+                tokens.consume();
+                int index = parseFlatAddExp();
+                if (tokens.getType() != TokenType.RBrack) {
+                    Logger.logError(tokens.getPreLine(), ErrorHandler.Error.ErrorType.LackRBrack);
+                } else {
+                    tokens.consume();
+                }
+                if (last == -1) {
+                    pool.setChild(node, index);
+                } else {
+                    pool.setNext(last, index);
+                }
+                last = index;
+            }
+            return node;
+        }
+    }
 }
@@ -4,56 +4,144 @@ import midend.ir.Constant;
 import midend.ir.Function;
 import midend.ir.Value;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 
+// 扁平符号表：symbols[id] 是名字 id 当前可见的符号，被遮蔽的旧符号记在 undo log 里，pop 时恢复
 public class Scope {
-    private final ArrayList<HashMap<String, Symbol>> tables;
+    private final Lexer.NameTable names;
+    private Symbol[] symbols = new Symbol[64];
+    private int[] levels = new int[64];
+    private int level = 0;
+    // undo log：每次 put 记下 (id, 被覆盖的符号, 它所在的层)
+    private int[] undoIds = new int[64];
+    private Symbol[] undoSymbols = new Symbol[64];
+    private int[] undoLevels = new int[64];
+    private int undoSize = 0;
+    private int[] marks = new int[16];
 
     Scope() {
-        this.tables = new ArrayList<>();
-        tables.add(new HashMap<>());
+        this(new Lexer.NameTable());
     }
 
-    public HashMap<String, Symbol> top() {
-        return tables.get(tables.size() - 1);
+    Scope(Lexer.NameTable names) {
+        this.names = names;
+    }
+
+    // 复制当前的全局绑定，得到一个私有的作用域，names 只读共享
+    public Scope fork() {
+        assert isGlobal();
+        Scope scope = new Scope(names);
+        scope.symbols = Arrays.copyOf(symbols, symbols.length);
+        scope.levels = Arrays.copyOf(levels, levels.length);
+        return scope;
     }
 
     public void push() {
-        tables.add(new HashMap<>());
+        if (level + 1 == marks.length) {
+            marks = Arrays.copyOf(marks, marks.length * 2);
+        }
+        marks[++level] = undoSize;
     }
 
     public void pop() {
-        tables.remove(tables.size() - 1);
+        int mark = marks[level--];
+        while (undoSize > mark) {
+            --undoSize;
+            int id = undoIds[undoSize];
+            symbols[id] = undoSymbols[undoSize];
+            levels[id] = undoLevels[undoSize];
+            undoSymbols[undoSize] = null;
+        }
     }
 
     public boolean isGlobal() {
-        return this.tables.size() == 1;
+        return this.level == 0;
+    }
+
+    public Symbol find(int id) {
+        return id >= 0 && id < symbols.length ? symbols[id] : null;
     }
 
     public Symbol find(String name) {
-        for (int i = tables.size() - 1; i >= 0; i--) {
-            Symbol t = tables.get(i).get(name);
-            if (t != null) return t;
+        int id = names.find(name);
+        return id < 0 ? null : find(id);
+    }
+
+    // 只在最内层作用域中查找，用于重名检查
+    public Symbol findInTop(int id) {
+        Symbol t = find(id);
+        return t != null && levels[id] == level ? t : null;
+    }
+
+    public Symbol findInTop(String name) {
+        int id = names.find(name);
+        return id < 0 ? null : findInTop(id);
+    }
+
+    private void ensureId(int id) {
+        if (id >= symbols.length) {
+            int capacity = Math.max(symbols.length * 2, id + 1);
+            symbols = Arrays.copyOf(symbols, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+        }
+    }
+
+    public void put(int id, Symbol v) {
+        ensureId(id);
+        if (symbols[id] != null && levels[id] == level) {
+            symbols[id] = v;
+            return;
         }
-        return null;
+        if (level > 0) {
+            if (undoSize == undoIds.length) {
+                undoIds = Arrays.copyOf(undoIds, undoSize * 2);
+                undoSymbols = Arrays.copyOf(undoSymbols, undoSize * 2);
+                undoLevels = Arrays.copyOf(undoLevels, undoSize * 2);
+            }
+            undoIds[undoSize] = id;
+            undoSymbols[undoSize] = symbols[id];
+            undoLevels[undoSize] = levels[id];
+            ++undoSize;
+        }
+        symbols[id] = v;
+        levels[id] = level;
     }
 
     public void put(String name, Symbol v) {
-        top().put(name, v);
+        put(names.intern(name), v);
+    }
+
+    public Function getFunc(int id) {
+        Symbol t = find(id);
+        return t == null ? null : (Function) t.getValue();
     }
 
     public Function getFunc(String name) {
-        return (Function) find(name).getValue();
+        Symbol t = find(name);
+        return t == null ? null : (Function) t.getValue();
     }
 
     public void put(String name, Function f) {
         assert isGlobal();
-        top().put(name, new Symbol(false, null, f));
+        put(name, new Symbol(false, null, f));
     }
 
     public void putGlobal(String name, Symbol v) {
-        tables.get(0).put(name, v);
+        int id = names.intern(name);
+        ensureId(id);
+        if (symbols[id] == null || levels[id] == 0) {
+            symbols[id] = v;
+            levels[id] = 0;
+            return;
+        }
+        // 被局部符号遮蔽时，改写最早那条 undo 记录，全局符号在回退到第 0 层时生效
+        for (int i = 0; i < undoSize; ++i) {
+            if (undoIds[i] == id) {
+                undoSymbols[i] = v;
+                undoLevels[i] = 0;
+                return;
+            }
+        }
     }
 
     public static class Symbol {
@@ -79,4 +167,4 @@ public class Scope {
             return value;
         }
     }
-}
\ No newline at end of file
+}
@@ -4,27 +4,95 @@ import midend.ir.Instruction.*;
 import midend.ir.*;
 import midend.ir.Constant.*;
 import midend.ir.Type.*;
+import utils.CompileContext;
+import utils.Config;
 import utils.Logger;
 import utils.IList;
 import utils.ValueCopy;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Semantic {
     private final Module m = new Module();
-    private final Scope scope = new Scope();
+    private final Scope scope;
     private static final Constant.ConstantInt CONST0 = Constant.ConstantInt.getConst0();
     private final Type I32 = Type.IntegerType.getI32();
     private BasicBlock curBB;
     private Function curFunc;
+    // buildIR 为 false 时不建 IR，表达式只用带类型的占位 Value 表示
+    private final boolean buildIR;
+    private final ArrayList<ErrorHandler.Error> errors = new ArrayList<>();
+    private Ast.FuncDef workerFuncDef;
+    private Function workerFunc;
+    // 并行检查时 worker 对全局变量、函数的 use，join 后按源码顺序挂上
+    private final LinkedHashMap<Use, Value> sharedUses = new LinkedHashMap<>();
+    // 正在检查的函数被增量解析复用时移动的行数，见 Ast.FuncDef.getLineShift
+    private int lineShift = 0;
+
+    private void logError(int line, ErrorHandler.Error.ErrorType type) {
+        errors.add(new ErrorHandler.Error(line + lineShift, type));
+    }
+
+    public ArrayList<ErrorHandler.Error> getErrors() {
+        return errors;
+    }
 
     public void checkDuplicateName(Lexer.Token token) {
-        if (scope.top().get(token.getText()) != null) {
-            Logger.logError(token.getLine(), ErrorHandler.Error.ErrorType.DuplicateName);
+        if (scope.findInTop(token.getId()) != null) {
+            logError(token.getLine(), ErrorHandler.Error.ErrorType.DuplicateName);
+        }
+    }
+
+    private BasicBlock buildBasicBlock(String name) {
+        return buildIR ? new BasicBlock(name + (++m.basicBlockIdx), curFunc) : null;
+    }
+
+    private Value buildLoad(Value pointer) {
+        if (!buildIR) {
+            return new Value(((PointerType) pointer.getType()).getPointTo(), "");
+        }
+        return new Load(pointer, curBB);
+    }
+
+    private Value buildGEP(Value pointer, ArrayList<Value> indices) {
+        if (!buildIR) {
+            return new Value(PointerType.get(GEP.getElementContainedType(pointer, indices.size())), "");
+        }
+        return new GEP(pointer, indices, curBB);
+    }
+
+    private Value buildAlloca(Type type) {
+        if (!buildIR) {
+            return new Value(PointerType.get(type), "");
+        }
+        return new Alloca(type, curBB);
+    }
+
+    private void buildStore(Value value, Value pointer) {
+        if (buildIR) {
+            new Store(value, pointer, curBB);
+        }
+    }
+
+    private Value buildCall(Function function, ArrayList<Value> args) {
+        if (!buildIR) {
+            return new Value(((FunctionType) function.getType()).getReturnType(), "");
+        }
+        return new Call(function, args, curBB);
+    }
+
+    private void buildBr(BasicBlock target) {
+        if (buildIR) {
+            new Br(target, curBB);
         }
     }
 
     private Value buildBinaryInst(InstrTag tag, Value lhs, Value rhs) {
+        if (!buildIR) {
+            return new Value(tag.getResultType(), "");
+        }
         if (lhs.getType().isI1Type()) {
             lhs = new Zext(lhs, I32, curBB);
         }
@@ -35,6 +103,9 @@ public class Semantic {
     }
 
     private void buildCondBr(Value cond, BasicBlock trueBB, BasicBlock falseBB) {
+        if (!buildIR) {
+            return;
+        }
         if (cond.getType() == I32) {
             cond = buildBinaryInst(InstrTag.Ne, CONST0, cond);
         }
@@ -42,11 +113,66 @@ public class Semantic {
     }
 
     public Semantic(Ast ast) {
+        this(ast, Config.semanticBuildIR, Config.parallelSemantic);
+    }
+
+    public Semantic(Ast ast, boolean buildIR, boolean parallel) {
+        this.scope = new Scope(ast.getNames());
+        this.buildIR = buildIR;
         scope.put("getint", new Function("getint", new FunctionType(I32, new ArrayList<>()), null, true, m));
         Type Void = VoidType.getType();
         scope.put("printf", new Function("printf", new FunctionType(Void, new ArrayList<>()), null, true, m));
+        if (parallel) {
+            visitCompUnitsParallel(ast);
+        } else {
+            for (Ast.CompUnit compUnit : ast.getCompUnits()) {
+                visitCompUnit(compUnit);
+            }
+        }
+        Collections.sort(errors);
+        for (ErrorHandler.Error error : errors) {
+            Logger.logError(error);
+        }
+    }
+
+    private Semantic(Semantic parent, Ast.FuncDef funcDef, Function function) {
+        this.scope = parent.scope.fork();
+        this.buildIR = parent.buildIR;
+        this.workerFuncDef = funcDef;
+        this.workerFunc = function;
+    }
+
+    // 全局声明和函数签名按源码顺序检查，每个函数体在声明处 fork 一份作用域后并行检查，错误各自收集后合并
+    private void visitCompUnitsParallel(Ast ast) {
+        ArrayList<Semantic> workers = new ArrayList<>();
         for (Ast.CompUnit compUnit : ast.getCompUnits()) {
-            visitCompUnit(compUnit);
+            if (compUnit instanceof Ast.Decl) {
+                visitDecl((Ast.Decl) compUnit);
+            } else {
+                Ast.FuncDef funcDef = (Ast.FuncDef) compUnit;
+                workers.add(new Semantic(this, funcDef, declareFunc(funcDef)));
+            }
+        }
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+        CompileContext ctx = CompileContext.get();
+        for (Semantic w : workers) {
+            tasks.add(ForkJoinPool.commonPool().submit(() -> ctx.run(w::visitWorkerFuncBody)));
+        }
+        for (int i = 0; i < workers.size(); ++i) {
+            tasks.get(i).join();
+            errors.addAll(workers.get(i).errors);
+            for (Map.Entry<Use, Value> use : workers.get(i).sharedUses.entrySet()) {
+                use.getValue().addUse(use.getKey());
+            }
+        }
+    }
+
+    private void visitWorkerFuncBody() {
+        LinkedHashMap<Use, Value> prev = Value.deferUses(sharedUses);
+        try {
+            visitFuncBody(workerFuncDef, workerFunc);
+        } finally {
+            Value.deferUses(prev);
         }
     }
 
@@ -66,30 +192,25 @@ public class Semantic {
         }
     }
 
-    private Constant calcGlobalInitVal(ArrayList<Ast.InitVal> vals, Type type) {
+    // pos[0] 是 vals 中下一个未使用的初值，不修改 Ast 中的列表；结果按行优先写入 atoms[base...]
+    private void calcGlobalInitAtoms(ArrayList<Ast.InitVal> vals, int[] pos, Type type, int[] atoms, int base) {
         if (type.isI32Type()) {
-            if (vals.size() == 0) {
-                return CONST0;
+            if (pos[0] != vals.size()) {
+                atoms[base] = ((ConstantInt) visitExp((Ast.Exp) vals.get(pos[0]).getInitValItem(), true)).getValue();
+                ++pos[0];
             }
-            Constant res = (Constant) visitExp((Ast.Exp) vals.get(0).getInitValItem(), true);
-            vals.remove(0);
-            return res;
-        } else {
-            if (vals.size() == 0) {
-                return new ConstantArray(type, new HashMap<>());
-            }
-            HashMap<Integer, Constant> constantRes = new HashMap<>();
-            ArrayType arrayType = (ArrayType) type;
-            for (int i = 0; i < arrayType.getLength() && vals.size() != 0; ++i) {
-                if (vals.get(0).getInitValItem() instanceof Ast.Exp) {
-                    constantRes.put(i, calcGlobalInitVal(vals, arrayType.getChildType()));
-                } else {
-                    ArrayList<Ast.InitVal> childVals = new ArrayList<>(((Ast.InitArrayVal) vals.get(0).getInitValItem()).getInitVals());
-                    vals.remove(0);
-                    constantRes.put(i, calcGlobalInitVal(childVals, arrayType.getChildType()));
-                }
+            return;
+        }
+        ArrayType arrayType = (ArrayType) type;
+        for (int i = 0; i < arrayType.getLength() && pos[0] != vals.size(); ++i) {
+            int childBase = base + i * arrayType.getChildNumOfAtomElements();
+            if (vals.get(pos[0]).getInitValItem() instanceof Ast.Exp) {
+                calcGlobalInitAtoms(vals, pos, arrayType.getChildType(), atoms, childBase);
+            } else {
+                ArrayList<Ast.InitVal> childVals = ((Ast.InitArrayVal) vals.get(pos[0]).getInitValItem()).getInitVals();
+                ++pos[0];
+                calcGlobalInitAtoms(childVals, new int[1], arrayType.getChildType(), atoms, childBase);
             }
-            return new ConstantArray(type, constantRes);
         }
     }
 
@@ -98,24 +219,26 @@ public class Semantic {
         if (type.isI32Type()) {
             res = (Constant) visitExp((Ast.Exp) initVal.getInitValItem(), true);
         } else {
-            res = calcGlobalInitVal(new ArrayList<>(((Ast.InitArrayVal) initVal.getInitValItem()).getInitVals()), type);
+            int[] atoms = new int[((ArrayType) type).getNumOfAtomElements()];
+            calcGlobalInitAtoms(((Ast.InitArrayVal) initVal.getInitValItem()).getInitVals(), new int[1], type, atoms, 0);
+            res = ConstantArray.fromAtoms(type, atoms);
         }
         return res;
     }
 
-    private HashMap<Integer, Value> calcLocalInitVal(ArrayList<Ast.InitVal> vals, Type type, boolean isConstant) {
+    private HashMap<Integer, Value> calcLocalInitVal(ArrayList<Ast.InitVal> vals, int[] pos, Type type, boolean isConstant) {
         if (type.isI32Type()) {
-            if (vals.size() == 0) {
+            if (pos[0] == vals.size()) {
                 HashMap<Integer, Value> res = new HashMap<>();
                 res.put(0, CONST0);
                 return res;
             }
-            Value value = visitExp((Ast.Exp) vals.get(0).getInitValItem(), isConstant);
-            vals.remove(0);
+            Value value = visitExp((Ast.Exp) vals.get(pos[0]).getInitValItem(), isConstant);
+            ++pos[0];
             return new HashMap<>(Collections.singletonMap(0, value));
         } else {
             ArrayType arrayType = (ArrayType) type;
-            if (vals.size() == 0) {
+            if (pos[0] == vals.size()) {
                 HashMap<Integer, Value> res = new HashMap<>();
                 for (int i = 0; i < arrayType.getNumOfAtomElements(); ++i) {
                     res.put(i, CONST0);
@@ -123,13 +246,13 @@ public class Semantic {
                 return res;
             }
             HashMap<Integer, Value> res = new HashMap<>();
-            for (int i = 0; i < arrayType.getLength() && vals.size() != 0; ++i) {
+            for (int i = 0; i < arrayType.getLength() && pos[0] != vals.size(); ++i) {
                 HashMap<Integer, Value> map;
-                if (vals.get(0).getInitValItem() instanceof Ast.Exp) {
-                    map = calcLocalInitVal(vals, arrayType.getChildType(), isConstant);
+                if (vals.get(pos[0]).getInitValItem() instanceof Ast.Exp) {
+                    map = calcLocalInitVal(vals, pos, arrayType.getChildType(), isConstant);
                 } else {
-                    map = calcLocalInitVal(new ArrayList<>(((Ast.InitArrayVal) vals.get(0).getInitValItem()).getInitVals()), arrayType.getChildType(), isConstant);
-                    vals.remove(0);
+                    map = calcLocalInitVal(((Ast.InitArrayVal) vals.get(pos[0]).getInitValItem()).getInitVals(), new int[1], arrayType.getChildType(), isConstant);
+                    ++pos[0];
                 }
                 for (int index : map.keySet()) {
                     res.put(index + i * arrayType.getChildNumOfAtomElements(), map.get(index));
@@ -147,7 +270,7 @@ public class Semantic {
         if (initVal.getInitValItem() instanceof Ast.Exp) {
             res = new HashMap<>(Collections.singletonMap(0, visitExp((Ast.Exp) initVal.getInitValItem(), isConstant)));
         } else {
-            res = calcLocalInitVal(new ArrayList<>(((Ast.InitArrayVal) initVal.getInitValItem()).getInitVals()), type, isConstant);
+            res = calcLocalInitVal(((Ast.InitArrayVal) initVal.getInitValItem()).getInitVals(), new int[1], type, isConstant);
         }
         return res;
     }
@@ -156,11 +279,11 @@ public class Semantic {
         for (int i = 0; i < size; ++i) {
             if (array.get(i) != null) {
                 int ii = i;
-                GEP elePtr = new GEP(ptr, new ArrayList<Value>() {{ add(new ConstantInt(IntegerType.getI32(), ii)); }}, curBB);
+                GEP elePtr = new GEP(ptr, new ArrayList<Value>() {{ add(ConstantInt.get(IntegerType.getI32(), ii)); }}, curBB);
                 new Store(array.get(i), elePtr, curBB);
             } else {
                 int ii = i;
-                GEP elePtr = new GEP(ptr, new ArrayList<Value>() {{ add(new ConstantInt(IntegerType.getI32(), ii)); }}, curBB);
+                GEP elePtr = new GEP(ptr, new ArrayList<Value>() {{ add(ConstantInt.get(IntegerType.getI32(), ii)); }}, curBB);
                 new Store(CONST0, elePtr, curBB);
             }
         }
@@ -175,7 +298,7 @@ public class Semantic {
             indexes.add(((ConstantInt) visitExp(len, true)).getValue());
         }
         for (int i = indexes.size() - 1; i >= 0; --i) {
-            arrayType = new ArrayType(arrayType, indexes.get(i));
+            arrayType = ArrayType.get(arrayType, indexes.get(i));
         }
         if (scope.isGlobal()) {
             Constant initVal = null;
@@ -186,13 +309,15 @@ public class Semantic {
                 initVal = null;
             }
             GlobalVariable GV = new GlobalVariable(name, arrayType, initVal, isConstant);
-            scope.put(name, new Scope.Symbol(isConstant, initVal, GV));
-            m.globalList.add(GV);
+            scope.put(def.getIdent().getId(), new Scope.Symbol(isConstant, initVal, GV));
+            if (buildIR) {
+                m.globalList.add(GV);
+            }
         } else {
-            Alloca alloca = new Alloca(arrayType, curBB);
+            Value alloca = buildAlloca(arrayType);
             HashMap<Integer, Value> res = calcLocalInitVal(def.getInitVal(), arrayType, isConstant);
-            if (res != null) {
-                Instruction ptr = alloca;
+            if (res != null && buildIR) {
+                Instruction ptr = (Instruction) alloca;
                 for (int i = 0; i < indexes.size(); ++i) {
                     ptr = new GEP(ptr, new ArrayList<Value>() {{
                         add(CONST0);
@@ -201,11 +326,16 @@ public class Semantic {
                 }
                 storeArrayInFunctionInit(res, ptr, arrayType instanceof ArrayType ? ((ArrayType) arrayType).getNumOfAtomElements() : 1);
             }
-            scope.put(name, new Scope.Symbol(isConstant, isConstant ? Constant.buildConstantFromValues(arrayType, res) : null, alloca));
+            scope.put(def.getIdent().getId(), new Scope.Symbol(isConstant, isConstant ? Constant.buildConstantFromValues(arrayType, res) : null, alloca));
         }
     }
 
     private void visitFuncDef(Ast.FuncDef funcDef) {
+        visitFuncBody(funcDef, declareFunc(funcDef));
+    }
+
+    private Function declareFunc(Ast.FuncDef funcDef) {
+        lineShift = funcDef.getLineShift();
         String name = funcDef.getIdent().getText();
         checkDuplicateName(funcDef.getIdent());
         Type retType;
@@ -227,12 +357,28 @@ public class Semantic {
             }
         }
         FunctionType functionType = new FunctionType(retType, paramTypes);
-        Function function = new Function(name, functionType, params, false, m);
+        Function function = new Function(name, functionType, params, false, buildIR ? m : null);
         scope.put(name, function);
+        lineShift = 0;
+        return function;
+    }
+
+    private void visitFuncBody(Ast.FuncDef funcDef, Function function) {
+        lineShift = funcDef.getLineShift();
+        visitFuncBodyItems(funcDef, function);
+        lineShift = 0;
+    }
+
+    private void visitFuncBodyItems(Ast.FuncDef funcDef, Function function) {
+        FunctionType functionType = (FunctionType) function.getType();
         BasicBlock thisBasicBlock = curBB;
-        curBB = new BasicBlock(name + "function" + (++m.basicBlockIdx), function);
         curFunc = function;
-        visitBlock(funcDef.getBlock(), retType.isI32Type(), funcDef);
+        curBB = buildBasicBlock(function.getName() + "function");
+        visitBlock(funcDef.getBlock(), functionType.getReturnType().isI32Type(), funcDef);
+        if (!buildIR) {
+            curBB = thisBasicBlock;
+            return;
+        }
         if (curBB.getList().getLast().getValue() == null ||
                 !curBB.getList().getLast().getValue().getTag().isTerminator()) {
             if (functionType.getReturnType().isVoidType()) {
@@ -248,9 +394,9 @@ public class Semantic {
         scope.push();
         if (funcDef != null) {
             for (int i = 0; i < ((FunctionType) curFunc.getType()).getParamLength(); ++i) {
-                Alloca allocaInst = new Alloca(((FunctionType) curFunc.getType()).getParamType(i), curBB);
+                Value allocaInst = buildAlloca(((FunctionType) curFunc.getType()).getParamType(i));
                 Function.Param param = curFunc.getParamList().get(i);
-                new Store(param, allocaInst, curBB);
+                buildStore(param, allocaInst);
                 checkDuplicateName(funcDef.getFuncFParams().get(i).getIdent());
                 scope.put(param.getName(), new Scope.Symbol(false, null, allocaInst));
             }
@@ -261,15 +407,15 @@ public class Semantic {
         scope.pop();
         if (needReturnAtEnd) {
             if (block.getBlockItems().isEmpty()) {
-                Logger.logError(block.getRBraceToken().getLine(), ErrorHandler.Error.ErrorType.LackReturn);
+                logError(block.getRBraceToken().getLine(), ErrorHandler.Error.ErrorType.LackReturn);
             } else {
                 Ast.BlockItem.BlockItemItem lastBII = block.getBlockItems().get(block.getBlockItems().size() - 1).getBlockItemItem();
                 if (!(lastBII instanceof Ast.Stmt)) {
-                    Logger.logError(block.getRBraceToken().getLine(), ErrorHandler.Error.ErrorType.LackReturn);
+                    logError(block.getRBraceToken().getLine(), ErrorHandler.Error.ErrorType.LackReturn);
                 } else {
                     Ast.Stmt lastStmt = (Ast.Stmt) lastBII;
                     if (!(lastStmt.getStmtItem() instanceof Ast.ReturnStmt)) {
-                        Logger.logError(block.getRBraceToken().getLine(), ErrorHandler.Error.ErrorType.LackReturn);
+                        logError(block.getRBraceToken().getLine(), ErrorHandler.Error.ErrorType.LackReturn);
                     }
                 }
             }
@@ -285,9 +431,9 @@ public class Semantic {
                 dims.add(((ConstantInt) visitExp(exp, true)).getValue());
             }
             for (int i = dims.size() - 1; i >= 0; --i) {
-                type = new ArrayType(type, dims.get(i));
+                type = ArrayType.get(type, dims.get(i));
             }
-            type = new PointerType(type);
+            type = PointerType.get(type);
         }
         return new Function.Param(type, name);
     }
@@ -325,10 +471,9 @@ public class Semantic {
     }
 
     private Value visitLVal(Ast.LVal lVal, boolean returnValue, boolean allConst) {
-        String ident = lVal.getIdent().getText();
-        Scope.Symbol symbol = scope.find(ident);
+        Scope.Symbol symbol = scope.find(lVal.getIdent().getId());
         if (symbol == null) {
-            Logger.logError(lVal.getIdent().getLine(), ErrorHandler.Error.ErrorType.UndefinedName);
+            logError(lVal.getIdent().getLine(), ErrorHandler.Error.ErrorType.UndefinedName);
             return null;
         }
         Value pointer = symbol.getValue();
@@ -345,34 +490,34 @@ public class Semantic {
             if (pointerType.getPointTo().isArrayType()) {
                 for (Ast.Exp exp : lVal.getExps()) {
                     Value index = visitExp(exp, false);
-                    pointer = new GEP(pointer, new ArrayList<Value>() {{
+                    pointer = buildGEP(pointer, new ArrayList<Value>() {{
                         add(CONST0);
                         add(index);
-                    }}, curBB);
+                    }});
                 }
             } else if (pointerType.getPointTo().isPointerType()) {
                 for (int i = 0; i < lVal.getExps().size(); ++i) {
                     Value index = visitExp(lVal.getExps().get(i), false);
                     if (i == 0) {
-                        pointer = new Load(pointer, curBB);
-                        pointer = new GEP(pointer, new ArrayList<Value>() {{
+                        pointer = buildLoad(pointer);
+                        pointer = buildGEP(pointer, new ArrayList<Value>() {{
                             add(index);
-                        }}, curBB);
+                        }});
                     } else {
-                        pointer = new GEP(pointer, new ArrayList<Value>() {{
+                        pointer = buildGEP(pointer, new ArrayList<Value>() {{
                             add(CONST0);
                             add(index);
-                        }}, curBB);
+                        }});
                     }
                 }
             }
             if (returnValue) {
                 if (((PointerType) pointer.getType()).getPointTo().isI32Type()) {
-                    pointer = new Load(pointer, curBB);
+                    pointer = buildLoad(pointer);
                 } else if (((PointerType) pointer.getType()).getPointTo().isArrayType()) {
-                    pointer = new GEP(pointer, new ArrayList<Value>() {{ add(CONST0); add(CONST0); }}, curBB);
+                    pointer = buildGEP(pointer, new ArrayList<Value>() {{ add(CONST0); add(CONST0); }});
                 } else {
-                    pointer = new Load(pointer, curBB);
+                    pointer = buildLoad(pointer);
                 }
             }
             return pointer;
@@ -385,8 +530,10 @@ public class Semantic {
         for (Ast.Exp exp : printf.getExps()) {
             args.add(visitExp(exp, false));
         }
-        ErrorHandler.checkPrintfArgsMatchesFormatString(printf.getFormatString().getContext().getText(), args.size() - 1, printf.getPrintfToken().getLine());
-        new Call(scope.getFunc("printf"), args, curBB);
+        if (!ErrorHandler.printfArgsMatchFormatString(printf.getFormatString().getContext().getText(), args.size() - 1)) {
+            logError(printf.getPrintfToken().getLine(), ErrorHandler.Error.ErrorType.UnmatchedPrintfFormatString);
+        }
+        buildCall(scope.getFunc("printf"), args);
     }
 
     private Value visitPrimaryExp(Ast.PrimaryExp exp, boolean allConst) {
@@ -405,21 +552,21 @@ public class Semantic {
 
     private ConstantInt visitNumber(Ast.Number number) {
         if (number.getToken().getText().equals("2147483648")) {
-            return new ConstantInt(-2147483648);
+            return ConstantInt.get(-2147483648);
         } else {
-            return new ConstantInt(number.getVal());
+            return ConstantInt.get(number.getVal());
         }
     }
 
     private Value visitCallee(Ast.Callee callee) {
-        Function function = scope.getFunc(callee.getIdent().getText());
+        Function function = scope.getFunc(callee.getIdent().getId());
         if (function == null) {
-            Logger.logError(callee.getIdent().getLine(), ErrorHandler.Error.ErrorType.UndefinedName);
+            logError(callee.getIdent().getLine(), ErrorHandler.Error.ErrorType.UndefinedName);
             return null;
         }
         ArrayList<Value> args = new ArrayList<>();
         if (callee.getFuncRParams().size() != function.getParamList().size()) {
-            Logger.logError(callee.getIdent().getLine(), ErrorHandler.Error.ErrorType.UnmatchedParamNumber);
+            logError(callee.getIdent().getLine(), ErrorHandler.Error.ErrorType.UnmatchedParamNumber);
             return null;
         }
         for (int i = 0; i < callee.getFuncRParams().size(); ++i) {
@@ -432,11 +579,11 @@ public class Semantic {
                 }
             }
             if (!rParam.getType().equals(function.getParamList().get(i).getType())) {
-                Logger.logError(callee.getIdent().getLine(), ErrorHandler.Error.ErrorType.UnmatchedParamType);
+                logError(callee.getIdent().getLine(), ErrorHandler.Error.ErrorType.UnmatchedParamType);
             }
             args.add(rParam);
         }
-        return new Call(function, args, curBB);
+        return buildCall(function, args);
     }
 
     private Value visitFuncRParam(Ast.FuncRParam funcRParam) {
@@ -456,31 +603,33 @@ public class Semantic {
         ConstantString cs = new ConstantString(content);
         String gvName = "FormatString" + ++formatStringCnt;
         GlobalVariable gv = new GlobalVariable(gvName, cs.getType(), cs, true);
-        scope.putGlobal(gvName, new Scope.Symbol(true, cs, gv));
-        m.globalList.add(gv);
+        if (buildIR) {
+            scope.putGlobal(gvName, new Scope.Symbol(true, cs, gv));
+            m.globalList.add(gv);
+        }
         return gv;
     }
 
     private void visitAssign(Ast.AssignStmt assign) {
         Ast.LVal lVal = assign.getLVal();
-        Scope.Symbol lValSymbol = scope.find(lVal.getIdent().getText());
+        Scope.Symbol lValSymbol = scope.find(lVal.getIdent().getId());
         if (lValSymbol != null && lValSymbol.isConstant()) {
-            Logger.logError(lVal.getIdent().getLine(), ErrorHandler.Error.ErrorType.AssignToConst);
+            logError(lVal.getIdent().getLine(), ErrorHandler.Error.ErrorType.AssignToConst);
         }
         Value lValPointer = visitLVal(lVal, false, false);
         Value rVal = visitExp(assign.getExp(), false);
         if (lValSymbol != null) {
-            new Store(rVal, lValPointer, curBB);
+            buildStore(rVal, lValPointer);
         }
     }
 
     private void visitGetInt(Ast.GetIntStmt getInt) {
-        if (scope.find(getInt.getLVal().getIdent().getText()).isConstant()) {
-            Logger.logError(getInt.getLVal().getIdent().getLine(), ErrorHandler.Error.ErrorType.AssignToConst);
+        if (scope.find(getInt.getLVal().getIdent().getId()).isConstant()) {
+            logError(getInt.getLVal().getIdent().getLine(), ErrorHandler.Error.ErrorType.AssignToConst);
         }
         Value lValPointer = visitLVal(getInt.getLVal(), false, false);
-        Value rVal = new Call(scope.getFunc("getint"), new ArrayList<>(), curBB);
-        new Store(rVal, lValPointer, curBB);
+        Value rVal = buildCall(scope.getFunc("getint"), new ArrayList<>());
+        buildStore(rVal, lValPointer);
     }
 
     private void visitExpStmt(Ast.ExpStmt expStmt) {
@@ -491,20 +640,20 @@ public class Semantic {
     }
 
     private void visitIfStmt(Ast.IfStmt ifStmt) {
-        BasicBlock trueBB = new BasicBlock("true" + (++m.basicBlockIdx), curFunc);
-        BasicBlock nextBB = new BasicBlock("next" + (++m.basicBlockIdx), curFunc);
+        BasicBlock trueBB = buildBasicBlock("true");
+        BasicBlock nextBB = buildBasicBlock("next");
         BasicBlock falseBB = nextBB;
         if (ifStmt.getFalseStmt() != null) {
-            falseBB = new BasicBlock("false" + (++m.basicBlockIdx), curFunc);
+            falseBB = buildBasicBlock("false");
         }
         visitLOrExp(ifStmt.getCond(), trueBB, falseBB);
         curBB = trueBB;
         visitStmt(ifStmt.getTrueStmt());
-        new Br(nextBB, curBB);
+        buildBr(nextBB);
         if (ifStmt.getFalseStmt() != null) {
             curBB = falseBB;
             visitStmt(ifStmt.getFalseStmt());
-            new Br(nextBB, curBB);
+            buildBr(nextBB);
         }
         curBB = nextBB;
     }
@@ -513,6 +662,11 @@ public class Semantic {
     private final String continueBackpatchSign = "CONTINUE_BACKPATCH";
 
     private void visitWhile(Ast.WhileStmt stmt) {
+        if (!buildIR) {
+            visitLOrExp(stmt.getCond(), null, null);
+            visitStmt(stmt.getBody());
+            return;
+        }
         BasicBlock enterBB = curBB;
         BasicBlock condBB = new BasicBlock("cond" + (++m.basicBlockIdx), curFunc);
         BasicBlock whileBB = new BasicBlock("while body" + (++m.basicBlockIdx), curFunc);
@@ -595,28 +749,34 @@ public class Semantic {
     }
 
     private void visitBreak() {
-        new Br(new BasicBlock(breakBackpatchSign, curFunc), curBB);
+        if (buildIR) {
+            new Br(new BasicBlock(breakBackpatchSign, curFunc), curBB);
+        }
     }
 
     private void visitContinue() {
-        new Br(new BasicBlock(continueBackpatchSign, curFunc), curBB);
+        if (buildIR) {
+            new Br(new BasicBlock(continueBackpatchSign, curFunc), curBB);
+        }
     }
 
     private void visitReturn(Ast.ReturnStmt stmt) {
         if (stmt.getReturnVal() != null) {
             if (((FunctionType) curFunc.getType()).getReturnType().isVoidType()) {
-                Logger.logError(stmt.getReturnToken().getLine(), ErrorHandler.Error.ErrorType.ReturnUnmatchedExp);
+                logError(stmt.getReturnToken().getLine(), ErrorHandler.Error.ErrorType.ReturnUnmatchedExp);
             }
             Value returnExp = visitExp(stmt.getReturnVal(), false);
-            new Ret(returnExp, curBB);
-        } else {
+            if (buildIR) {
+                new Ret(returnExp, curBB);
+            }
+        } else if (buildIR) {
             new Ret(null, curBB);
         }
     }
 
     private void visitLOrExp(Ast.LOrExp exp, BasicBlock trueBB, BasicBlock falseBB) {
         for (int i = 0; i < exp.getExps().size() - 1; ++i) {
-            BasicBlock nxtCondBlock = new BasicBlock("LOrNext" + (++m.basicBlockIdx), curFunc);
+            BasicBlock nxtCondBlock = buildBasicBlock("LOrNext");
             visitLAndExp(exp.getExps().get(i), trueBB, nxtCondBlock);
             curBB = nxtCondBlock;
         }
@@ -625,12 +785,12 @@ public class Semantic {
 
     private void visitLAndExp(Ast.LAndExp exp, BasicBlock trueBB, BasicBlock falseBB) {
         for (int i = 0; i < exp.getExps().size(); ++i) {
-            BasicBlock nxtCondBlock = new BasicBlock("LAndNext" + (++m.basicBlockIdx), curFunc);
+            BasicBlock nxtCondBlock = buildBasicBlock("LAndNext");
             Value condExp = visitEqExp(exp.getExps().get(i));
             buildCondBr(condExp, nxtCondBlock, falseBB);
             curBB = nxtCondBlock;
         }
-        new Br(trueBB, curBB);
+        buildBr(trueBB);
     }
 
     private Value visitExp(Ast.Exp exp, boolean allConst) {
@@ -4,20 +4,34 @@ import midend.ir.Instruction.*;
 import midend.ir.*;
 import midend.ir.Constant.*;
 import midend.ir.Type.*;
+import utils.CompileContext;
 import utils.Config;
 import utils.IList;
 import utils.ValueCopy;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Visitor {
     private final Ast ast;
-    private final Module m = Module.module;
-    private final Scope scope = new Scope();
+    private final Module m = Module.get();
+    private final Scope scope;
     private static final Constant.ConstantInt CONST0 = Constant.ConstantInt.getConst0();
     private final Type I32 = Type.IntegerType.getI32();
     private BasicBlock curBB;
     private Function curFunc;
+    // 并行 lowering 的 worker：块编号用自己的计数器，格式串和对全局变量、函数的 use 先攒在本地，join 后再并回 Module
+    private final boolean worker;
+    private int blockIdx;
+    private final ArrayList<GlobalVariable> formatStrings = new ArrayList<>();
+    private final LinkedHashMap<Use, Value> sharedUses = new LinkedHashMap<>();
+    private Ast.FuncDef workerFuncDef;
+    private Function workerFunc;
+
+    private int nextBlockIdx() {
+        return worker ? ++blockIdx : ++m.basicBlockIdx;
+    }
 
     private Value buildBinaryInst(InstrTag tag, Value lhs, Value rhs) {
         if (lhs.getType().isI1Type()) {
@@ -38,6 +52,8 @@ public class Visitor {
 
     public Visitor(Ast ast) {
         this.ast = ast;
+        this.scope = new Scope(ast.getNames());
+        this.worker = false;
         scope.put("getint", new Function("getint", new FunctionType(I32, new ArrayList<>()), null, true, m));
         Type Void = VoidType.getType();
         if (!Config.submit) {
@@ -46,12 +62,12 @@ public class Visitor {
             }}), null, true, m));
             scope.put("getch", new Function("getch", new FunctionType(I32, new ArrayList<>()), null, true, m));
             ArrayList<Type> paramArray = new ArrayList<Type>() {{
-                add(new PointerType(I32));
+                add(PointerType.get(I32));
             }};
             scope.put("getarray", new Function("getarray", new FunctionType(I32, paramArray), null, true, m));
             ArrayList<Type> paramIntArray = new ArrayList<Type>() {{
                 add(I32);
-                add(new PointerType(I32));
+                add(PointerType.get(I32));
             }};
             scope.put("putarray", new Function("putarray", new FunctionType(Void, paramIntArray), null, true, m));
             scope.put("putint", new Function("putint", new FunctionType(Void, new ArrayList<Type>() {{
@@ -59,12 +75,67 @@ public class Visitor {
             }}), null, true, m));
         }
         scope.put("printf", new Function("printf", new FunctionType(Void, new ArrayList<>()), null, true, m));
+        if (Config.parallelIRGen) {
+            visitCompUnitsParallel();
+        } else {
+            for (Ast.CompUnit compUnit : ast.getCompUnits()) {
+                visitCompUnit(compUnit);
+            }
+        }
+    }
+
+    private Visitor(Visitor parent, Ast.FuncDef funcDef, Function function) {
+        this.ast = new Ast(parent.ast.getNames());
+        this.scope = parent.scope.fork();
+        this.worker = true;
+        this.blockIdx = parent.m.basicBlockIdx;
+        this.workerFuncDef = funcDef;
+        this.workerFunc = function;
+    }
+
+    // 先顺序处理全局声明和函数签名，再把函数体分给 fork-join 池，最后按源码顺序合并
+    private void visitCompUnitsParallel() {
+        ArrayList<Visitor> workers = new ArrayList<>();
         for (Ast.CompUnit compUnit : ast.getCompUnits()) {
-            visitCompUnit(compUnit);
+            if (compUnit instanceof Ast.Decl) {
+                visitDecl((Ast.Decl) compUnit);
+            } else {
+                Ast.FuncDef funcDef = (Ast.FuncDef) compUnit;
+                workers.add(new Visitor(this, funcDef, declareFunc(funcDef)));
+            }
+        }
+        ArrayList<ForkJoinTask<?>> tasks = new ArrayList<>();
+        CompileContext ctx = CompileContext.get();
+        for (Visitor w : workers) {
+            tasks.add(ForkJoinPool.commonPool().submit(() -> ctx.run(w::visitWorkerFuncBody)));
+        }
+        int maxBlockIdx = m.basicBlockIdx;
+        for (int i = 0; i < workers.size(); ++i) {
+            tasks.get(i).join();
+            Visitor w = workers.get(i);
+            ast.getRes().addAll(w.ast.getRes());
+            for (GlobalVariable gv : w.formatStrings) {
+                gv.setName("FormatString" + ++formatStringCnt);
+                m.globalList.add(gv);
+            }
+            for (Map.Entry<Use, Value> use : w.sharedUses.entrySet()) {
+                use.getValue().addUse(use.getKey());
+            }
+            maxBlockIdx = Math.max(maxBlockIdx, w.blockIdx);
+        }
+        m.basicBlockIdx = maxBlockIdx;
+    }
+
+    private void visitWorkerFuncBody() {
+        LinkedHashMap<Use, Value> prev = Value.deferUses(sharedUses);
+        try {
+            visitFuncBody(workerFuncDef, workerFunc);
+        } finally {
+            Value.deferUses(prev);
         }
     }
 
-    private void visitCompUnit(Ast.CompUnit compUnit) {
+    public void visitCompUnit(Ast.CompUnit compUnit) {
         if (compUnit instanceof Ast.Decl) {
             visitDecl((Ast.Decl) compUnit);
         } else {
@@ -80,30 +151,25 @@ public class Visitor {
         }
     }
 
-    private Constant calcGlobalInitVal(ArrayList<Ast.InitVal> vals, Type type) {
+    // pos[0] 是 vals 中下一个未使用的初值，不修改 Ast 中的列表；结果按行优先写入 atoms[base...]
+    private void calcGlobalInitAtoms(ArrayList<Ast.InitVal> vals, int[] pos, Type type, int[] atoms, int base) {
         if (type.isI32Type()) {
-            if (vals.size() == 0) {
-                return CONST0;
-            }
-            Constant res = (Constant) visitExp((Ast.Exp) vals.get(0).getInitValItem(), true);
-            vals.remove(0);
-            return res;
-        } else {
-            if (vals.size() == 0) {
-                return new ConstantArray(type, new HashMap<>());
+            if (pos[0] != vals.size()) {
+                atoms[base] = ((ConstantInt) visitExp((Ast.Exp) vals.get(pos[0]).getInitValItem(), true)).getValue();
+                ++pos[0];
             }
-            HashMap<Integer, Constant> constantRes = new HashMap<>();
-            ArrayType arrayType = (ArrayType) type;
-            for (int i = 0; i < arrayType.getLength() && vals.size() != 0; ++i) {
-                if (vals.get(0).getInitValItem() instanceof Ast.Exp) {
-                    constantRes.put(i, calcGlobalInitVal(vals, arrayType.getChildType()));
-                } else {
-                    ArrayList<Ast.InitVal> childVals = new ArrayList<>(((Ast.InitArrayVal) vals.get(0).getInitValItem()).getInitVals());
-                    vals.remove(0);
-                    constantRes.put(i, calcGlobalInitVal(childVals, arrayType.getChildType()));
-                }
+            return;
+        }
+        ArrayType arrayType = (ArrayType) type;
+        for (int i = 0; i < arrayType.getLength() && pos[0] != vals.size(); ++i) {
+            int childBase = base + i * arrayType.getChildNumOfAtomElements();
+            if (vals.get(pos[0]).getInitValItem() instanceof Ast.Exp) {
+                calcGlobalInitAtoms(vals, pos, arrayType.getChildType(), atoms, childBase);
+            } else {
+                ArrayList<Ast.InitVal> childVals = ((Ast.InitArrayVal) vals.get(pos[0]).getInitValItem()).getInitVals();
+                ++pos[0];
+                calcGlobalInitAtoms(childVals, new int[1], arrayType.getChildType(), atoms, childBase);
             }
-            return new ConstantArray(type, constantRes);
         }
     }
 
@@ -112,24 +178,26 @@ public class Visitor {
         if (type.isI32Type()) {
             res = (Constant) visitExp((Ast.Exp) initVal.getInitValItem(), true);
         } else {
-            res = calcGlobalInitVal(((Ast.InitArrayVal) initVal.getInitValItem()).getInitVals(), type);
+            int[] atoms = new int[((ArrayType) type).getNumOfAtomElements()];
+            calcGlobalInitAtoms(((Ast.InitArrayVal) initVal.getInitValItem()).getInitVals(), new int[1], type, atoms, 0);
+            res = ConstantArray.fromAtoms(type, atoms);
         }
         return res;
     }
 
-    private HashMap<Integer, Value> calcLocalInitVal(ArrayList<Ast.InitVal> vals, Type type, boolean isConstant) {
+    private HashMap<Integer, Value> calcLocalInitVal(ArrayList<Ast.InitVal> vals, int[] pos, Type type, boolean isConstant) {
         if (type.isI32Type()) {
-            if (vals.size() == 0) {
+            if (pos[0] == vals.size()) {
                 HashMap<Integer, Value> res = new HashMap<>();
                 res.put(0, CONST0);
                 return res;
             }
-            Value value = visitExp((Ast.Exp) vals.get(0).getInitValItem(), isConstant);
-            vals.remove(0);
+            Value value = visitExp((Ast.Exp) vals.get(pos[0]).getInitValItem(), isConstant);
+            ++pos[0];
             return new HashMap<>(Collections.singletonMap(0, value));
         } else {
             ArrayType arrayType = (ArrayType) type;
-            if (vals.size() == 0) {
+            if (pos[0] == vals.size()) {
                 HashMap<Integer, Value> res = new HashMap<>();
                 for (int i = 0; i < arrayType.getNumOfAtomElements(); ++i) {
                     res.put(i, CONST0);
@@ -137,13 +205,13 @@ public class Visitor {
                 return res;
             }
             HashMap<Integer, Value> res = new HashMap<>();
-            for (int i = 0; i < arrayType.getLength() && vals.size() != 0; ++i) {
+            for (int i = 0; i < arrayType.getLength() && pos[0] != vals.size(); ++i) {
                 HashMap<Integer, Value> map;
-                if (vals.get(0).getInitValItem() instanceof Ast.Exp) {
-                    map = calcLocalInitVal(vals, arrayType.getChildType(), isConstant);
+                if (vals.get(pos[0]).getInitValItem() instanceof Ast.Exp) {
+                    map = calcLocalInitVal(vals, pos, arrayType.getChildType(), isConstant);
                 } else {
-                    map = calcLocalInitVal(new ArrayList<>(((Ast.InitArrayVal) vals.get(0).getInitValItem()).getInitVals()), arrayType.getChildType(), isConstant);
-                    vals.remove(0);
+                    map = calcLocalInitVal(((Ast.InitArrayVal) vals.get(pos[0]).getInitValItem()).getInitVals(), new int[1], arrayType.getChildType(), isConstant);
+                    ++pos[0];
                 }
                 for (int index : map.keySet()) {
                     res.put(index + i * arrayType.getChildNumOfAtomElements(), map.get(index));
@@ -161,7 +229,7 @@ public class Visitor {
         if (initVal.getInitValItem() instanceof Ast.Exp) {
             res = new HashMap<>(Collections.singletonMap(0, visitExp((Ast.Exp) initVal.getInitValItem(), isConstant)));
         } else {
-            res = calcLocalInitVal(((Ast.InitArrayVal) initVal.getInitValItem()).getInitVals(), type, isConstant);
+            res = calcLocalInitVal(((Ast.InitArrayVal) initVal.getInitValItem()).getInitVals(), new int[1], type, isConstant);
         }
         return res;
     }
@@ -180,7 +248,7 @@ public class Visitor {
             } else {
                 int ii = i;
                 GEP elePtr = new GEP(ptr, new ArrayList<Value>() {{
-                    add(new ConstantInt(IntegerType.getI32(), ii));
+                    add(ConstantInt.get(IntegerType.getI32(), ii));
                 }}, curBB);
                 new Store(value, elePtr, curBB);
             }
@@ -195,7 +263,7 @@ public class Visitor {
             indexes.add(((ConstantInt) visitExp(len, true)).getValue());
         }
         for (int i = indexes.size() - 1; i >= 0; --i) {
-            arrayType = new ArrayType(arrayType, indexes.get(i));
+            arrayType = ArrayType.get(arrayType, indexes.get(i));
         }
         if (scope.isGlobal()) {
             Constant initVal = null;
@@ -206,7 +274,7 @@ public class Visitor {
                 initVal = null;
             }
             GlobalVariable GV = new GlobalVariable(name, arrayType, initVal, isConstant);
-            scope.put(name, new Scope.Symbol(isConstant, initVal, GV));
+            scope.put(def.getIdent().getId(), new Scope.Symbol(isConstant, initVal, GV));
             m.globalList.add(GV);
         } else {
             Alloca alloca = new Alloca(arrayType, curBB);
@@ -221,11 +289,15 @@ public class Visitor {
                 }
                 storeArrayInFunctionInit(res, ptr, arrayType instanceof ArrayType ? ((ArrayType) arrayType).getNumOfAtomElements() : 1);
             }
-            scope.put(name, new Scope.Symbol(isConstant, isConstant ? Constant.buildConstantFromValues(arrayType, res) : null, alloca));
+            scope.put(def.getIdent().getId(), new Scope.Symbol(isConstant, isConstant ? Constant.buildConstantFromValues(arrayType, res) : null, alloca));
         }
     }
 
     private void visitFuncDef(Ast.FuncDef funcDef) {
+        visitFuncBody(funcDef, declareFunc(funcDef));
+    }
+
+    private Function declareFunc(Ast.FuncDef funcDef) {
         String name = funcDef.getIdent().getText();
         Type retType;
         if (funcDef.getReturnType().getIRType().isVoidType()) {
@@ -248,8 +320,13 @@ public class Visitor {
         FunctionType functionType = new FunctionType(retType, paramTypes);
         Function function = new Function(name, functionType, params, false, m);
         scope.put(name, function);
+        return function;
+    }
+
+    private void visitFuncBody(Ast.FuncDef funcDef, Function function) {
+        FunctionType functionType = (FunctionType) function.getType();
         BasicBlock thisBasicBlock = curBB;
-        curBB = new BasicBlock(name + "function" + (++m.basicBlockIdx), function);
+        curBB = new BasicBlock(function.getName() + "function" + nextBlockIdx(), function);
         curFunc = function;
         scope.push();
         for (int i = 0; i < functionType.getParamLength(); ++i) {
@@ -297,9 +374,9 @@ public class Visitor {
                 dims.add(((ConstantInt) visitExp(exp, true)).getValue());
             }
             for (int i = dims.size() - 1; i >= 0; --i) {
-                type = new ArrayType(type, dims.get(i));
+                type = ArrayType.get(type, dims.get(i));
             }
-            type = new PointerType(type);
+            type = PointerType.get(type);
         }
         return new Function.Param(type, name);
     }
@@ -341,14 +418,17 @@ public class Visitor {
     }
 
     private Value visitLVal(Ast.LVal lVal, boolean returnValue, boolean allConst) {
-        String ident = lVal.getIdent().getText();
-        Scope.Symbol symbol = scope.find(ident);
+        return visitLVal(lVal.getIdent(), lVal.getExps(), returnValue, allConst);
+    }
+
+    private Value visitLVal(Lexer.Token ident, ArrayList<Ast.Exp> exps, boolean returnValue, boolean allConst) {
+        Scope.Symbol symbol = scope.find(ident.getId());
         Value pointer = symbol.getValue();
         PointerType pointerType = (PointerType) pointer.getType();
         if (allConst) {
             assert symbol.isConstant();
             Constant init = symbol.getInit();
-            for (Ast.Exp exp : lVal.getExps()) {
+            for (Ast.Exp exp : exps) {
                 int index = ((ConstantInt) visitExp(exp, true)).getValue();
                 init = ((ConstantArray) init).getValue(index);
             }
@@ -356,7 +436,7 @@ public class Visitor {
         }
         if (pointer instanceof Function.Param) {
             ArrayList<Value> indices = new ArrayList<>();
-            for (Ast.Exp exp : lVal.getExps()) {
+            for (Ast.Exp exp : exps) {
                 indices.add(visitExp(exp, false));
             }
             if (!indices.isEmpty()) {
@@ -382,7 +462,7 @@ public class Visitor {
             }
         } else {
             if (pointerType.getPointTo().isArrayType()) {
-                 for (Ast.Exp exp : lVal.getExps()) {
+                 for (Ast.Exp exp : exps) {
                      Value index = visitExp(exp, false);
                      pointer = new GEP(pointer, new ArrayList<Value>() {{
                          add(CONST0);
@@ -390,8 +470,8 @@ public class Visitor {
                      }}, curBB);
                  }
             } else if (pointerType.getPointTo().isPointerType()) {
-                for (int i = 0; i < lVal.getExps().size(); ++i) {
-                    Value index = visitExp(lVal.getExps().get(i), false);
+                for (int i = 0; i < exps.size(); ++i) {
+                    Value index = visitExp(exps.get(i), false);
                     if (i == 0) {
                         pointer = new Load(pointer, curBB);
                         pointer = new GEP(pointer, new ArrayList<Value>() {{
@@ -449,15 +529,19 @@ public class Visitor {
     }
 
     private ConstantInt visitNumber(Ast.Number number) {
-        if (number.getToken().getText().equals("2147483648")) {
-            return new ConstantInt(-2147483648);
+        return visitNumber(number.getToken());
+    }
+
+    private ConstantInt visitNumber(Lexer.Token token) {
+        if (token.getText().equals("2147483648")) {
+            return ConstantInt.get(-2147483648);
         } else {
-            return new ConstantInt(number.getVal());
+            return ConstantInt.get(Integer.parseInt(token.getText()));
         }
     }
 
     private Value visitCallee(Ast.Callee callee) {
-        Function function = scope.getFunc(callee.getIdent().getText());
+        Function function = scope.getFunc(callee.getIdent().getId());
         ArrayList<Value> args = new ArrayList<>();
         for (int i = 0; i < callee.getFuncRParams().size(); ++i) {
             Ast.FuncRParam funcRParam = callee.getFuncRParams().get(i);
@@ -487,8 +571,17 @@ public class Visitor {
     private int formatStringCnt = 0;
 
     private Value visitFormatString(Ast.FormatString string) {
-        String content = string.getContext().getText();
+        return visitFormatString(string.getContext());
+    }
+
+    private Value visitFormatString(Lexer.Token string) {
+        String content = string.getText();
         ConstantString cs = new ConstantString(content);
+        if (worker) {
+            GlobalVariable gv = new GlobalVariable("FormatString", cs.getType(), cs, true);
+            formatStrings.add(gv);
+            return gv;
+        }
         String gvName = "FormatString" + ++formatStringCnt;
         GlobalVariable gv = new GlobalVariable(gvName, cs.getType(), cs, true);
         scope.putGlobal(gvName, new Scope.Symbol(true, cs, gv));
@@ -498,7 +591,7 @@ public class Visitor {
 
     private boolean visitAssign(Ast.AssignStmt assign) {
         Ast.LVal lVal = assign.getLVal();
-        Scope.Symbol lValSymbol = scope.find(lVal.getIdent().getText());
+        Scope.Symbol lValSymbol = scope.find(lVal.getIdent().getId());
         Value lValPointer = visitLVal(lVal, false, false);
         Value rVal = visitExp(assign.getExp(), false);
         if (lValSymbol != null) {
@@ -523,11 +616,11 @@ public class Visitor {
     }
 
     private boolean visitIfStmt(Ast.IfStmt ifStmt) {
-        BasicBlock trueBB = new BasicBlock("true" + (++m.basicBlockIdx), curFunc);
-        BasicBlock nextBB = new BasicBlock("next" + (++m.basicBlockIdx), curFunc);
+        BasicBlock trueBB = new BasicBlock("true" + nextBlockIdx(), curFunc);
+        BasicBlock nextBB = new BasicBlock("next" + nextBlockIdx(), curFunc);
         BasicBlock falseBB = nextBB;
         if (ifStmt.getFalseStmt() != null) {
-            falseBB = new BasicBlock("false" + (++m.basicBlockIdx), curFunc);
+            falseBB = new BasicBlock("false" + nextBlockIdx(), curFunc);
         }
         visitLOrExp(ifStmt.getCond(), trueBB, falseBB);
         trueBB.node.removeSelf();
@@ -562,9 +655,9 @@ public class Visitor {
 
     private boolean visitWhile(Ast.WhileStmt stmt) {
         BasicBlock enterBB = curBB;
-        BasicBlock condBB = new BasicBlock("cond" + (++m.basicBlockIdx), curFunc);
-        BasicBlock whileBB = new BasicBlock("whileBody" + (++m.basicBlockIdx), curFunc);
-        BasicBlock nxtBB = new BasicBlock("afterWhile" + (++m.basicBlockIdx), curFunc);
+        BasicBlock condBB = new BasicBlock("cond" + nextBlockIdx(), curFunc);
+        BasicBlock whileBB = new BasicBlock("whileBody" + nextBlockIdx(), curFunc);
+        BasicBlock nxtBB = new BasicBlock("afterWhile" + nextBlockIdx(), curFunc);
         new Br(condBB, enterBB);
         curBB = condBB;
         visitLOrExp(stmt.getCond(), whileBB, nxtBB);
@@ -656,8 +749,12 @@ public class Visitor {
     }
 
     private void visitLOrExp(Ast.LOrExp exp, BasicBlock trueBB, BasicBlock falseBB) {
+        if (exp.isFlat()) {
+            visitFlatLOrExp(exp.getPool(), exp.getRoot(), trueBB, falseBB);
+            return;
+        }
         for (int i = 0; i < exp.getExps().size() - 1; ++i) {
-            BasicBlock nxtCondBlock = new BasicBlock("LOrNext" + (++m.basicBlockIdx), curFunc);
+            BasicBlock nxtCondBlock = new BasicBlock("LOrNext" + nextBlockIdx(), curFunc);
             visitLAndExp(exp.getExps().get(i), trueBB, nxtCondBlock);
             curBB = nxtCondBlock;
         }
@@ -666,7 +763,7 @@ public class Visitor {
 
     private void visitLAndExp(Ast.LAndExp exp, BasicBlock trueBB, BasicBlock falseBB) {
         for (int i = 0; i < exp.getExps().size(); ++i) {
-            BasicBlock nxtCondBlock = new BasicBlock("LAndNext" + (++m.basicBlockIdx), curFunc);
+            BasicBlock nxtCondBlock = new BasicBlock("LAndNext" + nextBlockIdx(), curFunc);
             Value condExp = visitEqExp(exp.getExps().get(i));
             buildCondBr(condExp, nxtCondBlock, falseBB);
             curBB = nxtCondBlock;
@@ -675,9 +772,97 @@ public class Visitor {
     }
 
     private Value visitExp(Ast.Exp exp, boolean allConst) {
+        if (exp.isFlat()) {
+            return visitFlatExp(exp.getPool(), exp.getRoot(), allConst);
+        }
         return visitAddExp(exp.getExpItem(), allConst);
     }
 
+    // 紧凑形式的表达式直接在 pool 上遍历，生成的指令顺序与对象树相同
+    private void visitFlatLOrExp(Ast.ExpPool pool, int node, BasicBlock trueBB, BasicBlock falseBB) {
+        int lAnd = pool.getChild(node);
+        while (pool.getNext(lAnd) != -1) {
+            BasicBlock nxtCondBlock = new BasicBlock("LOrNext" + nextBlockIdx(), curFunc);
+            visitFlatLAndExp(pool, lAnd, trueBB, nxtCondBlock);
+            curBB = nxtCondBlock;
+            lAnd = pool.getNext(lAnd);
+        }
+        visitFlatLAndExp(pool, lAnd, trueBB, falseBB);
+    }
+
+    private void visitFlatLAndExp(Ast.ExpPool pool, int node, BasicBlock trueBB, BasicBlock falseBB) {
+        for (int c = pool.getChild(node); c != -1; c = pool.getNext(c)) {
+            BasicBlock nxtCondBlock = new BasicBlock("LAndNext" + nextBlockIdx(), curFunc);
+            Value condExp = visitFlatExp(pool, c, false);
+            buildCondBr(condExp, nxtCondBlock, falseBB);
+            curBB = nxtCondBlock;
+        }
+        new Br(trueBB, curBB);
+    }
+
+    private Value visitFlatExp(Ast.ExpPool pool, int node, boolean allConst) {
+        switch (pool.getKind(node)) {
+            case Ast.ExpPool.NUMBER:
+                return visitNumber(pool.getToken(node));
+            case Ast.ExpPool.CONST:
+                return ConstantInt.get(pool.getValue(node));
+            case Ast.ExpPool.PAREN:
+                return visitFlatExp(pool, pool.getChild(node), allConst);
+            case Ast.ExpPool.LVAL: {
+                ArrayList<Ast.Exp> exps = new ArrayList<>();
+                for (int c = pool.getChild(node); c != -1; c = pool.getNext(c)) {
+                    exps.add(new Ast.Exp(pool, c));
+                }
+                return visitLVal(pool.getToken(node), exps, true, allConst);
+            }
+            case Ast.ExpPool.CALL: {
+                Function function = scope.getFunc(pool.getToken(node).getId());
+                ArrayList<Value> args = new ArrayList<>();
+                for (int c = pool.getChild(node); c != -1; c = pool.getNext(c)) {
+                    if (pool.getKind(c) == Ast.ExpPool.STRING) {
+                        args.add(visitFormatString(pool.getToken(c)));
+                    } else {
+                        args.add(visitFlatExp(pool, c, false));
+                    }
+                }
+                return new Call(function, args, curBB);
+            }
+            case Ast.ExpPool.UNARY: {
+                Lexer.Token.TokenType op = pool.getTokenType(node);
+                if (allConst) {
+                    ConstantInt val = (ConstantInt) visitFlatExp(pool, pool.getChild(node), true);
+                    return op == Lexer.Token.TokenType.Minu ? val.neg() : val;
+                }
+                if (op == Lexer.Token.TokenType.Not) {
+                    // 连续的 '!' 合并成一次比较
+                    int cnt = 0;
+                    while (pool.getKind(node) == Ast.ExpPool.UNARY && pool.getTokenType(node) == Lexer.Token.TokenType.Not) {
+                        ++cnt;
+                        node = pool.getChild(node);
+                    }
+                    Value val = visitFlatExp(pool, node, false);
+                    return buildBinaryInst(cnt % 2 == 0 ? InstrTag.Ne : InstrTag.Eq, CONST0, val);
+                }
+                Value val = visitFlatExp(pool, pool.getChild(node), false);
+                return op == Lexer.Token.TokenType.Minu ? buildBinaryInst(InstrTag.Sub, CONST0, val) : val;
+            }
+            case Ast.ExpPool.BINARY: {
+                InstrTag tag = pool.getTokenType(node).getTag();
+                int lhs = pool.getChild(node);
+                if (allConst) {
+                    Constant l = (Constant) visitFlatExp(pool, lhs, true);
+                    Constant r = (Constant) visitFlatExp(pool, pool.getNext(lhs), true);
+                    return BinaryInst.calcBinary(tag, l, r);
+                }
+                Value l = visitFlatExp(pool, lhs, false);
+                Value r = visitFlatExp(pool, pool.getNext(lhs), false);
+                return buildBinaryInst(tag, l, r);
+            }
+            default:
+                throw new RuntimeException("unexpected exp node " + pool.getKind(node));
+        }
+    }
+
     private Value visitUnaryExp(Ast.UnaryExp exp, boolean allConst) {
         if (allConst) {
             ConstantInt val = (ConstantInt) visitPrimaryExp(exp.getPrimaryExp(), true);
@@ -764,78 +949,4 @@ public class Visitor {
             return cur;
         }
     }
-
-    public static class Scope {
-        private final ArrayList<HashMap<String, Symbol>> tables;
-
-        Scope() {
-            this.tables = new ArrayList<>();
-            tables.add(new HashMap<>());
-        }
-
-        public HashMap<String, Symbol> top() {
-            return tables.get(tables.size() - 1);
-        }
-
-        public void push() {
-            tables.add(new HashMap<>());
-        }
-
-        public void pop() {
-            tables.remove(tables.size() - 1);
-        }
-
-        public boolean isGlobal() {
-            return this.tables.size() == 1;
-        }
-
-        public Symbol find(String name) {
-            for (int i = tables.size() - 1; i >= 0; i--) {
-                Symbol t = tables.get(i).get(name);
-                if (t != null) return t;
-            }
-            return null;
-        }
-
-        public void put(String name, Symbol v) {
-            top().put(name, v);
-        }
-
-        public Function getFunc(String name) {
-            return (Function) find(name).getValue();
-        }
-
-        public void put(String name, Function f) {
-            assert isGlobal();
-            top().put(name, new Symbol(false, null, f));
-        }
-
-        public void putGlobal(String name, Symbol v) {
-            tables.get(0).put(name, v);
-        }
-
-        private static class Symbol {
-            private final boolean isConstant;
-            private final Constant init;
-            private final Value value;
-
-            public Symbol(boolean isConstant, Constant init, Value value) {
-                this.isConstant = isConstant;
-                this.init = init;
-                this.value = value;
-            }
-
-            public boolean isConstant() {
-                return isConstant;
-            }
-
-            public Constant getInit() {
-                return init;
-            }
-
-            public Value getValue() {
-                return value;
-            }
-        }
-    }
 }
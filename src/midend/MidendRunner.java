@@ -1,55 +1,67 @@
 package midend;
 
-import midend.analysis.LoopInfoAnalysis;
+import midend.analysis.AnalysisManager;
+import midend.analysis.AnalysisManager.Analysis;
 import midend.ir.IRValidator;
 import midend.ir.Module;
-import midend.analysis.BBPredSuccAnalysis;
-import midend.analysis.DominanceAnalysis;
-import midend.analysis.InterproceduralAnalysis;
 import midend.pass.*;
 import utils.Config;
 import utils.Logger;
+import utils.PhaseStats;
+
+import java.util.EnumSet;
 
 public class MidendRunner {
+    private Module m;
+    private AnalysisManager analyses;
+
     public void run(Module m) {
-        new BBPredSuccAnalysis().run(m);
+        this.m = m;
+        analyses = new AnalysisManager(m);
+        // IRValidator 检查调用图与代码一致，一开始就要算好
+        analyses.require(EnumSet.of(Analysis.PRED_SUCC, Analysis.INTERPROCEDURAL));
         if (!Config.submit) Logger.logLLVM("visitor");
-        new DominanceAnalysis().run(m);
-        new InterproceduralAnalysis().run(m);
-        new Mem2Reg().run(m);
+        pass("mem2reg", new Mem2Reg());
         if (!Config.submit) Logger.logLLVM("mem2reg");
         assert Config.submit || new IRValidator().run(m);
-        new FunctionInline().run(m);
-        new BranchOptimization().run(m);
+        pass("function_inline", new FunctionInline());
+        pass("branch_optimization", new BranchOptimization());
         if (!Config.submit) Logger.logLLVM("function_inline");
         assert Config.submit || new IRValidator().run(m);
         GVN_GCM();
-        new LoadStoreInBlock().run(m);
-        new InstructionCombination().run(m);
+        pass("load_store_in_block", new LoadStoreInBlock());
+        pass("instruction_combination", new InstructionCombination());
         if (!Config.submit) Logger.logLLVM("load_store_in_block");
         GVN_GCM();
-        new DeadCodeElimination().run(m);
+        pass("dce", new DeadCodeElimination());
         if (!Config.submit) Logger.logLLVM("dce");
         assert Config.submit || new IRValidator().run(m);
-        new StrengthReduction().run(m);
+        pass("strength_reduction", new StrengthReduction());
         if (!Config.submit) Logger.logLLVM("strength_reduction");
         assert Config.submit || new IRValidator().run(m);
-        new PhiElimination().run(m);
+        pass("phi_elimination", new PhiElimination());
         if (!Config.submit) Logger.logLLVM("phi_elimination");
     }
 
-    static int gvn_gcm_count = 0;
+    private int gvn_gcm_count = 0;
 
     private void GVN_GCM() {
         // System.out.println("gvn gcm");
-        new LoopInfoAnalysis().run(Module.module);
-        new DominanceAnalysis().run(Module.module);
-        new GVN().run(Module.module);
-        new GCM().run(Module.module);
-        new BranchOptimization().run(Module.module);
-        new InterproceduralAnalysis().run(Module.module);
-        assert Config.submit || new IRValidator().run(Module.module);
+        PhaseStats.Phase phase = PhaseStats.begin("gvn_gcm" + (gvn_gcm_count + 1), m::getInstrCount);
+        pass("gvn", new GVN());
+        pass("gcm", new GCM());
+        pass("branch_optimization", new BranchOptimization(true));
+        // 分支优化可能删掉调用，IRValidator 检查调用图前要重算
+        analyses.require(EnumSet.of(Analysis.INTERPROCEDURAL));
+        phase.end();
+        assert Config.submit || new IRValidator().run(m);
         if (!Config.submit) Logger.logLLVM("gvn_gcm" + ++gvn_gcm_count);
         // System.out.println("gvn gcm done");
     }
+
+    // 先补算 pass 需要的分析（各自单独计时），再跑 pass 并记下耗时、分配和指令数的变化
+    private void pass(String name, Pass pass) {
+        analyses.require(pass.required());
+        PhaseStats.time(name, m::getInstrCount, () -> analyses.run(pass));
+    }
 }
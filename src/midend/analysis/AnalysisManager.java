@@ -0,0 +1,145 @@
+package midend.analysis;
+
+import midend.ir.Function;
+import midend.ir.Module;
+import midend.pass.FunctionPass;
+import midend.pass.Pass;
+import utils.IList;
+import utils.PhaseStats;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+
+// 分析结果直接挂在 IR 上，这里只记录每个函数哪些分析还是最新的
+// pass 运行前按 required() 补算失效的分析，报告改动后按 preserved() 让其余分析失效
+public class AnalysisManager {
+    public enum Analysis {
+        PRED_SUCC("pred_succ"),
+        DOMINANCE("dominance"),
+        LOOP_INFO("loop_info"),
+        // SSA 上的活跃性和每个块的最大寄存器压力，和指令有关，任何改动都让它失效；只在有 pass 要求时才算
+        LIVENESS("liveness"),
+        // 调用图、副作用和全局变量的读写集合，整个模块一起算
+        INTERPROCEDURAL("interprocedural");
+
+        private final String name;
+
+        Analysis(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Module m;
+    private final HashMap<Function, EnumSet<Analysis>> valid = new HashMap<>();
+    private boolean interproceduralValid = false;
+
+    public AnalysisManager(Module m) {
+        this.m = m;
+    }
+
+    public boolean run(Pass pass) {
+        require(pass.required());
+        EnumSet<Analysis> preserved = pass.preserved();
+        if (!(pass instanceof FunctionPass)) {
+            boolean changed = pass.run(m);
+            if (changed) {
+                for (Function f : functions()) {
+                    invalidate(f, preserved);
+                }
+            }
+            return changed;
+        }
+        boolean changed = false;
+        for (Function f : functions()) {
+            if (((FunctionPass) pass).run(f)) {
+                invalidate(f, preserved);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    public void require(EnumSet<Analysis> analyses) {
+        EnumSet<Analysis> needed = EnumSet.copyOf(analyses);
+        // 循环信息依赖支配树，支配树和活跃性依赖前驱后继
+        if (needed.contains(Analysis.LOOP_INFO)) {
+            needed.add(Analysis.DOMINANCE);
+        }
+        if (needed.contains(Analysis.DOMINANCE) || needed.contains(Analysis.LIVENESS)) {
+            needed.add(Analysis.PRED_SUCC);
+        }
+        for (Analysis analysis : needed) {
+            if (analysis == Analysis.INTERPROCEDURAL) {
+                if (!interproceduralValid) {
+                    PhaseStats.time(analysis.name, m::getInstrCount, () -> new InterproceduralAnalysis().run(m));
+                    interproceduralValid = true;
+                }
+                continue;
+            }
+            ArrayList<Function> stale = new ArrayList<>();
+            for (Function f : functions()) {
+                if (!validOf(f).contains(analysis)) {
+                    stale.add(f);
+                }
+            }
+            if (stale.isEmpty()) {
+                continue;
+            }
+            PhaseStats.time(analysis.name, m::getInstrCount, () -> {
+                for (Function f : stale) {
+                    compute(analysis, f);
+                    validOf(f).add(analysis);
+                }
+            });
+        }
+    }
+
+    public void invalidate(Function f, EnumSet<Analysis> preserved) {
+        EnumSet<Analysis> analyses = validOf(f);
+        analyses.retainAll(preserved);
+        analyses.remove(Analysis.LIVENESS);
+        if (!analyses.contains(Analysis.PRED_SUCC)) {
+            analyses.remove(Analysis.DOMINANCE);
+        }
+        if (!analyses.contains(Analysis.DOMINANCE)) {
+            analyses.remove(Analysis.LOOP_INFO);
+        }
+        if (!preserved.contains(Analysis.INTERPROCEDURAL)) {
+            interproceduralValid = false;
+        }
+    }
+
+    private void compute(Analysis analysis, Function f) {
+        switch (analysis) {
+            case PRED_SUCC:
+                new BBPredSuccAnalysis().run(f);
+                break;
+            case DOMINANCE:
+                new DominanceAnalysis().run(f);
+                break;
+            case LOOP_INFO:
+                new LoopInfoAnalysis().calcLoopInfo(f);
+                break;
+            case LIVENESS:
+                new SSALivenessAnalysis().run(f);
+                break;
+            default:
+                throw new RuntimeException("analysis " + analysis + " is not per function");
+        }
+    }
+
+    private EnumSet<Analysis> validOf(Function f) {
+        return valid.computeIfAbsent(f, k -> EnumSet.noneOf(Analysis.class));
+    }
+
+    private ArrayList<Function> functions() {
+        ArrayList<Function> res = new ArrayList<>();
+        for (IList.INode<Function, Module> fNode : m.functionList) {
+            if (!fNode.getValue().isBuiltin()) {
+                res.add(fNode.getValue());
+            }
+        }
+        return res;
+    }
+}
@@ -15,7 +15,7 @@ public class BBPredSuccAnalysis {
         }
     }
 
-    private void run(Function f) {
+    public void run(Function f) {
         for (IList.INode<BasicBlock, Function> bNode : f.getList()) {
             bNode.getValue().getPredecessors().clear();
             bNode.getValue().getSuccessors().clear();
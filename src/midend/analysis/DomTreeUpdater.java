@@ -0,0 +1,253 @@
+package midend.analysis;
+
+import midend.ir.BasicBlock;
+import midend.ir.Function;
+import utils.Config;
+import utils.IList;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+
+// 修改 CFG 的 pass 用它就地维护支配树，不必之后整个函数重算（做法同 Dynamic SNCA）
+// 每改一条边就立刻调用 insertEdge/deleteEdge，此时块的前驱后继表必须已经反映这次修改；idom、支配树孩子和深度随即更新
+// 一批修改之后调用 flush()，重算先序/后序时间戳和支配边界
+// 边让不可达的块变得可达等难以局部处理的情况，flush 时整个函数重算
+// 局部更新累计访问的块数超过函数块数的若干倍时也改为整体重算，不比重算一次更慢
+public class DomTreeUpdater {
+    private final Function func;
+    private final BasicBlock entry;
+    private final DominanceAnalysis analysis = new DominanceAnalysis();
+    private boolean changed = false;
+    private boolean rebuild = false;
+    private int work = 0;
+    private final int workLimit;
+
+    // 要求 func 的支配信息是最新的
+    public DomTreeUpdater(Function func) {
+        this.func = func;
+        this.entry = func.getList().getEntry().getValue();
+        this.workLimit = 4 * func.getNumBlocks();
+    }
+
+    // 加边 from -> to：深度大于 NCA(from, to) + 1、且能从 to 经不比自己浅的块到达的块，idom 都变成 NCA(from, to)
+    public void insertEdge(BasicBlock from, BasicBlock to) {
+        if (rebuild || !from.inDominatorTree()) {
+            return;
+        }
+        changed = true;
+        if (!to.inDominatorTree()) {
+            rebuild = true;
+            return;
+        }
+        BasicBlock nca = nca(from, to);
+        if (nca == to || nca == to.getIdominator()) {
+            return;
+        }
+        int ncaLevel = nca.getDominanceLevel();
+        // 候选块按深度从深到浅处理
+        PriorityQueue<BasicBlock> bucket = new PriorityQueue<>(16,
+                (a, b) -> Integer.compare(b.getDominanceLevel(), a.getDominanceLevel()));
+        HashSet<BasicBlock> visited = new HashSet<>();
+        ArrayList<BasicBlock> affected = new ArrayList<>();
+        ArrayList<BasicBlock> stack = new ArrayList<>();
+        bucket.add(to);
+        visited.add(to);
+        while (!bucket.isEmpty()) {
+            BasicBlock bb = bucket.poll();
+            affected.add(bb);
+            int level = bb.getDominanceLevel();
+            stack.add(bb);
+            while (!stack.isEmpty()) {
+                BasicBlock cur = stack.remove(stack.size() - 1);
+                for (BasicBlock succ : cur.getSuccessors()) {
+                    int succLevel = succ.getDominanceLevel();
+                    if (!succ.inDominatorTree() || succLevel <= ncaLevel + 1 || !visited.add(succ)) {
+                        continue;
+                    }
+                    // 比当前块深的只是经过，不受影响
+                    if (succLevel > level) {
+                        stack.add(succ);
+                    } else {
+                        bucket.add(succ);
+                    }
+                }
+            }
+        }
+        for (BasicBlock bb : affected) {
+            bb.getIdominator().getIdominateds().remove(bb);
+            bb.setIdominator(nca);
+            nca.getIdominateds().add(bb);
+        }
+        for (BasicBlock bb : affected) {
+            updateLevels(bb, ncaLevel + 1);
+        }
+        addWork(visited.size());
+    }
+
+    public void deleteEdge(BasicBlock from, BasicBlock to) {
+        if (rebuild || !from.inDominatorTree() || !to.inDominatorTree()) {
+            return;
+        }
+        changed = true;
+        BasicBlock nca = nca(from, to);
+        // to 支配 from，删的是回边，支配关系不变
+        if (nca == to) {
+            return;
+        }
+        if (from != to.getIdominator() || hasProperSupport(to)) {
+            // to 仍然可达，只有 NCA(from, to) 的子树可能变化
+            rebuildSubtree(nca);
+        } else {
+            deleteUnreachable(to);
+        }
+    }
+
+    public void flush() {
+        if (rebuild) {
+            analysis.run(func);
+        } else if (changed) {
+            func.renumber();
+            BitSet reachable = new BitSet(func.getNumBlocks());
+            for (IList.INode<BasicBlock, Function> bNode : func.getList()) {
+                BasicBlock bb = bNode.getValue();
+                if (bb.inDominatorTree()) {
+                    reachable.set(bb.getIndex());
+                }
+            }
+            analysis.buildDominatorTree(func, reachable);
+            assert Config.submit || matchesFullAnalysis();
+        }
+        changed = false;
+        rebuild = false;
+        work = 0;
+    }
+
+    // 还有不被 to 支配的可达前驱，删边后 to 仍可达
+    private boolean hasProperSupport(BasicBlock to) {
+        for (BasicBlock pred : to.getPredecessors()) {
+            if (pred.inDominatorTree() && nca(pred, to) != to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // to 变得不可达：删掉它的支配子树，子树外的后继可能换 idom，在覆盖它们的最小子树里重算
+    private void deleteUnreachable(BasicBlock to) {
+        int level = to.getDominanceLevel();
+        ArrayList<BasicBlock> subtree = new ArrayList<>();
+        ArrayList<BasicBlock> outside = new ArrayList<>();
+        HashSet<BasicBlock> visited = new HashSet<>();
+        subtree.add(to);
+        visited.add(to);
+        for (int i = 0; i < subtree.size(); ++i) {
+            for (BasicBlock succ : subtree.get(i).getSuccessors()) {
+                if (!succ.inDominatorTree() || !visited.add(succ)) {
+                    continue;
+                }
+                if (succ.getDominanceLevel() > level) {
+                    subtree.add(succ);
+                } else {
+                    outside.add(succ);
+                }
+            }
+        }
+        BasicBlock minNode = to;
+        for (BasicBlock bb : outside) {
+            BasicBlock nca = nca(bb, to);
+            if (nca != bb && nca.getDominanceLevel() < minNode.getDominanceLevel()) {
+                minNode = nca;
+            }
+        }
+        addWork(subtree.size());
+        if (rebuild || minNode == entry) {
+            rebuild = true;
+            return;
+        }
+        to.getIdominator().getIdominateds().remove(to);
+        for (BasicBlock bb : subtree) {
+            bb.getIdominateds().clear();
+            bb.setDominanceOrder(-1, -1);
+        }
+        if (minNode != to) {
+            rebuildSubtree(minNode);
+        }
+    }
+
+    // 在 root 的子树里重新求 idom；root 是入口时就是整个函数重算
+    private void rebuildSubtree(BasicBlock root) {
+        if (root == entry) {
+            rebuild = true;
+            return;
+        }
+        ArrayList<BasicBlock> subtree = analysis.runOnSubtree(func, root);
+        for (BasicBlock bb : subtree) {
+            bb.getIdominateds().clear();
+        }
+        for (int i = 1; i < subtree.size(); ++i) {
+            BasicBlock bb = subtree.get(i);
+            bb.getIdominator().getIdominateds().add(bb);
+        }
+        updateLevels(root, root.getDominanceLevel());
+        addWork(subtree.size());
+    }
+
+    private void addWork(int blocks) {
+        work += blocks;
+        if (work > workLimit) {
+            rebuild = true;
+        }
+    }
+
+    private void updateLevels(BasicBlock root, int level) {
+        root.setDominanceLevel(level);
+        ArrayList<BasicBlock> stack = new ArrayList<>();
+        stack.add(root);
+        while (!stack.isEmpty()) {
+            BasicBlock bb = stack.remove(stack.size() - 1);
+            for (BasicBlock child : bb.getIdominateds()) {
+                child.setDominanceLevel(bb.getDominanceLevel() + 1);
+                stack.add(child);
+            }
+        }
+    }
+
+    private static BasicBlock nca(BasicBlock a, BasicBlock b) {
+        while (a.getDominanceLevel() > b.getDominanceLevel()) {
+            a = a.getIdominator();
+        }
+        while (b.getDominanceLevel() > a.getDominanceLevel()) {
+            b = b.getIdominator();
+        }
+        while (a != b) {
+            a = a.getIdominator();
+            b = b.getIdominator();
+        }
+        return a;
+    }
+
+    // 调试用：和整个函数重算的结果比较 idom 和深度
+    private boolean matchesFullAnalysis() {
+        ArrayList<BasicBlock> idoms = new ArrayList<>();
+        ArrayList<Integer> levels = new ArrayList<>();
+        for (IList.INode<BasicBlock, Function> bNode : func.getList()) {
+            BasicBlock bb = bNode.getValue();
+            idoms.add(bb.inDominatorTree() ? bb.getIdominator() : null);
+            levels.add(bb.inDominatorTree() ? bb.getDominanceLevel() : -1);
+        }
+        new DominanceAnalysis().run(func);
+        int i = 0;
+        for (IList.INode<BasicBlock, Function> bNode : func.getList()) {
+            BasicBlock bb = bNode.getValue();
+            BasicBlock idom = bb.inDominatorTree() ? bb.getIdominator() : null;
+            int level = bb.inDominatorTree() ? bb.getDominanceLevel() : -1;
+            if (bb != entry && (idom != idoms.get(i) || level != levels.get(i))) {
+                throw new RuntimeException("dominator tree out of date at " + bb.getName() + " in " + func.getName());
+            }
+            ++i;
+        }
+        return true;
+    }
+}
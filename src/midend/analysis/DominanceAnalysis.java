@@ -5,8 +5,9 @@ import midend.ir.Function;
 import midend.ir.Module;
 import utils.IList;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 
 public class DominanceAnalysis {
     public void run(Module m) {
@@ -18,145 +19,277 @@ public class DominanceAnalysis {
         }
     }
 
-    private final HashMap<BasicBlock, HashSet<BasicBlock>> g = new HashMap<>();
-    private final HashMap<BasicBlock, HashSet<BasicBlock>> rg = new HashMap<>();
-    private final HashMap<BasicBlock, HashSet<BasicBlock>> s = new HashMap<>();
-    private final HashMap<BasicBlock, BasicBlock> semi = new HashMap<>();
-    private final HashMap<BasicBlock, Integer> dfn = new HashMap<>();
-    private final HashMap<Integer, BasicBlock> id = new HashMap<>();
-    private final HashMap<BasicBlock, BasicBlock> fa = new HashMap<>();
-    private final HashMap<BasicBlock, BasicBlock> f = new HashMap<>();
-    private final HashMap<BasicBlock, BasicBlock> val = new HashMap<>();
+    // 以下数组都以基本块的稠密编号为下标（见 Function.renumber），dfn 为 0 表示不可达
+    private BasicBlock[] blocks;
+    private int[][] rg;
+    private int[] rgSize;
+    private int[][] s;
+    private int[] sSize;
+    private int[] semi;
+    private int[] dfn;
+    private int[] id;
+    private int[] fa;
+    private int[] f;
+    private int[] val;
+    // dfs 和 find 的显式栈，长条的 if-else 链不会让递归爆栈
+    private int[] stack;
+    private int[] edge;
     private int tot = 0;
 
-    private void init() {
-        g.clear();
-        rg.clear();
-        s.clear();
-        semi.clear();
-        dfn.clear();
-        id.clear();
-        fa.clear();
+    private void init(int n) {
+        blocks = new BasicBlock[n];
+        rg = new int[n][];
+        rgSize = new int[n];
+        s = new int[n][];
+        sSize = new int[n];
+        semi = new int[n];
+        dfn = new int[n];
+        id = new int[n + 1];
+        fa = new int[n];
+        f = new int[n];
+        val = new int[n];
+        stack = new int[n];
+        edge = new int[n];
         tot = 0;
-        f.clear();
-        val.clear();
     }
 
-    BasicBlock find(BasicBlock x) {
-        if (x.equals(f.get(x))) {
-            return x;
+    private static int[] append(int[] arr, int size, int x) {
+        if (arr == null) {
+            arr = new int[4];
+        } else if (size == arr.length) {
+            arr = Arrays.copyOf(arr, size * 2);
         }
-        BasicBlock anc = find(f.get(x));
-        if (dfn.get(semi.get(val.get(f.get(x)))) < dfn.get(semi.get(val.get(x)))) {
-            val.put(x, val.get(f.get(x)));
+        arr[size] = x;
+        return arr;
+    }
+
+    // 带路径压缩的并查集查询：先把到根的路径压栈，再从靠近根的一端往回更新 val 和 f
+    int find(int x) {
+        int top = 0;
+        while (f[x] != x) {
+            stack[top++] = x;
+            x = f[x];
+        }
+        int anc = x;
+        while (top > 0) {
+            int y = stack[--top];
+            if (dfn[semi[val[f[y]]]] < dfn[semi[val[y]]]) {
+                val[y] = val[f[y]];
+            }
+            f[y] = anc;
         }
-        f.put(x, anc);
         return anc;
     }
 
-    private void dfs(BasicBlock k) {
-        dfn.put(k, ++tot);
-        id.put(tot, k);
-        for (BasicBlock v : k.getSuccessors()) {
-            if (dfn.containsKey(v)) {
+    // minLevel >= 0 时只进入支配树中深度大于 minLevel 的块，用于只重算一棵子树
+    private void dfs(int root, int minLevel) {
+        int top = 0;
+        dfn[root] = ++tot;
+        id[tot] = root;
+        stack[top] = root;
+        edge[top++] = 0;
+        while (top > 0) {
+            int k = stack[top - 1];
+            ArrayList<BasicBlock> succs = blocks[k].getSuccessors();
+            if (edge[top - 1] == succs.size()) {
+                --top;
                 continue;
             }
-            fa.put(v, k);
-            dfs(v);
+            BasicBlock succ = succs.get(edge[top - 1]++);
+            int v = succ.getIndex();
+            if (dfn[v] != 0 || minLevel >= 0 && (!succ.inDominatorTree() || succ.getDominanceLevel() <= minLevel)) {
+                continue;
+            }
+            blocks[v] = succ;
+            fa[v] = k;
+            dfn[v] = ++tot;
+            id[tot] = v;
+            stack[top] = v;
+            edge[top++] = 0;
         }
     }
 
     void tarjan() {
         int n = tot;
         for (int p = n; p > 1; --p) {
-            BasicBlock k = id.get(p);
-            for (BasicBlock v : rg.getOrDefault(k, new HashSet<>())) {
-                if (!dfn.containsKey(v)) {
+            int k = id[p];
+            for (int i = 0; i < rgSize[k]; ++i) {
+                int v = rg[k][i];
+                if (dfn[v] == 0) {
                     continue;
                 }
                 find(v);
-                if (dfn.get(semi.get(val.get(v))) < dfn.get(semi.get(k))) {
-                    semi.put(k, semi.get(val.get(v)));
+                if (dfn[semi[val[v]]] < dfn[semi[k]]) {
+                    semi[k] = semi[val[v]];
                 }
             }
-            if (!s.containsKey(semi.get(k))) {
-                s.put(semi.get(k), new HashSet<>());
-            }
-            s.get(semi.get(k)).add(k);
-            f.put(k, fa.get(k));
-            k = fa.get(k);
-            for (BasicBlock v : s.getOrDefault(k, new HashSet<>())) {
+            s[semi[k]] = append(s[semi[k]], sSize[semi[k]]++, k);
+            f[k] = fa[k];
+            k = fa[k];
+            for (int i = 0; i < sSize[k]; ++i) {
+                int v = s[k][i];
                 find(v);
-                if (semi.get(val.get(v)).equals(k)) {
-                    v.setIdominator(k);
+                if (semi[val[v]] == k) {
+                    blocks[v].setIdominator(blocks[k]);
                 } else {
-                    v.setIdominator(val.get(v));
+                    blocks[v].setIdominator(blocks[val[v]]);
                 }
             }
+            // 桶里的点已经处理完，清空以免之后重复处理
+            sSize[k] = 0;
         }
         for (int p = 2; p <= n; ++p) {
-            BasicBlock k = id.get(p);
-            if (!k.getIdominator().equals(semi.get(k))) {
+            BasicBlock k = blocks[id[p]];
+            if (!k.getIdominator().equals(blocks[semi[id[p]]])) {
                 k.setIdominator(k.getIdominator().getIdominator());
             }
         }
     }
 
     public void run(Function func) {
-        init();
+        prepare(func);
+        dfs(func.getList().getEntry().getValue().getIndex(), -1);
+        tarjan();
+        BitSet reachable = new BitSet(blocks.length);
+        for (int p = 1; p <= tot; ++p) {
+            reachable.set(id[p]);
+        }
+        buildDominatorTree(func, reachable);
+    }
+
+    // 只重算 root 的支配子树中各块的 idom，root 本身的 idom 和深度不变，返回按 dfs 序的子树（root 在最前）
+    // 要求删边前的深度仍有效：子树里的块深度都大于 root，子树外的后继深度都不超过 root
+    // 删边多时会反复调用，只为子树里的块建反图，数组够大就复用
+    ArrayList<BasicBlock> runOnSubtree(Function func, BasicBlock root) {
+        func.renumber();
+        int n = func.getNumBlocks();
+        if (blocks == null || blocks.length < n) {
+            init(n);
+        }
+        Arrays.fill(dfn, 0);
+        tot = 0;
+        blocks[root.getIndex()] = root;
+        dfs(root.getIndex(), root.getDominanceLevel());
+        for (int p = 1; p <= tot; ++p) {
+            int k = id[p];
+            rgSize[k] = 0;
+            sSize[k] = 0;
+            for (BasicBlock pred : blocks[k].getPredecessors()) {
+                int v = pred.getIndex();
+                // 子树外的前驱 tarjan 用不到
+                if (v >= n || dfn[v] == 0 || blocks[v] != pred) {
+                    continue;
+                }
+                boolean dup = false;
+                for (int i = 0; i < rgSize[k] && !dup; ++i) {
+                    dup = rg[k][i] == v;
+                }
+                if (!dup) {
+                    rg[k] = append(rg[k], rgSize[k]++, v);
+                }
+            }
+            semi[k] = k;
+            f[k] = k;
+            val[k] = k;
+        }
+        tarjan();
+        ArrayList<BasicBlock> subtree = new ArrayList<>(tot);
+        for (int p = 1; p <= tot; ++p) {
+            subtree.add(blocks[id[p]]);
+        }
+        return subtree;
+    }
+
+    private void prepare(Function func) {
+        func.renumber();
+        init(func.getNumBlocks());
         for (IList.INode<BasicBlock, Function> bNode : func.getList()) {
             BasicBlock bb = bNode.getValue();
-            g.put(bb, new HashSet<>());
-            rg.put(bb, new HashSet<>());
+            blocks[bb.getIndex()] = bb;
         }
         for (IList.INode<BasicBlock, Function> bNode : func.getList()) {
             BasicBlock bb = bNode.getValue();
+            int k = bb.getIndex();
             for (BasicBlock succ : bb.getSuccessors()) {
-                g.get(bb).add(succ);
-                rg.get(succ).add(bb);
+                int v = succ.getIndex();
+                // 原来用集合存反图，重边只记一次
+                boolean dup = false;
+                for (int i = 0; i < rgSize[v] && !dup; ++i) {
+                    dup = rg[v][i] == k;
+                }
+                if (!dup) {
+                    rg[v] = append(rg[v], rgSize[v]++, k);
+                }
             }
-            semi.put(bb, bb);
-            f.put(bb, bb);
-            val.put(bb, bb);
+            semi[k] = k;
+            f[k] = k;
+            val[k] = k;
+        }
+    }
+
+    // 由各可达块的 idom 重建支配树的孩子（按块的链表顺序）、支配边界、深度和先序/后序时间戳
+    // reachable 以块编号为下标，调用前块编号必须是最新的
+    void buildDominatorTree(Function func, BitSet reachable) {
+        if (blocks == null || blocks.length != func.getNumBlocks()) {
+            init(func.getNumBlocks());
         }
-        dfs(func.getList().getEntry().getValue());
-        tarjan();
         for (IList.INode<BasicBlock, Function> bNode : func.getList()) {
             BasicBlock bb = bNode.getValue();
-            for (BasicBlock pred : bb.getPredecessors()) {
-                BasicBlock anc = pred;
-                while (anc != bb.getIdominator()) {
-                    anc.getDominanceFrontier().add(bb);
-                    anc = anc.getIdominator();
-                }
-            }
+            blocks[bb.getIndex()] = bb;
         }
+        BasicBlock entry = func.getList().getEntry().getValue();
         for (IList.INode<BasicBlock, Function> bNode : func.getList()) {
             BasicBlock bb = bNode.getValue();
             bb.getIdominateds().clear();
+            bb.getDominanceFrontier().clear();
         }
         for (IList.INode<BasicBlock, Function> bNode : func.getList()) {
-            BasicBlock cur = bNode.getValue();
             BasicBlock bb = bNode.getValue();
-            while (true) {
-                bb.getDominators().add(cur);
-                if (cur.equals(func.getList().getEntry().getValue())) {
-                    break;
+            if (!reachable.get(bb.getIndex())) {
+                continue;
+            }
+            for (BasicBlock pred : bb.getPredecessors()) {
+                if (!reachable.get(pred.getIndex())) {
+                    continue;
+                }
+                BasicBlock anc = pred;
+                while (anc != bb.getIdominator()) {
+                    anc.getDominanceFrontier().add(bb);
+                    anc = anc.getIdominator();
                 }
-                cur = cur.getIdominator();
             }
-            if (bNode.equals(func.getList().getEntry())) {
-                continue;
+            if (bb != entry) {
+                bb.getIdominator().getIdominateds().add(bb);
             }
-            bb.getIdominator().getIdominateds().add(bb);
         }
-        dfsDominanceLevel(func.getList().getEntry().getValue(), 0);
+        dfsDominatorTree(entry);
     }
 
-    public void dfsDominanceLevel(BasicBlock bb, int level) {
-        bb.setDominanceLevel(level);
-        for (BasicBlock dominated : bb.getIdominateds()) {
-            dfsDominanceLevel(dominated, level + 1);
+    // 在支配树上求深度和先序、后序时间戳，不可达的块时间戳为 -1
+    private void dfsDominatorTree(BasicBlock entry) {
+        for (BasicBlock bb : blocks) {
+            bb.setDominanceOrder(-1, -1);
+        }
+        int clock = 0;
+        int top = 0;
+        int[] pre = new int[blocks.length];
+        stack[top] = entry.getIndex();
+        edge[top++] = 0;
+        pre[entry.getIndex()] = clock++;
+        while (top > 0) {
+            BasicBlock bb = blocks[stack[top - 1]];
+            ArrayList<BasicBlock> children = bb.getIdominateds();
+            if (edge[top - 1] == children.size()) {
+                bb.setDominanceOrder(pre[bb.getIndex()], clock++);
+                --top;
+                continue;
+            }
+            BasicBlock child = children.get(edge[top - 1]++);
+            child.setDominanceLevel(top);
+            pre[child.getIndex()] = clock++;
+            stack[top] = child.getIndex();
+            edge[top++] = 0;
         }
+        entry.setDominanceLevel(0);
     }
 }
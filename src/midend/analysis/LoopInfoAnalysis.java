@@ -27,37 +27,41 @@ public class LoopInfoAnalysis {
 
     public void calcLoopInfo(Function f) {
         f.getLoopInfo().init();
+        f.renumber();
         ArrayList<BasicBlock> bbs = BasicBlockToposort.basicBlockToposort(f);
         Collections.reverse(bbs);
         for (BasicBlock header : bbs) {
             ArrayList<BasicBlock> latchBBs = new ArrayList<>();
             for (BasicBlock pred : header.getPredecessors()) {
-                if (pred.getDominators().contains(header)) {
+                if (pred.isDominatedBy(header)) {
                     latchBBs.add(pred);
                     // 回边
                 }
             }
             if (!latchBBs.isEmpty()) {
-                HashSet<BasicBlock> loopBBSet = new HashSet<>();
+                BitSet loopBBSet = new BitSet(f.getNumBlocks());
                 Queue<BasicBlock> loopBBs = new LinkedList<>(latchBBs);
-                HashSet<BasicBlock> BBVisited = new HashSet<>(latchBBs);
+                BitSet BBVisited = new BitSet(f.getNumBlocks());
+                for (BasicBlock latchBB : latchBBs) {
+                    BBVisited.set(latchBB.getIndex());
+                }
                 Loop loop = new Loop(header);
                 loop.latchBBs.addAll(latchBBs);
                 while (!loopBBs.isEmpty()) {
                     BasicBlock loopBB = loopBBs.poll();
-                    loopBBSet.add(loopBB);
+                    loopBBSet.set(loopBB.getIndex());
                     if (loopBB.equals(header)) {
                         continue;
                     }
                     for (BasicBlock nxtBB : loopBB.getPredecessors()) {
-                        if (!BBVisited.contains(nxtBB)) {
-                            BBVisited.add(nxtBB);
+                        if (!BBVisited.get(nxtBB.getIndex())) {
+                            BBVisited.set(nxtBB.getIndex());
                             loopBBs.add(nxtBB);
                         }
                     }
                 }
                 for (BasicBlock fbb : bbs) {
-                    if (loopBBSet.contains(fbb) && !loop.header.equals(fbb)) {
+                    if (loopBBSet.get(fbb.getIndex()) && !loop.header.equals(fbb)) {
                         loop.bbs.add(fbb);
                     }
                 }// System.out.println(loop.bbs);
@@ -71,7 +75,7 @@ public class LoopInfoAnalysis {
                         f.getLoopInfo().bbToLoop.get(loopBB).parent = loop;
                     }
                     for (BasicBlock succ : loopBB.getSuccessors()) {
-                        if (!BBVisited.contains(succ)) {
+                        if (!BBVisited.get(succ.getIndex())) {
                             loop.exitBBs.add(loopBB);
                             break;
                         }
@@ -105,6 +109,13 @@ public class LoopInfoAnalysis {
             return bbToLoop.get(bb).depth;
         }
 
+        // 从序列化的 IR 读回时只恢复循环深度，后端只用到它
+        public void restoreLoopDepth(BasicBlock bb, int depth) {
+            Loop loop = new Loop(bb);
+            loop.depth = depth;
+            bbToLoop.put(bb, loop);
+        }
+
         private final HashMap<BasicBlock, Loop> bbToLoop = new HashMap<>();
     }
 
@@ -0,0 +1,358 @@
+package midend.analysis;
+
+import midend.ir.BasicBlock;
+import midend.ir.Function;
+import midend.ir.Instruction;
+import midend.ir.Instruction.InstrTag;
+import midend.ir.Module;
+import midend.ir.Use;
+import midend.ir.Value;
+import utils.Config;
+import utils.IList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+
+// SSA 形式上的活跃性：从每个使用沿前驱往上走，走到定义所在的块为止（路径探索），不用迭代求不动点
+// phi 的使用算在对应前驱的出口，phi 的定义算在块的开头，所以 phi 定义的值不在本块的 liveIn 里
+// 要求前驱后继是最新的，且还是 SSA 形式（phi_elimination 之后 Move 会重复定义同一个值）
+// 结果挂在 Function.getLiveness() 上：每个块的最大寄存器压力总是记下，每个值的活跃块集合只在 keepRanges 时保留
+public class SSALivenessAnalysis {
+    public void run(Module m) {
+        for (IList.INode<Function, Module> fNode : m.functionList) {
+            if (!fNode.getValue().isBuiltin()) {
+                run(fNode.getValue(), false);
+            }
+        }
+    }
+
+    public void run(Function f) {
+        run(f, false);
+    }
+
+    private BasicBlock[] blocks;
+    private Value[] values;
+    // 以值的编号为下标，块内就死掉的值为 null
+    private BitSet[] liveIn;
+    private BitSet[] liveOut;
+    private int[] stack = new int[16];
+
+    public void run(Function f, boolean keepRanges) {
+        f.renumber();
+        int n = f.getNumBlocks();
+        int nv = f.getNumValues();
+        blocks = new BasicBlock[n];
+        values = new Value[nv];
+        liveIn = new BitSet[nv];
+        liveOut = new BitSet[nv];
+        for (Function.Param param : f.getParamList()) {
+            values[param.getIndex()] = param;
+        }
+        for (IList.INode<BasicBlock, Function> bNode : f.getList()) {
+            BasicBlock bb = bNode.getValue();
+            blocks[bb.getIndex()] = bb;
+            for (IList.INode<Instruction, BasicBlock> iNode : bb.getList()) {
+                values[iNode.getValue().getIndex()] = iNode.getValue();
+            }
+        }
+        int entry = f.getList().getEntry().getValue().getIndex();
+        for (int v = 0; v < nv; ++v) {
+            if (!isVariable(values[v])) {
+                continue;
+            }
+            int def = values[v] instanceof Instruction ? ((Instruction) values[v]).getParent().getIndex() : entry;
+            for (Use use : values[v].getUses()) {
+                Instruction user = use.getUser();
+                BasicBlock userBB = user.getParent();
+                if (user.tag == InstrTag.Phi) {
+                    userBB = userBB.getPredecessors().get(use.getOperandRank());
+                    outOf(v).set(userBB.getIndex());
+                }
+                upAndMark(v, def, userBB.getIndex());
+            }
+        }
+        assert Config.submit || matchesDataflow(f);
+        Liveness liveness = f.getLiveness();
+        liveness.init(blocks, keepRanges);
+        computePressure(liveness);
+        if (keepRanges) {
+            for (int v = 0; v < nv; ++v) {
+                if (liveIn[v] != null) {
+                    liveness.liveIn.put(values[v], liveIn[v]);
+                }
+                if (liveOut[v] != null) {
+                    liveness.liveOut.put(values[v], liveOut[v]);
+                }
+            }
+        }
+        blocks = null;
+        values = null;
+        liveIn = null;
+        liveOut = null;
+    }
+
+    // 占寄存器的值：有结果的指令和函数参数
+    static boolean isVariable(Value value) {
+        return value instanceof Function.Param || value instanceof Instruction && !value.getType().isVoidType();
+    }
+
+    private BitSet outOf(int v) {
+        if (liveOut[v] == null) {
+            liveOut[v] = new BitSet(blocks.length);
+        }
+        return liveOut[v];
+    }
+
+    // 从块 start 的出口往上标记 v 活跃，已经标记过 liveIn 的块不再往上走
+    private void upAndMark(int v, int def, int start) {
+        if (start == def || liveIn[v] != null && liveIn[v].get(start)) {
+            return;
+        }
+        if (liveIn[v] == null) {
+            liveIn[v] = new BitSet(blocks.length);
+        }
+        BitSet in = liveIn[v];
+        BitSet out = outOf(v);
+        int top = 0;
+        in.set(start);
+        stack[top++] = start;
+        // 入栈时就标记 liveIn，每个块最多入栈一次
+        while (top > 0) {
+            ArrayList<BasicBlock> preds = blocks[stack[--top]].getPredecessors();
+            for (int i = 0; i < preds.size(); ++i) {
+                int p = preds.get(i).getIndex();
+                out.set(p);
+                if (p == def || in.get(p)) {
+                    continue;
+                }
+                in.set(p);
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, top * 2);
+                }
+                stack[top++] = p;
+            }
+        }
+    }
+
+    // 从 liveOut 出发倒着扫每个块，数每个程序点同时活跃的值；结果没人用的定义在定义处也占一个寄存器
+    private void computePressure(Liveness liveness) {
+        int n = blocks.length;
+        int[][] outList = new int[n][];
+        int[] outSize = new int[n];
+        for (int v = 0; v < values.length; ++v) {
+            if (liveOut[v] == null) {
+                continue;
+            }
+            for (int b = liveOut[v].nextSetBit(0); b >= 0; b = liveOut[v].nextSetBit(b + 1)) {
+                if (outList[b] == null) {
+                    outList[b] = new int[4];
+                } else if (outSize[b] == outList[b].length) {
+                    outList[b] = Arrays.copyOf(outList[b], outSize[b] * 2);
+                }
+                outList[b][outSize[b]++] = v;
+            }
+        }
+        // mark[v] == b + 1 表示扫描块 b 时 v 活跃
+        int[] mark = new int[values.length];
+        for (int b = 0; b < n; ++b) {
+            int live = outSize[b];
+            for (int i = 0; i < outSize[b]; ++i) {
+                mark[outList[b][i]] = b + 1;
+            }
+            int max = live;
+            for (IList.INode<Instruction, BasicBlock> iNode = blocks[b].getList().getLast(); !iNode.isGuard(); iNode = iNode.getPrev()) {
+                Instruction instr = iNode.getValue();
+                if (isVariable(instr)) {
+                    if (mark[instr.getIndex()] == b + 1) {
+                        mark[instr.getIndex()] = 0;
+                        --live;
+                    } else {
+                        max = Math.max(max, live + 1);
+                    }
+                }
+                if (instr.tag == InstrTag.Phi) {
+                    continue;
+                }
+                for (int i = 0; i < instr.getOperandNum(); ++i) {
+                    Value operand = instr.getOperand(i);
+                    if (isVariable(operand) && mark[operand.getIndex()] != b + 1) {
+                        mark[operand.getIndex()] = b + 1;
+                        ++live;
+                    }
+                }
+                max = Math.max(max, live);
+            }
+            liveness.maxPressure[b] = max;
+        }
+    }
+
+    // 调试用：和按数据流方程迭代求出的 liveIn/liveOut 比较
+    private boolean matchesDataflow(Function f) {
+        int n = blocks.length;
+        ArrayList<HashSet<Value>> in = new ArrayList<>();
+        ArrayList<HashSet<Value>> out = new ArrayList<>();
+        for (int b = 0; b < n; ++b) {
+            in.add(new HashSet<>());
+            out.add(new HashSet<>());
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int b = n - 1; b >= 0; --b) {
+                HashSet<Value> newOut = new HashSet<>();
+                for (BasicBlock succ : blocks[b].getSuccessors()) {
+                    for (Value value : in.get(succ.getIndex())) {
+                        newOut.add(value);
+                    }
+                    for (IList.INode<Instruction, BasicBlock> iNode : succ.getList()) {
+                        Instruction phi = iNode.getValue();
+                        if (phi.tag != InstrTag.Phi) {
+                            continue;
+                        }
+                        for (int i = 0; i < phi.getOperandNum(); ++i) {
+                            if (succ.getPredecessors().get(i) == blocks[b] && isVariable(phi.getOperand(i))) {
+                                newOut.add(phi.getOperand(i));
+                            }
+                        }
+                    }
+                }
+                HashSet<Value> newIn = new HashSet<>(newOut);
+                for (IList.INode<Instruction, BasicBlock> iNode = blocks[b].getList().getLast(); !iNode.isGuard(); iNode = iNode.getPrev()) {
+                    Instruction instr = iNode.getValue();
+                    newIn.remove(instr);
+                    if (instr.tag == InstrTag.Phi) {
+                        continue;
+                    }
+                    for (int i = 0; i < instr.getOperandNum(); ++i) {
+                        if (isVariable(instr.getOperand(i))) {
+                            newIn.add(instr.getOperand(i));
+                        }
+                    }
+                }
+                if (b == f.getList().getEntry().getValue().getIndex()) {
+                    newIn.removeAll(f.getParamList());
+                }
+                if (!newIn.equals(in.get(b)) || !newOut.equals(out.get(b))) {
+                    in.set(b, newIn);
+                    out.set(b, newOut);
+                    changed = true;
+                }
+            }
+        }
+        for (int v = 0; v < values.length; ++v) {
+            for (int b = 0; b < n; ++b) {
+                boolean li = liveIn[v] != null && liveIn[v].get(b);
+                boolean lo = liveOut[v] != null && liveOut[v].get(b);
+                if (li != in.get(b).contains(values[v]) || lo != out.get(b).contains(values[v])) {
+                    throw new RuntimeException("liveness of " + values[v].getName() + " differs at " + blocks[b].getName() + " in " + f.getName());
+                }
+            }
+        }
+        return true;
+    }
+
+    public static class Liveness {
+        // 以计算时块的编号为下标
+        private int[] maxPressure = new int[0];
+        private final ArrayList<BasicBlock> blockList = new ArrayList<>();
+        private boolean keepRanges = false;
+        private final HashMap<Value, BitSet> liveIn = new HashMap<>();
+        private final HashMap<Value, BitSet> liveOut = new HashMap<>();
+
+        private void init(BasicBlock[] blocks, boolean keepRanges) {
+            maxPressure = new int[blocks.length];
+            blockList.clear();
+            blockList.addAll(Arrays.asList(blocks));
+            this.keepRanges = keepRanges;
+            liveIn.clear();
+            liveOut.clear();
+        }
+
+        // 计算之后新建的块、或编号已经变了的块返回 -1
+        private int indexOf(BasicBlock bb) {
+            int b = bb.getIndex();
+            return b >= 0 && b < blockList.size() && blockList.get(b) == bb ? b : -1;
+        }
+
+        // 块内任一程序点同时活跃的值的最大个数
+        public int getMaxPressure(BasicBlock bb) {
+            int b = indexOf(bb);
+            return b < 0 ? 0 : maxPressure[b];
+        }
+
+        public int getMaxPressure() {
+            int max = 0;
+            for (int pressure : maxPressure) {
+                max = Math.max(max, pressure);
+            }
+            return max;
+        }
+
+        // 以下活跃范围查询只在 run(f, true) 之后可用
+        public boolean isLiveIn(BasicBlock bb, Value value) {
+            return contains(liveIn, bb, value);
+        }
+
+        public boolean isLiveOut(BasicBlock bb, Value value) {
+            return contains(liveOut, bb, value);
+        }
+
+        // value 在 at 之后（同一块内）是否还活跃
+        public boolean isLiveAfter(Value value, Instruction at) {
+            BasicBlock bb = at.getParent();
+            if (isLiveOut(bb, value)) {
+                return true;
+            }
+            if (value instanceof Instruction && ((Instruction) value).getParent() == bb
+                    && value != at && at.node.comesBefore(((Instruction) value).node)) {
+                return false;
+            }
+            for (Use use : value.getUses()) {
+                Instruction user = use.getUser();
+                if (user.tag != InstrTag.Phi && user.getParent() == bb && at.node.comesBefore(user.node)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // value 活跃的块（在入口或出口活跃，或在块内定义），按函数中块的顺序
+        public ArrayList<BasicBlock> getLiveBlocks(Value value) {
+            checkRanges();
+            BitSet set = new BitSet(blockList.size());
+            if (value instanceof Instruction) {
+                int b = indexOf(((Instruction) value).getParent());
+                if (b >= 0) {
+                    set.set(b);
+                }
+            }
+            if (liveIn.containsKey(value)) {
+                set.or(liveIn.get(value));
+            }
+            if (liveOut.containsKey(value)) {
+                set.or(liveOut.get(value));
+            }
+            ArrayList<BasicBlock> res = new ArrayList<>();
+            for (int b = set.nextSetBit(0); b >= 0; b = set.nextSetBit(b + 1)) {
+                res.add(blockList.get(b));
+            }
+            return res;
+        }
+
+        private boolean contains(HashMap<Value, BitSet> sets, BasicBlock bb, Value value) {
+            checkRanges();
+            BitSet set = sets.get(value);
+            int b = indexOf(bb);
+            return set != null && b >= 0 && set.get(b);
+        }
+
+        private void checkRanges() {
+            if (!keepRanges) {
+                throw new RuntimeException("live ranges were not kept, run SSALivenessAnalysis with keepRanges");
+            }
+        }
+    }
+}
@@ -11,9 +11,11 @@ public class BasicBlock extends Value {
     private final ArrayList<BasicBlock> successors = new ArrayList<>();
     private BasicBlock idominator;//被谁直接支配
     private final ArrayList<BasicBlock> idominateds = new ArrayList<>();//该bb直接支配的bb
-    private final ArrayList<BasicBlock> dominators = new ArrayList<>();//该bb的支配者们
     private final ArrayList<BasicBlock> dominanceFrontier = new ArrayList<>();//支配边界
     private int dominanceLevel;
+    // 支配树上的先序、后序时间戳，用于 O(1) 判断支配关系；不可达块为 -1
+    private int domPre = -1;
+    private int domPost = -1;
 
     public BasicBlock(String name, Function function) {
         super(Type.LabelType.getType(), name);
@@ -31,12 +33,8 @@ public class BasicBlock extends Value {
     }
 
     public void removeSelf() {
-        ArrayList<Instruction> instructionsToBeDeleted = new ArrayList<>();
         for (IList.INode<Instruction, BasicBlock> iNode : this.list) {
-            instructionsToBeDeleted.add(iNode.getValue());
-        }
-        for (Instruction instruction : instructionsToBeDeleted) {
-            instruction.removeSelf();
+            iNode.getValue().removeSelf();
         }
         this.node.removeSelf();
     }
@@ -70,8 +68,19 @@ public class BasicBlock extends Value {
         return idominateds;
     }
 
-    public ArrayList<BasicBlock> getDominators() {
-        return dominators;
+    // that 是否支配本块（自己支配自己）
+    public boolean isDominatedBy(BasicBlock that) {
+        return domPre >= 0 && that.domPre >= 0 && that.domPre <= domPre && domPost <= that.domPost;
+    }
+
+    // 上次支配分析时从入口可达
+    public boolean inDominatorTree() {
+        return domPre >= 0;
+    }
+
+    public void setDominanceOrder(int pre, int post) {
+        this.domPre = pre;
+        this.domPost = post;
     }
 
     public ArrayList<BasicBlock> getDominanceFrontier() {
@@ -1,7 +1,10 @@
 package midend.ir;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class Constant extends Value {
     public abstract boolean isZero();
@@ -14,47 +17,84 @@ public abstract class Constant extends Value {
         if (type.isI32Type()) {
             return (Constant) values.get(0);
         } else {
-            Type.ArrayType arrayType = (Type.ArrayType) type;
-            int childSize = arrayType.getChildNumOfAtomElements();
-            HashMap<Integer, HashMap<Integer, Constant> > newValues = new HashMap<>();
+            int[] atoms = new int[((Type.ArrayType) type).getNumOfAtomElements()];
             for (int index : values.keySet()) {
-                int dim = index / childSize;
-                newValues.computeIfAbsent(dim, k -> new HashMap<>());
-                newValues.get(dim).put(index - dim * childSize, (Constant) values.get(index));
+                atoms[index] = ((ConstantInt) values.get(index)).getValue();
             }
-            HashMap<Integer, Constant> res = new HashMap<>();
-            for (int index : newValues.keySet()) {
-                res.put(index, buildConstantFromValues(arrayType.getChildType(), newValues.get(index)));
-            }
-            return new ConstantArray(type, res);
+            return ConstantArray.fromAtoms(type, atoms);
         }
     }
 
+    // 享元：同一类型同一值只有一个实例，比较常量可以直接用 ==
+    // 小整数预先分配在静态缓存里，其余的放在模块的常量池中
     public static class ConstantInt extends Constant {
         private final int value;
-        private final static ConstantInt const0 = new ConstantInt(Type.IntegerType.getI32(), 0);
+        private static final int CACHE_LOW = -128;
+        private static final int CACHE_HIGH = 1024;
+        private static final ConstantInt[] i32Cache = new ConstantInt[CACHE_HIGH - CACHE_LOW];
+        private static final ConstantInt i1False = new ConstantInt(Type.IntegerType.getI1(), 0);
+        private static final ConstantInt i1True = new ConstantInt(Type.IntegerType.getI1(), 1);
+
+        static {
+            for (int i = CACHE_LOW; i < CACHE_HIGH; ++i) {
+                i32Cache[i - CACHE_LOW] = new ConstantInt(Type.IntegerType.getI32(), i);
+            }
+        }
+
+        private final static ConstantInt const0 = get(0);
 
         public static ConstantInt getConst0() {
             return const0;
         }
 
-        public ConstantInt(Type type, int value) {
+        private ConstantInt(Type type, int value) {
             super(type);
             this.value = value;
         }
 
-        public ConstantInt(int value) {
-            super(Type.IntegerType.getI32());
-            this.value = value;
+        public static ConstantInt get(Type type, int value) {
+            if (type.isI32Type()) {
+                if (CACHE_LOW <= value && value < CACHE_HIGH) {
+                    return i32Cache[value - CACHE_LOW];
+                }
+            } else if (type.isI1Type() && (value == 0 || value == 1)) {
+                return value == 0 ? i1False : i1True;
+            }
+            return Module.get().constantPool.get((Type.IntegerType) type, value);
+        }
+
+        public static ConstantInt get(int value) {
+            return get(Type.IntegerType.getI32(), value);
         }
 
-        public ConstantInt(boolean value) {
-            super(Type.IntegerType.getI1());
-            this.value = value ? 1 : 0;
+        public static ConstantInt get(boolean value) {
+            return value ? i1True : i1False;
+        }
+
+        // 常量被所有函数共享，不记录 use，否则它的 use 链表会跨函数甚至跨编译不断增长
+        @Override
+        public void addUse(Use use) {
+        }
+
+        @Override
+        public void removeUse(Use use) {
+        }
+
+        public static class Pool {
+            private final ConcurrentHashMap<Long, ConstantInt> constants = new ConcurrentHashMap<>();
+
+            private ConstantInt get(Type.IntegerType type, int value) {
+                long key = ((long) type.getBits() << 32) | (value & 0xffffffffL);
+                return constants.computeIfAbsent(key, k -> new ConstantInt(type, value));
+            }
+
+            public int size() {
+                return constants.size();
+            }
         }
 
         public ConstantInt neg() {
-            return new ConstantInt(-this.value);
+            return ConstantInt.get(-this.value);
         }
 
         public int getValue() {
@@ -92,26 +132,161 @@ public abstract class Constant extends Value {
 
     public static class ConstantArray extends Constant {
         private final Type.ArrayType arrayType;
-        private final HashMap<Integer, Constant> values = new HashMap<>();
+        private final HashMap<Integer, Constant> values;
+        // 稠密表示（values 为 null 时）：所有原子元素按行优先排列，只保存非零段，段之间都是 0。
+        // 第 k 段覆盖 [segStarts[k], segStarts[k] + segData[k].length)，子数组共享这些段，base 是它的起点
+        private final int[] segStarts;
+        private final int[][] segData;
+        private final int base;
+        // 短于此长度的零段并入相邻的非零段
+        private static final int MIN_ZERO_RUN = 8;
 
         public ConstantArray(Type type, HashMap<Integer, Constant> values) {
             super(type);
             this.arrayType = (Type.ArrayType) type;
+            this.values = new HashMap<>();
             for (int i : values.keySet()) {
                 if (!values.get(i).isZero()) {
                     this.values.put(i, values.get(i));
                 }
             }
+            this.segStarts = null;
+            this.segData = null;
+            this.base = 0;
+        }
+
+        private ConstantArray(Type type, int[] segStarts, int[][] segData, int base) {
+            super(type);
+            this.arrayType = (Type.ArrayType) type;
+            this.values = null;
+            this.segStarts = segStarts;
+            this.segData = segData;
+            this.base = base;
+        }
+
+        // atoms 是按行优先展开的全部元素
+        public static ConstantArray fromAtoms(Type type, int[] atoms) {
+            ArrayList<Integer> starts = new ArrayList<>();
+            ArrayList<int[]> data = new ArrayList<>();
+            int i = 0;
+            while (i < atoms.length) {
+                if (atoms[i] == 0) {
+                    ++i;
+                    continue;
+                }
+                int start = i;
+                int end = i + 1;
+                while (end < atoms.length) {
+                    int zeros = 0;
+                    while (end + zeros < atoms.length && atoms[end + zeros] == 0 && zeros < MIN_ZERO_RUN) {
+                        ++zeros;
+                    }
+                    if (end + zeros == atoms.length || zeros == MIN_ZERO_RUN) {
+                        break;
+                    }
+                    end += zeros + 1;
+                }
+                starts.add(start);
+                data.add(Arrays.copyOfRange(atoms, start, end));
+                i = end;
+            }
+            int[] segStarts = new int[starts.size()];
+            for (int k = 0; k < segStarts.length; ++k) {
+                segStarts[k] = starts.get(k);
+            }
+            return new ConstantArray(type, segStarts, data.toArray(new int[0][]), 0);
+        }
+
+        public boolean isDense() {
+            return values == null;
+        }
+
+        public int getNumOfAtoms() {
+            return arrayType.getNumOfAtomElements();
+        }
+
+        // 第一个结束位置在 pos 之后的段
+        private int findSeg(int pos) {
+            int lo = 0, hi = segStarts.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (segStarts[mid] + segData[mid].length <= pos) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        // 本数组第 index 个原子元素
+        public int getAtom(int index) {
+            int pos = base + index;
+            int k = findSeg(pos);
+            if (k == segStarts.length || segStarts[k] > pos) {
+                return 0;
+            }
+            return segData[k][pos - segStarts[k]];
+        }
+
+        private boolean anyNonZero(int from, int to) {
+            for (int k = findSeg(from); k < segStarts.length && segStarts[k] < to; ++k) {
+                int lo = Math.max(from, segStarts[k]) - segStarts[k];
+                int hi = Math.min(to, segStarts[k] + segData[k].length) - segStarts[k];
+                for (int j = lo; j < hi; ++j) {
+                    if (segData[k][j] != 0) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        // 按顺序访问本数组中的非零段：段内可能夹有少量 0，段外全是 0
+        public interface SegVisitor {
+            void visit(int offset, int[] data, int from, int to);
+        }
+
+        public void forEachSeg(SegVisitor visitor) {
+            int end = base + getNumOfAtoms();
+            for (int k = findSeg(base); k < segStarts.length && segStarts[k] < end; ++k) {
+                int lo = Math.max(base, segStarts[k]);
+                int hi = Math.min(end, segStarts[k] + segData[k].length);
+                visitor.visit(lo - base, segData[k], lo - segStarts[k], hi - segStarts[k]);
+            }
         }
 
         @Override
         public boolean isZero() {
+            if (values == null) {
+                return !anyNonZero(base, base + getNumOfAtoms());
+            }
             return values.isEmpty();
         }
 
+        private void appendDense(StringBuilder sb, Type.ArrayType type, int offset) {
+            sb.append(type).append(" [");
+            int childSize = type.getChildNumOfAtomElements();
+            for (int i = 0; i < type.getLength(); ++i) {
+                if (type.getChildType().isArrayType()) {
+                    appendDense(sb, (Type.ArrayType) type.getChildType(), offset + i * childSize);
+                } else {
+                    sb.append(type.getChildType()).append(" ").append(getAtom(offset + i));
+                }
+                if (i != type.getLength() - 1) {
+                    sb.append(", ");
+                }
+            }
+            sb.append("]");
+        }
+
         @Override
         public String toString() {
             StringBuilder sb = new StringBuilder();
+            if (values == null) {
+                appendDense(sb, arrayType, 0);
+                return sb.toString();
+            }
             sb.append(this.getType().toString()).append(" [");
             for (int i = 0; i < arrayType.getLength(); ++i) {
                 if (values.containsKey(i)) {
@@ -132,6 +307,13 @@ public abstract class Constant extends Value {
         }
 
         public Constant getValue(int index) {
+            if (values == null) {
+                if (arrayType.getChildType().isI32Type()) {
+                    int atom = getAtom(index);
+                    return atom == 0 ? ConstantInt.getConst0() : ConstantInt.get(atom);
+                }
+                return new ConstantArray(arrayType.getChildType(), segStarts, segData, base + index * arrayType.getChildNumOfAtomElements());
+            }
             Constant res = this.values.get(index);
             if (res == null) {
                 if (this.arrayType.getChildType().isI32Type()) {
@@ -145,6 +327,10 @@ public abstract class Constant extends Value {
         }
 
         public boolean haveValue(int index) {
+            if (values == null) {
+                int childSize = arrayType.getChildNumOfAtomElements();
+                return anyNonZero(base + index * childSize, base + (index + 1) * childSize);
+            }
             return this.values.containsKey(index);
         }
     }
@@ -168,7 +354,7 @@ public abstract class Constant extends Value {
         }
 
         public ConstantString(String string) {
-            super(new Type.ArrayType(new Type.IntegerType(8), countLength(string) - 1));
+            super(Type.ArrayType.get(Type.IntegerType.getI8(), countLength(string) - 1));
             this.string = string;
         }
 
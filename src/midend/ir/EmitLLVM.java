@@ -2,6 +2,11 @@ package midend.ir;
 
 import utils.IList;
 
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
 public class EmitLLVM {
     private int counter = 0;
     String outPath ;
@@ -13,74 +18,84 @@ public class EmitLLVM {
         return String.valueOf(counter++);
     }
 
-    private void nameVariable(Module m, StringBuilder sb) {
+    private void nameGlobals(Module m) {
         for (GlobalVariable gv : m.globalList) {
             if (!gv.getName().startsWith("@")) {
                 gv.setName("@" + gv.getName());
             }
         }
-        for (IList.INode<Function, Module> f : m.functionList) {
-            counter = 0;
-            Function func = f.getValue();
-            if (!func.isBuiltin()) {
-                for (Function.Param arg : func.getParamList()) {
-                    arg.setName("%" + getCounter());
+    }
+
+    // 每个函数的编号从 0 开始，命名只依赖函数自身，所以可以命名完一个函数就输出它
+    private void nameFunction(Function func) {
+        counter = 0;
+        for (Function.Param arg : func.getParamList()) {
+            arg.setName("%" + getCounter());
+        }
+        for (IList.INode<BasicBlock, Function> bbInode : func.getList()) {
+            bbInode.getValue().setName(getCounter());
+            for (IList.INode<Instruction, BasicBlock> instNode : bbInode.getValue().getList()) {
+                if (instNode.getValue().needName) {
+                    instNode.getValue().setName("%" + getCounter());
                 }
-                for (IList.INode<BasicBlock, Function> bbInode : func.getList()) {
-                    bbInode.getValue().setName(getCounter());
-                    for (IList.INode<Instruction, BasicBlock> instNode : bbInode.getValue().getList()) {
-                        if (instNode.getValue().needName) {
-                            instNode.getValue().setName("%" + getCounter());
-                        }
-                    }
+            }
+        }
+    }
+
+    private void emitFunction(Function func, Writer w) throws IOException {
+        w.append("\ndefine dso_local ").append(func.toString()).append("{").append("\n");
+        for (IList.INode<BasicBlock, Function> bbInode : func.getList()) {
+            BasicBlock bb = bbInode.getValue();
+            if (!func.getList().getEntry().equals(bbInode)) {
+                w.append(bb.getName()).append(":").append("\t\t\t;idom:").append(String.valueOf(bb.getIdominator())).append(";");
+                w.append("\t\t\tpreds:");
+                for (BasicBlock pred : bb.getPredecessors()) {
+                    w.append(pred.getName()).append(",");
                 }
-            } else {
-                if (func.getName().equals("printf")) {
-                    sb.append("declare void @printf(i8*, ...)\n");
-                } else {
-                    sb.append("declare ").append(func).append("\n");
+                w.append("\t\t\tsuccs:");
+                for (BasicBlock succ : bb.getSuccessors()) {
+                    w.append(succ.getName()).append(",");
                 }
+                w.append(";\n");
+            }
+            for (IList.INode<Instruction, BasicBlock> instNode : bb.getList()) {
+                w.append(instNode.getValue().getLLVM()).append("\n");
             }
         }
+        w.append("}\n");
     }
 
+    // 按函数流式写出，不在内存里拼整个模块的文本
     public void run(Module m) {
-        StringBuilder sb = new StringBuilder();
-        nameVariable(m, sb);
-        for (GlobalVariable gv : m.globalList) {
-            sb.append(gv).append("\n");
+        try (Writer w = new BufferedWriter(new FileWriter(outPath), 1 << 16)) {
+            run(m, w);
+        } catch (Exception e) {
+            e.printStackTrace();
         }
+    }
+
+    // 写到调用方给的 Writer，编译服务用它把 IR 直接写进响应
+    public void run(Module m, Writer w) throws IOException {
         for (IList.INode<Function, Module> f : m.functionList) {
             Function func = f.getValue();
-            if (!func.isBuiltin()) {
-                sb.append("\ndefine dso_local ").append(func).append("{").append("\n");
-                for (IList.INode<BasicBlock, Function> bbInode : func.getList()) {
-                    BasicBlock bb = bbInode.getValue();
-                    if (!func.getList().getEntry().equals(bbInode)) {
-                        sb.append(bb).append(":").append("\t\t\t;idom:").append(bb.getIdominator()).append(";");
-                        sb.append("\t\t\tpreds:");
-                        for (BasicBlock pred : bb.getPredecessors()) {
-                            sb.append(pred).append(",");
-                        }
-                        sb.append("\t\t\tsuccs:");
-                        for (BasicBlock succ : bb.getSuccessors()) {
-                            sb.append(succ).append(",");
-                        }
-                        sb.append(";\n");
-                    }
-                    for (IList.INode<Instruction, BasicBlock> instNode : bb.getList()) {
-                        sb.append(instNode.getValue().getLLVM()).append("\n");
-                    }
+            if (func.isBuiltin()) {
+                if (func.getName().equals("printf")) {
+                    w.append("declare void @printf(i8*, ...)\n");
+                } else {
+                    w.append("declare ").append(func.toString()).append("\n");
                 }
-                sb.append("}\n");
             }
         }
-        try {
-            java.io.FileWriter fw = new java.io.FileWriter(outPath);
-            fw.write(sb.toString());
-            fw.close();
-        } catch (Exception e) {
-            e.printStackTrace();
+        nameGlobals(m);
+        for (GlobalVariable gv : m.globalList) {
+            w.append(gv.toString()).append("\n");
+        }
+        for (IList.INode<Function, Module> f : m.functionList) {
+            Function func = f.getValue();
+            if (!func.isBuiltin()) {
+                nameFunction(func);
+                emitFunction(func, w);
+            }
         }
     }
-}
\ No newline at end of file
+}
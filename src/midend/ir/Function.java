@@ -1,6 +1,7 @@
 package midend.ir;
 
 import midend.analysis.LoopInfoAnalysis;
+import midend.analysis.SSALivenessAnalysis;
 import utils.IList;
 
 import java.util.ArrayList;
@@ -13,12 +14,15 @@ public class Function extends Value {
     private final ArrayList<Param> paramList;
     private final boolean isBuiltin;
     private final LoopInfoAnalysis.LoopInfo loopInfo = new LoopInfoAnalysis.LoopInfo();
+    private final SSALivenessAnalysis.Liveness liveness = new SSALivenessAnalysis.Liveness();
     private boolean isRecurrent = false;
     private boolean hasSideEffect = true;
     private boolean useGlobalVariable = false;
     private final ArrayList<GlobalVariable> loadGVSet = new ArrayList<>();
     private final ArrayList<GlobalVariable> storeGVSet = new ArrayList<>();
     private boolean useGetPrint = false;
+    private int numBlocks = 0;
+    private int numValues = 0;
 
     public Function(String name, Type type, ArrayList<Param> params, boolean isBuiltin, Module module) {
         super(type, name);
@@ -37,6 +41,21 @@ public class Function extends Value {
         }
     }
 
+    // 并行 lowering 时由多个 worker 引用，use 推迟到合并时再挂，见 Value.deferUses
+    @Override
+    public void addUse(Use use) {
+        if (!deferAddUse(use)) {
+            super.addUse(use);
+        }
+    }
+
+    @Override
+    public void removeUse(Use use) {
+        if (!deferRemoveUse(use)) {
+            super.removeUse(use);
+        }
+    }
+
     public Module getParent() {
         return node.getParent().getHolder();
     }
@@ -78,6 +97,10 @@ public class Function extends Value {
         return loopInfo;
     }
 
+    public SSALivenessAnalysis.Liveness getLiveness() {
+        return liveness;
+    }
+
     public ArrayList<Function> getCallees() {
         return callees;
     }
@@ -157,4 +180,39 @@ public class Function extends Value {
         }
         return true;
     }
+
+    // 基本块编号 0..numBlocks-1，参数和指令共用一套编号 0..numValues-1，按当前的链表顺序分配
+    // 分析开始前调用，之后可以用数组或 BitSet 代替以 IR 对象为键的 HashMap
+    public void renumber() {
+        int blockCnt = 0;
+        int valueCnt = 0;
+        for (Param param : paramList) {
+            param.setIndex(valueCnt++);
+        }
+        for (IList.INode<BasicBlock, Function> bNode : this.list) {
+            BasicBlock bb = bNode.getValue();
+            bb.setIndex(blockCnt++);
+            for (IList.INode<Instruction, BasicBlock> iNode : bb.getList()) {
+                iNode.getValue().setIndex(valueCnt++);
+            }
+        }
+        this.numBlocks = blockCnt;
+        this.numValues = valueCnt;
+    }
+
+    public int getInstrCount() {
+        int cnt = 0;
+        for (IList.INode<BasicBlock, Function> bNode : this.list) {
+            cnt += bNode.getValue().getList().getNodeNum();
+        }
+        return cnt;
+    }
+
+    public int getNumBlocks() {
+        return numBlocks;
+    }
+
+    public int getNumValues() {
+        return numValues;
+    }
 }
@@ -7,11 +7,26 @@ public class GlobalVariable extends Value {
     private final Constant init;
 
     public GlobalVariable(String name, Type type, Constant init, boolean isConstant) {
-        super(new PointerType(type), name);
+        super(PointerType.get(type), name);
         this.isConstant = isConstant;
         this.init = init;
     }
 
+    // 并行 lowering 时由多个 worker 引用，use 推迟到合并时再挂，见 Value.deferUses
+    @Override
+    public void addUse(Use use) {
+        if (!deferAddUse(use)) {
+            super.addUse(use);
+        }
+    }
+
+    @Override
+    public void removeUse(Use use) {
+        if (!deferRemoveUse(use)) {
+            super.removeUse(use);
+        }
+    }
+
     public Constant getInit() {
         return init;
     }
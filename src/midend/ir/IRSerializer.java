@@ -0,0 +1,801 @@
+package midend.ir;
+
+import midend.ir.Constant.*;
+import midend.ir.Instruction.*;
+import midend.ir.Type.*;
+import utils.Config;
+import utils.IList;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.stream.Stream;
+
+// IR 的二进制格式：中端跑完后把 Module 写下来，同一份源码再次编译时直接读回，跳过前端和中端
+// 布局：魔数、版本号、类型表、字符串表、常量池、全局变量、函数
+// 整数都是 varint，有符号的先做 zigzag；操作数引用是 (编号 << 3) | 种类，局部值用 Function.renumber 的编号
+public class IRSerializer {
+    private static final int MAGIC = 0x53594952;
+    private static final int VERSION = 2;
+
+    private static final int REF_NULL = 0;
+    private static final int REF_LOCAL = 1;
+    private static final int REF_BLOCK = 2;
+    private static final int REF_GLOBAL = 3;
+    private static final int REF_FUNC = 4;
+    private static final int REF_CONST = 5;
+
+    private static final int TYPE_VOID = 0;
+    private static final int TYPE_LABEL = 1;
+    private static final int TYPE_INT = 2;
+    private static final int TYPE_ARRAY = 3;
+    private static final int TYPE_POINTER = 4;
+    private static final int TYPE_FUNCTION = 5;
+
+    private static final int CONST_INT = 0;
+    private static final int CONST_ARRAY = 1;
+    private static final int CONST_STRING = 2;
+
+    private static final InstrTag[] TAGS = InstrTag.values();
+
+    // 编译器本身的标识：格式版本、Config 的全部取值和编译器的 class 文件（或 jar）内容的 SHA-256
+    // 编译器有任何改动都会换一个标识，旧的缓存自然不再命中
+    private static byte[] buildId;
+
+    private static synchronized byte[] buildId() {
+        if (buildId != null) {
+            return buildId;
+        }
+        MessageDigest md = sha256();
+        md.update(Integer.toString(VERSION).getBytes(StandardCharsets.UTF_8));
+        Field[] fields = Config.class.getDeclaredFields();
+        Arrays.sort(fields, Comparator.comparing(Field::getName));
+        for (Field field : fields) {
+            if (Modifier.isStatic(field.getModifiers())) {
+                try {
+                    md.update((field.getName() + "=" + field.get(null) + ";").getBytes(StandardCharsets.UTF_8));
+                } catch (IllegalAccessException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }
+        try {
+            CodeSource codeSource = IRSerializer.class.getProtectionDomain().getCodeSource();
+            if (codeSource != null) {
+                Path root = Paths.get(codeSource.getLocation().toURI());
+                if (Files.isDirectory(root)) {
+                    ArrayList<Path> classes = new ArrayList<>();
+                    try (Stream<Path> paths = Files.walk(root)) {
+                        paths.filter(path -> path.toString().endsWith(".class")).forEach(classes::add);
+                    }
+                    Collections.sort(classes);
+                    for (Path path : classes) {
+                        md.update(root.relativize(path).toString().getBytes(StandardCharsets.UTF_8));
+                        md.update(Files.readAllBytes(path));
+                    }
+                } else {
+                    md.update(Files.readAllBytes(root));
+                }
+            }
+        } catch (IOException | URISyntaxException e) {
+            throw new RuntimeException("cannot identify the compiler build for the IR cache", e);
+        }
+        buildId = md.digest();
+        return buildId;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] sourceDigest(byte[] src) {
+        return sha256().digest(src);
+    }
+
+    // 缓存文件名：编译器标识和源码摘要合在一起的 SHA-256
+    public static String cacheKey(byte[] src) {
+        MessageDigest md = sha256();
+        md.update(buildId());
+        md.update(sourceDigest(src));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : md.digest()) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    // 缓存文件：编译器标识、源码摘要，然后是 IR
+    // 先写到同目录的临时文件再原子改名，并发或被杀掉的编译不会留下写了一半的缓存
+    public static void writeCache(Module m, File file, byte[] src) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        dir.mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            try (OutputStream os = new BufferedOutputStream(new FileOutputStream(tmp))) {
+                os.write(buildId());
+                os.write(sourceDigest(src));
+                write(m, os);
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // 另一个编译同时写好了同一份缓存
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    // 读缓存，m 必须是空的 Module；文件不存在、摘要对不上或者读坏了都当作没命中，m 恢复为空
+    public static boolean readCache(File file, byte[] src, Module m) {
+        if (!m.globalList.isEmpty() || !m.functionList.isEmpty()) {
+            throw new RuntimeException("IRSerializer can only read into an empty module");
+        }
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file.toPath());
+        } catch (IOException e) {
+            return false;
+        }
+        byte[] build = buildId();
+        byte[] digest = sourceDigest(src);
+        int header = build.length + digest.length;
+        if (bytes.length < header
+                || !Arrays.equals(Arrays.copyOfRange(bytes, 0, build.length), build)
+                || !Arrays.equals(Arrays.copyOfRange(bytes, build.length, header), digest)) {
+            return false;
+        }
+        try {
+            read(new ByteArrayInputStream(bytes, header, bytes.length - header), m);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            while (!m.functionList.isEmpty()) {
+                m.functionList.getEntry().removeSelf();
+            }
+            m.globalList.clear();
+            m.basicBlockIdx = 0;
+            return false;
+        }
+    }
+
+    public static void write(Module m, File file) throws IOException {
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file))) {
+            write(m, os);
+        }
+    }
+
+    public static void read(File file, Module m) throws IOException {
+        try (InputStream is = new BufferedInputStream(new FileInputStream(file))) {
+            read(is, m);
+        }
+    }
+
+    public static void write(Module m, OutputStream os) throws IOException {
+        new Writer(m).write(os);
+    }
+
+    // m 必须是空的 Module
+    public static void read(InputStream is, Module m) throws IOException {
+        if (!m.globalList.isEmpty() || !m.functionList.isEmpty()) {
+            throw new RuntimeException("IRSerializer can only read into an empty module");
+        }
+        new Reader(new DataInputStream(is), m).read();
+    }
+
+    private static void writeVarint(DataOutputStream out, int v) throws IOException {
+        while ((v & ~0x7f) != 0) {
+            out.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        out.writeByte(v);
+    }
+
+    private static void writeSigned(DataOutputStream out, int v) throws IOException {
+        writeVarint(out, (v << 1) ^ (v >> 31));
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new RuntimeException("malformed varint in IR file");
+    }
+
+    private static int readSigned(DataInputStream in) throws IOException {
+        int v = readVarint(in);
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static class Writer {
+        private final Module m;
+        private final ArrayList<Type> types = new ArrayList<>();
+        private final HashMap<Type, Integer> typeIdx = new HashMap<>();
+        private final ArrayList<String> strings = new ArrayList<>();
+        private final HashMap<String, Integer> stringIdx = new HashMap<>();
+        private final ArrayList<Constant> constants = new ArrayList<>();
+        // ConstantInt 的 equals 不比较类型，i1 和 i32 的同值常量要分开
+        private final IdentityHashMap<Constant, Integer> constIdx = new IdentityHashMap<>();
+        private final HashMap<Value, Integer> globalIdx = new HashMap<>();
+        private final HashMap<Value, Integer> funcIdx = new HashMap<>();
+        private Function curFunc;
+
+        private Writer(Module m) {
+            this.m = m;
+        }
+
+        private int type(Type type) {
+            Integer idx = typeIdx.get(type);
+            if (idx != null) {
+                return idx;
+            }
+            // 子类型先入表，读的时候按顺序就能解析
+            if (type instanceof ArrayType) {
+                type(((ArrayType) type).getChildType());
+            } else if (type instanceof PointerType) {
+                type(((PointerType) type).getPointTo());
+            } else if (type instanceof FunctionType) {
+                FunctionType functionType = (FunctionType) type;
+                type(functionType.getReturnType());
+                for (int i = 0; i < functionType.getParamLength(); ++i) {
+                    type(functionType.getParamType(i));
+                }
+            }
+            typeIdx.put(type, types.size());
+            types.add(type);
+            return types.size() - 1;
+        }
+
+        private int string(String s) {
+            return stringIdx.computeIfAbsent(s, k -> {
+                strings.add(k);
+                return strings.size() - 1;
+            });
+        }
+
+        private int constant(Constant c) {
+            Integer idx = constIdx.get(c);
+            if (idx != null) {
+                return idx;
+            }
+            type(c.getType());
+            if (c instanceof ConstantString) {
+                string(((ConstantString) c).getString());
+            } else if (!(c instanceof ConstantInt) && !(c instanceof ConstantArray)) {
+                throw new RuntimeException("cannot serialize constant " + c);
+            }
+            constIdx.put(c, constants.size());
+            constants.add(c);
+            return constants.size() - 1;
+        }
+
+        private int ref(Value v) {
+            if (v == null) {
+                return REF_NULL;
+            }
+            if (v instanceof Constant) {
+                return constant((Constant) v) << 3 | REF_CONST;
+            }
+            if (v instanceof GlobalVariable) {
+                return globalIdx.get(v) << 3 | REF_GLOBAL;
+            }
+            if (v instanceof Function) {
+                return funcIdx.get(v) << 3 | REF_FUNC;
+            }
+            if (v instanceof BasicBlock && ((BasicBlock) v).getParent() == curFunc) {
+                return v.getIndex() << 3 | REF_BLOCK;
+            }
+            if (v instanceof Function.Param && v.getIndex() < curFunc.getParamList().size() && curFunc.getParamList().get(v.getIndex()) == v
+                    || v instanceof Instruction && ((Instruction) v).getParent().getParent() == curFunc) {
+                return v.getIndex() << 3 | REF_LOCAL;
+            }
+            throw new RuntimeException("value " + v + " does not belong to function " + curFunc.getName());
+        }
+
+        private static void collectAtoms(Constant c, int[] atoms, int base) {
+            if (c instanceof ConstantInt) {
+                atoms[base] = ((ConstantInt) c).getValue();
+                return;
+            }
+            ConstantArray array = (ConstantArray) c;
+            if (array.isDense()) {
+                array.forEachSeg((offset, data, from, to) -> System.arraycopy(data, from, atoms, base + offset, to - from));
+                return;
+            }
+            ArrayType arrayType = (ArrayType) array.getType();
+            for (int i = 0; i < arrayType.getLength(); ++i) {
+                if (array.haveValue(i)) {
+                    collectAtoms(array.getValue(i), atoms, base + i * arrayType.getChildNumOfAtomElements());
+                }
+            }
+        }
+
+        private void writeBody(DataOutputStream out) throws IOException {
+            writeVarint(out, m.basicBlockIdx);
+            for (GlobalVariable gv : m.globalList) {
+                globalIdx.put(gv, globalIdx.size());
+            }
+            for (IList.INode<Function, Module> fNode : m.functionList) {
+                funcIdx.put(fNode.getValue(), funcIdx.size());
+            }
+            writeVarint(out, m.globalList.size());
+            for (GlobalVariable gv : m.globalList) {
+                writeVarint(out, string(gv.getName()));
+                writeVarint(out, type(((PointerType) gv.getType()).getPointTo()));
+                out.writeBoolean(gv.isConstant());
+                writeVarint(out, gv.getInit() == null ? 0 : constant(gv.getInit()) + 1);
+            }
+            // 先写所有函数的签名，调用可以引用后面的函数
+            writeVarint(out, funcIdx.size());
+            for (IList.INode<Function, Module> fNode : m.functionList) {
+                Function f = fNode.getValue();
+                writeVarint(out, string(f.getName()));
+                writeVarint(out, type(f.getType()));
+                out.writeBoolean(f.isBuiltin());
+                for (Function.Param param : f.getParamList()) {
+                    writeVarint(out, string(param.getName()));
+                }
+            }
+            for (IList.INode<Function, Module> fNode : m.functionList) {
+                writeFunction(out, fNode.getValue());
+            }
+        }
+
+        private void writeFunction(DataOutputStream out, Function f) throws IOException {
+            curFunc = f;
+            out.writeBoolean(f.isRecurrent());
+            out.writeBoolean(f.hasSideEffect());
+            out.writeBoolean(f.useGlobalVariable());
+            out.writeBoolean(f.useGetPrint());
+            writeRefs(out, f.getCallees());
+            writeRefs(out, f.getCallers());
+            writeRefs(out, f.getLoadGVSet());
+            writeRefs(out, f.getStoreGVSet());
+            f.renumber();
+            writeVarint(out, f.getNumBlocks());
+            writeVarint(out, f.getNumValues());
+            // 局部值的类型先写，读的时候前向引用可以先建一个同类型的占位值
+            for (IList.INode<BasicBlock, Function> bNode : f.getList()) {
+                for (IList.INode<Instruction, BasicBlock> iNode : bNode.getValue().getList()) {
+                    writeVarint(out, type(iNode.getValue().getType()));
+                }
+            }
+            for (IList.INode<BasicBlock, Function> bNode : f.getList()) {
+                BasicBlock bb = bNode.getValue();
+                writeVarint(out, string(bb.getName()));
+                writeVarint(out, f.getLoopInfo().BBLoopDepth(bb));
+                writeVarint(out, bb.getIdominator() == null ? 0 : bb.getIdominator().getIndex() + 1);
+                writeRefs(out, bb.getPredecessors());
+                writeRefs(out, bb.getSuccessors());
+            }
+            for (IList.INode<BasicBlock, Function> bNode : f.getList()) {
+                BasicBlock bb = bNode.getValue();
+                writeVarint(out, bb.getList().getNodeNum());
+                for (IList.INode<Instruction, BasicBlock> iNode : bb.getList()) {
+                    Instruction inst = iNode.getValue();
+                    writeVarint(out, inst.tag.ordinal());
+                    writeVarint(out, string(inst.getName()));
+                    out.writeBoolean(inst.needName);
+                    writeVarint(out, inst.getOperandNum());
+                    for (int i = 0; i < inst.getOperandNum(); ++i) {
+                        writeVarint(out, ref(inst.getOperand(i)));
+                    }
+                    if (inst instanceof Move) {
+                        writeVarint(out, ref(((Move) inst).getDst()));
+                    }
+                }
+            }
+        }
+
+        private void writeRefs(DataOutputStream out, ArrayList<? extends Value> values) throws IOException {
+            writeVarint(out, values.size());
+            for (Value v : values) {
+                writeVarint(out, ref(v));
+            }
+        }
+
+        private void writeConstants(DataOutputStream out) throws IOException {
+            // 常量池里只有 int、数组、字符串，它们的类型和字符串在 intern 时已经入表
+            writeVarint(out, constants.size());
+            for (Constant c : constants) {
+                writeVarint(out, typeIdx.get(c.getType()));
+                if (c instanceof ConstantInt) {
+                    out.writeByte(CONST_INT);
+                    writeSigned(out, ((ConstantInt) c).getValue());
+                } else if (c instanceof ConstantString) {
+                    out.writeByte(CONST_STRING);
+                    writeVarint(out, stringIdx.get(((ConstantString) c).getString()));
+                } else {
+                    // 数组写成 (零的个数, 非零段长度, 段内元素) 的序列
+                    out.writeByte(CONST_ARRAY);
+                    int[] atoms = new int[((ArrayType) c.getType()).getNumOfAtomElements()];
+                    collectAtoms(c, atoms, 0);
+                    int i = 0;
+                    while (i < atoms.length) {
+                        int start = i;
+                        while (i < atoms.length && atoms[i] == 0) {
+                            ++i;
+                        }
+                        int segStart = i;
+                        while (i < atoms.length && atoms[i] != 0) {
+                            ++i;
+                        }
+                        writeVarint(out, segStart - start);
+                        writeVarint(out, i - segStart);
+                        for (int k = segStart; k < i; ++k) {
+                            writeSigned(out, atoms[k]);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void writeTypes(DataOutputStream out) throws IOException {
+            writeVarint(out, types.size());
+            for (Type type : types) {
+                if (type instanceof VoidType) {
+                    out.writeByte(TYPE_VOID);
+                } else if (type instanceof LabelType) {
+                    out.writeByte(TYPE_LABEL);
+                } else if (type instanceof IntegerType) {
+                    out.writeByte(TYPE_INT);
+                    writeVarint(out, ((IntegerType) type).getBits());
+                } else if (type instanceof ArrayType) {
+                    out.writeByte(TYPE_ARRAY);
+                    writeVarint(out, typeIdx.get(((ArrayType) type).getChildType()));
+                    writeVarint(out, ((ArrayType) type).getLength());
+                } else if (type instanceof PointerType) {
+                    out.writeByte(TYPE_POINTER);
+                    writeVarint(out, typeIdx.get(((PointerType) type).getPointTo()));
+                } else if (type instanceof FunctionType) {
+                    FunctionType functionType = (FunctionType) type;
+                    out.writeByte(TYPE_FUNCTION);
+                    writeVarint(out, typeIdx.get(functionType.getReturnType()));
+                    writeVarint(out, functionType.getParamLength());
+                    for (int i = 0; i < functionType.getParamLength(); ++i) {
+                        writeVarint(out, typeIdx.get(functionType.getParamType(i)));
+                    }
+                } else {
+                    throw new RuntimeException("cannot serialize type " + type);
+                }
+            }
+        }
+
+        private void writeStrings(DataOutputStream out) throws IOException {
+            writeVarint(out, strings.size());
+            for (String s : strings) {
+                byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeVarint(out, bytes.length);
+                out.write(bytes);
+            }
+        }
+
+        // 正文写完才知道要哪些类型、字符串和常量，所以正文先写到缓冲区
+        private void write(OutputStream os) throws IOException {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream bodyOut = new DataOutputStream(body);
+            writeBody(bodyOut);
+            bodyOut.flush();
+            DataOutputStream out = new DataOutputStream(os);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeTypes(out);
+            writeStrings(out);
+            writeConstants(out);
+            body.writeTo(out);
+            out.flush();
+        }
+    }
+
+    private static class Reader {
+        private final DataInputStream in;
+        private final Module m;
+        private Type[] types;
+        private String[] strings;
+        private Constant[] constants;
+        private final ArrayList<GlobalVariable> globals = new ArrayList<>();
+        private final ArrayList<Function> functions = new ArrayList<>();
+        private BasicBlock[] blocks;
+        private Value[] locals;
+        private Type[] localTypes;
+        private final ArrayList<Value> placeholders = new ArrayList<>();
+
+        private Reader(DataInputStream in, Module m) {
+            this.in = in;
+            this.m = m;
+        }
+
+        private Value value(int ref) {
+            int idx = ref >>> 3;
+            switch (ref & 7) {
+                case REF_NULL:
+                    return null;
+                case REF_LOCAL:
+                    // 前向引用（phi 的入边等）先给一个占位值，函数读完后替换
+                    if (locals[idx] == null) {
+                        locals[idx] = new Value(localTypes[idx], "");
+                        placeholders.add(locals[idx]);
+                    }
+                    return locals[idx];
+                case REF_BLOCK:
+                    return blocks[idx];
+                case REF_GLOBAL:
+                    return globals.get(idx);
+                case REF_FUNC:
+                    return functions.get(idx);
+                case REF_CONST:
+                    return constants[idx];
+                default:
+                    throw new RuntimeException("bad operand reference " + ref);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T extends Value> void readRefs(ArrayList<T> list) throws IOException {
+            int n = readVarint(in);
+            for (int i = 0; i < n; ++i) {
+                list.add((T) value(readVarint(in)));
+            }
+        }
+
+        private void readTypes() throws IOException {
+            types = new Type[readVarint(in)];
+            for (int i = 0; i < types.length; ++i) {
+                int kind = in.readUnsignedByte();
+                switch (kind) {
+                    case TYPE_VOID:
+                        types[i] = VoidType.getType();
+                        break;
+                    case TYPE_LABEL:
+                        types[i] = LabelType.getType();
+                        break;
+                    case TYPE_INT: {
+                        int bits = readVarint(in);
+                        types[i] = bits == 1 ? IntegerType.getI1() : bits == 8 ? IntegerType.getI8() : IntegerType.getI32();
+                        break;
+                    }
+                    case TYPE_ARRAY: {
+                        Type child = types[readVarint(in)];
+                        types[i] = ArrayType.get(child, readVarint(in));
+                        break;
+                    }
+                    case TYPE_POINTER:
+                        types[i] = PointerType.get(types[readVarint(in)]);
+                        break;
+                    case TYPE_FUNCTION: {
+                        Type returnType = types[readVarint(in)];
+                        int n = readVarint(in);
+                        ArrayList<Type> params = new ArrayList<>();
+                        for (int k = 0; k < n; ++k) {
+                            params.add(types[readVarint(in)]);
+                        }
+                        types[i] = new FunctionType(returnType, params);
+                        break;
+                    }
+                    default:
+                        throw new RuntimeException("bad type kind " + kind);
+                }
+            }
+        }
+
+        private void readStrings() throws IOException {
+            strings = new String[readVarint(in)];
+            for (int i = 0; i < strings.length; ++i) {
+                byte[] bytes = new byte[readVarint(in)];
+                in.readFully(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        private void readConstants() throws IOException {
+            constants = new Constant[readVarint(in)];
+            for (int i = 0; i < constants.length; ++i) {
+                Type type = types[readVarint(in)];
+                int kind = in.readUnsignedByte();
+                if (kind == CONST_INT) {
+                    constants[i] = ConstantInt.get(type, readSigned(in));
+                } else if (kind == CONST_STRING) {
+                    constants[i] = new ConstantString(strings[readVarint(in)]);
+                } else if (kind == CONST_ARRAY) {
+                    int[] atoms = new int[((ArrayType) type).getNumOfAtomElements()];
+                    int pos = 0;
+                    while (pos < atoms.length) {
+                        pos += readVarint(in);
+                        int len = readVarint(in);
+                        for (int k = 0; k < len; ++k) {
+                            atoms[pos++] = readSigned(in);
+                        }
+                    }
+                    constants[i] = ConstantArray.fromAtoms(type, atoms);
+                } else {
+                    throw new RuntimeException("bad constant kind " + kind);
+                }
+            }
+        }
+
+        private void read() throws IOException {
+            if (in.readInt() != MAGIC) {
+                throw new RuntimeException("not an IR file");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new RuntimeException("unsupported IR file version " + version);
+            }
+            readTypes();
+            readStrings();
+            readConstants();
+            m.basicBlockIdx = readVarint(in);
+            int globalCnt = readVarint(in);
+            for (int i = 0; i < globalCnt; ++i) {
+                String name = strings[readVarint(in)];
+                Type type = types[readVarint(in)];
+                boolean isConstant = in.readBoolean();
+                int init = readVarint(in);
+                GlobalVariable gv = new GlobalVariable(name, type, init == 0 ? null : constants[init - 1], isConstant);
+                m.globalList.add(gv);
+                globals.add(gv);
+            }
+            int funcCnt = readVarint(in);
+            for (int i = 0; i < funcCnt; ++i) {
+                String name = strings[readVarint(in)];
+                FunctionType type = (FunctionType) types[readVarint(in)];
+                boolean isBuiltin = in.readBoolean();
+                ArrayList<Function.Param> params = new ArrayList<>();
+                for (int k = 0; k < type.getParamLength(); ++k) {
+                    params.add(new Function.Param(type.getParamType(k), strings[readVarint(in)]));
+                }
+                functions.add(new Function(name, type, params, isBuiltin, m));
+            }
+            for (Function f : functions) {
+                readFunction(f);
+            }
+        }
+
+        private void readFunction(Function f) throws IOException {
+            f.setRecurrent(in.readBoolean());
+            f.setHasSideEffect(in.readBoolean());
+            f.setUseGlobalVariable(in.readBoolean());
+            f.setUseGetPrint(in.readBoolean());
+            readRefs(f.getCallees());
+            readRefs(f.getCallers());
+            readRefs(f.getLoadGVSet());
+            readRefs(f.getStoreGVSet());
+            blocks = new BasicBlock[readVarint(in)];
+            locals = new Value[readVarint(in)];
+            localTypes = new Type[locals.length];
+            int paramCnt = f.getParamList().size();
+            for (int i = 0; i < paramCnt; ++i) {
+                locals[i] = f.getParamList().get(i);
+                localTypes[i] = locals[i].getType();
+            }
+            for (int i = paramCnt; i < locals.length; ++i) {
+                localTypes[i] = types[readVarint(in)];
+            }
+            for (int i = 0; i < blocks.length; ++i) {
+                blocks[i] = new BasicBlock("", f);
+            }
+            for (BasicBlock bb : blocks) {
+                bb.setName(strings[readVarint(in)]);
+                int depth = readVarint(in);
+                if (depth != 0) {
+                    f.getLoopInfo().restoreLoopDepth(bb, depth);
+                }
+                int idom = readVarint(in);
+                bb.setIdominator(idom == 0 ? null : blocks[idom - 1]);
+                readRefs(bb.getPredecessors());
+                readRefs(bb.getSuccessors());
+            }
+            ArrayList<Move> moves = new ArrayList<>();
+            ArrayList<Integer> moveDsts = new ArrayList<>();
+            int valueIdx = paramCnt;
+            for (BasicBlock bb : blocks) {
+                int instCnt = readVarint(in);
+                for (int k = 0; k < instCnt; ++k, ++valueIdx) {
+                    Instruction inst = readInstruction(bb, localTypes[valueIdx]);
+                    if (inst instanceof Move) {
+                        moves.add((Move) inst);
+                        moveDsts.add(readVarint(in));
+                    }
+                    if (!inst.getType().equals(localTypes[valueIdx])) {
+                        throw new RuntimeException("type mismatch when reading " + inst.getLLVM());
+                    }
+                    if (locals[valueIdx] != null) {
+                        locals[valueIdx].replaceSelfWith(inst);
+                    }
+                    locals[valueIdx] = inst;
+                }
+            }
+            if (valueIdx != locals.length) {
+                throw new RuntimeException("IR file has " + valueIdx + " values in " + f.getName() + ", expected " + locals.length);
+            }
+            for (int i = 0; i < moves.size(); ++i) {
+                moves.get(i).setDst(value(moveDsts.get(i)));
+            }
+            placeholders.clear();
+        }
+
+        private Instruction readInstruction(BasicBlock bb, Type type) throws IOException {
+            InstrTag tag = TAGS[readVarint(in)];
+            String name = strings[readVarint(in)];
+            boolean needName = in.readBoolean();
+            Value[] ops = new Value[readVarint(in)];
+            for (int i = 0; i < ops.length; ++i) {
+                ops[i] = value(readVarint(in));
+            }
+            ArrayList<Value> rest = new ArrayList<>();
+            for (int i = 1; i < ops.length; ++i) {
+                rest.add(ops[i]);
+            }
+            Instruction inst;
+            switch (tag) {
+                case Br:
+                    if (ops.length == 1) {
+                        inst = new Br((BasicBlock) ops[0], bb);
+                    } else {
+                        inst = new Br(ops[0], (BasicBlock) ops[1], (BasicBlock) ops[2], bb);
+                    }
+                    break;
+                case Ret:
+                    inst = new Ret(ops[0], bb);
+                    break;
+                case Call:
+                    inst = new Call((Function) ops[0], rest, bb);
+                    break;
+                case Alloca:
+                    inst = new Alloca(((PointerType) type).getPointTo(), bb);
+                    break;
+                case Load:
+                    inst = new Load(ops[0], bb);
+                    break;
+                case Store:
+                    inst = new Store(ops[0], ops[1], bb);
+                    break;
+                case GetElementPtr:
+                    inst = new GEP(ops[0], rest, bb);
+                    break;
+                case Zext:
+                    inst = new Zext(ops[0], type, bb);
+                    break;
+                case Phi:
+                    inst = new Phi(type, ops.length, bb);
+                    for (int i = 0; i < ops.length; ++i) {
+                        inst.setOperand(i, ops[i]);
+                    }
+                    break;
+                case Move:
+                    inst = new Move(null, ops[0], bb);
+                    break;
+                case Abs:
+                    inst = new Abs(ops[0], bb);
+                    break;
+                default:
+                    inst = new BinaryInst(tag, ops[0], ops[1], bb);
+            }
+            inst.setName(name);
+            inst.needName = needName;
+            return inst;
+        }
+    }
+}
@@ -244,10 +244,10 @@ public abstract class Instruction extends Value{
                 throw new RuntimeException("binary calc I1?");
             }
             if (tag.isIntegerArithmetic()) {
-                return new ConstantInt(calcBinaryInt(tag, ((ConstantInt) lhs).getValue(), ((ConstantInt) rhs).getValue()));
+                return ConstantInt.get(calcBinaryInt(tag, ((ConstantInt) lhs).getValue(), ((ConstantInt) rhs).getValue()));
             }
             if (tag.isIcmp()) {
-                return new ConstantInt(calcIcmp(tag, ((ConstantInt) lhs).getValue(), ((ConstantInt) rhs).getValue()));
+                return ConstantInt.get(calcIcmp(tag, ((ConstantInt) lhs).getValue(), ((ConstantInt) rhs).getValue()));
             }
             throw new RuntimeException("not binary to calc");
         }
@@ -289,9 +289,10 @@ public abstract class Instruction extends Value{
         }
 
         public static boolean checkSame(BinaryInst b1, BinaryInst b2) {
-            return (b1.tag == b2.tag && b1.lhs().equals(b2.lhs()) && b1.rhs().equals(b2.rhs())) ||
-                    (b1.tag == b2.tag && b1.tag.isCommutative() && b1.lhs().equals(b2.rhs()) && b1.rhs().equals(b2.lhs())) ||
-                    (InstrTag.isInverse(b1.tag, b2.tag) && b1.lhs().equals(b2.rhs()) && b1.rhs().equals(b2.lhs()));
+            // 常量已驻留，操作数直接按引用比较
+            return (b1.tag == b2.tag && b1.lhs() == b2.lhs() && b1.rhs() == b2.rhs()) ||
+                    (b1.tag == b2.tag && b1.tag.isCommutative() && b1.lhs() == b2.rhs() && b1.rhs() == b2.lhs()) ||
+                    (InstrTag.isInverse(b1.tag, b2.tag) && b1.lhs() == b2.rhs() && b1.rhs() == b2.lhs());
         }
     }
 
@@ -319,12 +320,10 @@ public abstract class Instruction extends Value{
 
     public static class Move extends Instruction {
         private Value dst;
-        private final Value src;
 
         public Move(Value dst, Value src, BasicBlock parent) {
             super(InstrTag.Move, src.getType(), 1, parent);
             this.setOperand(0, src);
-            this.src = src;
             this.dst = dst;
             needName = false;
         }
@@ -332,13 +331,13 @@ public abstract class Instruction extends Value{
         public Move(Value src, BasicBlock parent) {
             super(InstrTag.Move, src.getType(), 1, parent);
             this.setOperand(0, src);
-            this.src = src;
             this.dst = null;
             needName = true;
         }
 
+        // src 就是 0 号操作数，操作数被替换时跟着变
         public Value getSrc() {
-            return src;
+            return this.getOperand(0);
         }
 
         public Value getDst() {
@@ -351,6 +350,7 @@ public abstract class Instruction extends Value{
 
         @Override
         public String getLLVM() {
+            Value src = getSrc();
             if (dst == null) {
                 return "\t" + this.getName() + " = " + src.getType() + " " + src.getName();
             } else {
@@ -481,7 +481,7 @@ public abstract class Instruction extends Value{
 
     public static class Alloca extends Instruction {
         public Alloca(Type allocated, BasicBlock parent) {
-            super(InstrTag.Alloca, new PointerType(allocated), 0, parent);
+            super(InstrTag.Alloca, PointerType.get(allocated), 0, parent);
         }
 
         public Type getAllocated() {
@@ -533,7 +533,7 @@ public abstract class Instruction extends Value{
     }
 
     public static class GEP extends Instruction {
-        private static Type getElementContainedType(Value ptr, int len) {
+        public static Type getElementContainedType(Value ptr, int len) {
             assert ptr.getType() instanceof PointerType;
             Type type = ((PointerType) ptr.getType()).getPointTo();
             if (type.isArrayType()) {
@@ -545,7 +545,7 @@ public abstract class Instruction extends Value{
         }
 
         public GEP(Value ptr, ArrayList<Value> indices, BasicBlock parent) {
-            super(InstrTag.GetElementPtr, new PointerType(getElementContainedType(ptr, indices.size())), indices.size() + 1, parent);
+            super(InstrTag.GetElementPtr, PointerType.get(getElementContainedType(ptr, indices.size())), indices.size() + 1, parent);
             setOperand(0, ptr);
             for (int i = 0; i < indices.size(); ++i) {
                 setOperand(i + 1, indices.get(i));
@@ -577,7 +577,7 @@ public abstract class Instruction extends Value{
                 return false;
             }
             for (int i = 0; i < i1.getOperandNum(); ++i) {
-                if (!i1.getOperand(i).equals(i2.getOperand(i))) {
+                if (i1.getOperand(i) != i2.getOperand(i)) {
                     return false;
                 }
             }
@@ -606,21 +606,19 @@ public abstract class Instruction extends Value{
     }
 
     public static class Abs extends Instruction {
-        private final Value src;
-
         public Abs(Value src, BasicBlock parent) {
             super(InstrTag.Abs, src.getType(), 1, parent);
             this.setOperand(0, src);
-            this.src = src;
             needName = true;
         }
 
         public Value getSrc() {
-            return src;
+            return this.getOperand(0);
         }
 
         @Override
         public String getLLVM() {
+            Value src = getSrc();
             return "\t" + this.getName() + " = abs " + src.getType() + " " + src.getName();
         }
     }
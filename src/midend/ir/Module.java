@@ -1,12 +1,26 @@
 package midend.ir;
 
+import utils.CompileContext;
 import utils.IList;
 
 import java.util.ArrayList;
 
 public class Module {
-    public final static Module module = new Module();
     public final IList<Function, Module> functionList = new IList<>(this);
     public int basicBlockIdx;
     public final ArrayList<GlobalVariable> globalList = new ArrayList<>();
+    public final Constant.ConstantInt.Pool constantPool = new Constant.ConstantInt.Pool();
+
+    // 当前线程所在编译的模块
+    public static Module get() {
+        return CompileContext.get().module;
+    }
+
+    public int getInstrCount() {
+        int cnt = 0;
+        for (IList.INode<Function, Module> f : functionList) {
+            cnt += f.getValue().getInstrCount();
+        }
+        return cnt;
+    }
 }
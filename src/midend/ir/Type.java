@@ -2,6 +2,7 @@ package midend.ir;
 
 import java.util.ArrayList;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class Type {
     public abstract int needBytes();
@@ -45,9 +46,10 @@ public abstract class Type {
     public static class IntegerType extends Type {
         private final static IntegerType i1 = new IntegerType(1);
         private final static IntegerType i32 = new IntegerType(32);
+        private final static IntegerType i8 = new IntegerType(8);
         private final int bits;
 
-        public IntegerType(int bits) {
+        private IntegerType(int bits) {
             this.bits = bits;
             if (!(bits == 32 || bits == 1 || bits == 8)) {
                 throw new RuntimeException("illegal integerType bits " + bits);
@@ -62,6 +64,14 @@ public abstract class Type {
             return i1;
         }
 
+        public static IntegerType getI8() {
+            return i8;
+        }
+
+        public int getBits() {
+            return bits;
+        }
+
         @Override
         public String toString() {
             return "i" + bits;
@@ -86,17 +96,24 @@ public abstract class Type {
         }
     }
 
+    // ArrayType 和 PointerType 按结构驻留，同一结构只有一个实例
     public static class ArrayType extends Type {
+        private static final ConcurrentHashMap<Type, ConcurrentHashMap<Integer, ArrayType>> interned = new ConcurrentHashMap<>();
         private final int numOfAtomElements;
         private final Type childType;
         private final int length;
         private final int childNumOfAtomElements;
         private final Type atomType;
 
-        public ArrayType(Type childType, int length) {
+        public static ArrayType get(Type childType, int length) {
             if (length < 0) {
                 throw new RuntimeException("illegal ArrayType length " + length);
             }
+            return interned.computeIfAbsent(childType, k -> new ConcurrentHashMap<>())
+                    .computeIfAbsent(length, k -> new ArrayType(childType, length));
+        }
+
+        private ArrayType(Type childType, int length) {
             this.childType = childType;
             this.length = length;
             if (childType.isIntegerType()) {
@@ -160,9 +177,14 @@ public abstract class Type {
     }
 
     public static class PointerType extends Type {
+        private static final ConcurrentHashMap<Type, PointerType> interned = new ConcurrentHashMap<>();
         private final Type pointTo;
 
-        public PointerType(Type pointTo) {
+        public static PointerType get(Type pointTo) {
+            return interned.computeIfAbsent(pointTo, PointerType::new);
+        }
+
+        private PointerType(Type pointTo) {
             this.pointTo = pointTo;
         }
 
@@ -1,10 +1,12 @@
 package midend.ir;
 
-import java.util.Objects;
-
 public class Use {
     private final Instruction user;
     private final int operandRank;
+    // 所在 use 链表的 Value 以及链表中的前后节点，由 Value 维护
+    Value value;
+    Use prev;
+    Use next;
 
     public Use(Instruction user, int operandRank) {
         this.user = user;
@@ -23,17 +25,4 @@ public class Use {
     public String toString() {
         return "Use{user=" + user + ", operandRank=" + operandRank + '}';
     }
-
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Use use = (Use) o;
-        return operandRank == use.operandRank && Objects.equals(user, use.user);
-    }
-
-    @Override
-    public int hashCode() {
-        return Objects.hash(user, operandRank);
-    }
 }
@@ -1,12 +1,21 @@
 package midend.ir;
 
-import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.NoSuchElementException;
 
 public class Value {
     private final Type type;
     private String name;
-    private final HashSet<Use> uses = new HashSet<>();
+    // 侵入式双向链表：Use 节点预先分配在 Instruction 的操作数槽里，增删 use 不做哈希也不分配
+    private Use firstUse;
+    private int numUses;
+    private final UseList uses = new UseList();
+    // 函数内的稠密编号，由 Function.renumber 分配，IR 修改后需重新编号
+    private int index = -1;
+    // 并行 lowering 的 worker 线程上非空：全局变量和函数的 use 先记在这里，join 后由主线程按源码顺序挂上
+    private static final ThreadLocal<LinkedHashMap<Use, Value>> deferredUses = new ThreadLocal<>();
 
     public Value(Type type, String name) {
         this.type = type;
@@ -25,18 +34,70 @@ public class Value {
         this.name = name;
     }
 
+    public int getIndex() {
+        return index;
+    }
+
+    public void setIndex(int index) {
+        this.index = index;
+    }
+
     public void addUse(Use use) {
-        if (this.uses.contains(use)) {
+        if (use.value != null) {
             throw new RuntimeException("Failed to add use because useList already contains this use.");
         }
-        this.uses.add(use);
+        use.value = this;
+        use.prev = null;
+        use.next = firstUse;
+        if (firstUse != null) {
+            firstUse.prev = use;
+        }
+        firstUse = use;
+        ++numUses;
     }
 
     public void removeUse(Use use) {
-        if (!this.uses.contains(use)) {
+        if (use.value != this) {
             throw new RuntimeException("Failed to remove use because useList does not contain this use.");
         }
-        this.uses.remove(use);
+        unlink(use);
+    }
+
+    // 返回原来的表，调用方结束时设回去
+    public static LinkedHashMap<Use, Value> deferUses(LinkedHashMap<Use, Value> uses) {
+        LinkedHashMap<Use, Value> prev = deferredUses.get();
+        deferredUses.set(uses);
+        return prev;
+    }
+
+    // 被多个 worker 共享的值（全局变量、函数）在 addUse/removeUse 里先调这两个，返回 true 表示已经记下或撤销
+    protected boolean deferAddUse(Use use) {
+        LinkedHashMap<Use, Value> deferred = deferredUses.get();
+        if (deferred == null) {
+            return false;
+        }
+        deferred.put(use, this);
+        return true;
+    }
+
+    protected boolean deferRemoveUse(Use use) {
+        LinkedHashMap<Use, Value> deferred = deferredUses.get();
+        return deferred != null && deferred.remove(use, this);
+    }
+
+    private void unlink(Use use) {
+        if (use.prev != null) {
+            use.prev.next = use.next;
+        } else {
+            firstUse = use.next;
+        }
+        if (use.next != null) {
+            use.next.prev = use.prev;
+        }
+        use.value = null;
+        use.prev = null;
+        use.next = null;
+        --numUses;
     }
 
     public boolean allUsersAre(Instruction.InstrTag tag) {
@@ -63,16 +124,63 @@ public class Value {
     }
 
     public void replaceSelfWith(Value newValue) {
-        ArrayList<Use> usesToBeDeleted = new ArrayList<>(uses);
-        for (Use use : usesToBeDeleted) {
+        // setOperand 会把 use 从本链表摘下，先记住后继
+        Use next;
+        for (Use use = firstUse; use != null; use = next) {
+            next = use.next;
             use.getUser().setOperand(use.getOperandRank(), newValue);
         }
-        if (!uses.isEmpty()) {
+        if (firstUse != null) {
             throw new RuntimeException("replaceSelfWith didn't clear the useList");
         }
     }
 
-    public HashSet<Use> getUses() {
+    public UseList getUses() {
         return uses;
     }
+
+    // use 链表的集合视图，迭代器的 remove 只把 use 从链表摘下，不改动 user 的操作数
+    public class UseList extends AbstractCollection<Use> {
+        @Override
+        public Iterator<Use> iterator() {
+            return new Iterator<Use>() {
+                private Use cur = firstUse;
+                private Use last;
+
+                @Override
+                public boolean hasNext() {
+                    return cur != null;
+                }
+
+                @Override
+                public Use next() {
+                    if (cur == null) {
+                        throw new NoSuchElementException();
+                    }
+                    last = cur;
+                    cur = cur.next;
+                    return last;
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) {
+                        throw new IllegalStateException();
+                    }
+                    removeUse(last);
+                    last = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return numUses;
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return firstUse == null;
+        }
+    }
 }
@@ -1,28 +1,45 @@
 package midend.pass;
 
+import midend.analysis.AnalysisManager.Analysis;
+import midend.analysis.DomTreeUpdater;
 import midend.ir.*;
 import utils.IList;
 
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Queue;
 
-public class BranchOptimization implements Pass {
-    public boolean run(Module m) {
-        boolean changed = false;
-        for (IList.INode<Function, Module> funcNode : m.functionList) {
-            Function func = funcNode.getValue();
-            if (!funcNode.getValue().isBuiltin()) {
-                changed |= run(func);
-            }
-        }
-        return changed;
+public class BranchOptimization implements FunctionPass {
+    // 为 true 时要求进入时支配信息是最新的，改 CFG 时随之维护
+    private final boolean keepDominance;
+    private DomTreeUpdater domTreeUpdater;
+
+    public BranchOptimization() {
+        this(false);
+    }
+
+    public BranchOptimization(boolean keepDominance) {
+        this.keepDominance = keepDominance;
+    }
+
+    @Override
+    public EnumSet<Analysis> required() {
+        return keepDominance ? EnumSet.of(Analysis.DOMINANCE) : EnumSet.of(Analysis.PRED_SUCC);
     }
 
-    private boolean run(Function func) {
+    // 删块可能删掉调用和全局变量的读写，过程间分析要重算
+    @Override
+    public EnumSet<Analysis> preserved() {
+        return keepDominance ? EnumSet.of(Analysis.PRED_SUCC, Analysis.DOMINANCE) : EnumSet.of(Analysis.PRED_SUCC);
+    }
+
+    @Override
+    public boolean run(Function func) {
         boolean changed;
         boolean res = false;
+        domTreeUpdater = keepDominance ? new DomTreeUpdater(func) : null;
         while (true) {
             changed = removeUnreachableBasicBlock(func);
             changed |= removeUselessPhi(func);
@@ -34,6 +51,9 @@ public class BranchOptimization implements Pass {
             }
             res = true;
         }
+        if (domTreeUpdater != null) {
+            domTreeUpdater.flush();
+        }
         return res;
     }
 
@@ -96,8 +116,8 @@ public class BranchOptimization implements Pass {
                 continue;
             }
             int index = succ.getPredecessors().indexOf(bb);
-            succ.getPredecessors().remove(index);
-            for (BasicBlock pred : bb.getPredecessors()) {
+            ArrayList<BasicBlock> preds = new ArrayList<>(bb.getPredecessors());
+            for (BasicBlock pred : preds) {
                 Instruction.Br br = (Instruction.Br) pred.getList().getLast().getValue();
                 if (br.getOperandNum() == 1) {
                     br.setOperand(0, succ);
@@ -108,16 +128,23 @@ public class BranchOptimization implements Pass {
                         br.setOperand(2, succ);
                     }
                 }
-                pred.getSuccessors().remove(bb);
+                // 先接上 pred -> succ 再断开 pred -> bb，bb 到最后才变得不可达
                 pred.getSuccessors().add(succ);
                 succ.getPredecessors().add(pred);
+                insertEdge(pred, succ);
+                pred.getSuccessors().remove(bb);
+                bb.getPredecessors().remove(pred);
+                deleteEdge(pred, bb);
             }
+            succ.getPredecessors().remove(index);
+            bb.getSuccessors().remove(succ);
+            deleteEdge(bb, succ);
             for (IList.INode<Instruction, BasicBlock> iNode : succ.getList()) {
                 if (iNode.getValue() instanceof Instruction.Phi) {
                     Instruction.Phi phi = (Instruction.Phi) iNode.getValue();
                     Value val = phi.getOperand(index);
                     phi.removeOperand(index);
-                    for (BasicBlock ignored : bb.getPredecessors()) {
+                    for (BasicBlock ignored : preds) {
                         phi.addOperand(val);
                     }
                 } else {
@@ -125,6 +152,7 @@ public class BranchOptimization implements Pass {
                 }
             }
             bb.removeSelf();
+            changed = true;
         }
         return changed;
     }
@@ -199,12 +227,8 @@ public class BranchOptimization implements Pass {
             for (BasicBlock succ : succs) {
                 removeBrFlow(bb, succ);
             }
-            ArrayList<Instruction> removedInstructions = new ArrayList<>();
             for (IList.INode<Instruction, BasicBlock> iNode : bb.getList()) {
-                removedInstructions.add(iNode.getValue());
-            }
-            for (Instruction instr : removedInstructions) {
-                instr.removeSelf();
+                iNode.getValue().removeSelf();
             }
             bb.removeSelf();
         }
@@ -223,5 +247,18 @@ public class BranchOptimization implements Pass {
         }
         to.getPredecessors().remove(pos);
         from.getSuccessors().remove(to);
+        deleteEdge(from, to);
+    }
+
+    private void insertEdge(BasicBlock from, BasicBlock to) {
+        if (domTreeUpdater != null) {
+            domTreeUpdater.insertEdge(from, to);
+        }
+    }
+
+    private void deleteEdge(BasicBlock from, BasicBlock to) {
+        if (domTreeUpdater != null) {
+            domTreeUpdater.deleteEdge(from, to);
+        }
     }
 }
@@ -1,16 +1,32 @@
 package midend.pass;
 
+import midend.analysis.AnalysisManager.Analysis;
 import midend.ir.*;
 import utils.IList;
 
-import java.util.HashSet;
+import java.util.BitSet;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.Queue;
 
-public class DeadCodeElimination {
-    HashSet<Instruction> usefulInstrs = new HashSet<>();
-    Module m = Module.module;
+public class DeadCodeElimination implements Pass {
+    // 以指令的稠密编号为下标
+    BitSet usefulInstrs = new BitSet();
+    Module m = Module.get();
     boolean changed;
+
+    @Override
+    public EnumSet<Analysis> required() {
+        return EnumSet.of(Analysis.INTERPROCEDURAL);
+    }
+
+    // 跳转指令都是有用的，CFG 不变
+    @Override
+    public EnumSet<Analysis> preserved() {
+        return EnumSet.of(Analysis.PRED_SUCC, Analysis.DOMINANCE, Analysis.LOOP_INFO);
+    }
+
+    @Override
     public boolean run(Module m) {
         changed = false;
         removeDeadFunction();
@@ -29,6 +45,7 @@ public class DeadCodeElimination {
 
     public void removeDeadInstruction(Function func) {
         usefulInstrs.clear();
+        func.renumber();
         for (IList.INode<BasicBlock, Function> bbNode : func.getList()) {
             for (IList.INode<Instruction, BasicBlock> instNode : bbNode.getValue().getList()) {
                 Instruction inst = instNode.getValue();
@@ -42,7 +59,7 @@ public class DeadCodeElimination {
             for (IList.INode<Instruction, BasicBlock> instNode = bb.getList().getEntry(); instNode.getValue() != null;) {
                 Instruction inst = instNode.getValue();
                 IList.INode<Instruction, BasicBlock> nxt = instNode.getNext();
-                if (!usefulInstrs.contains(inst)) {
+                if (!usefulInstrs.get(inst.getIndex())) {
                     inst.removeSelf();
                     changed = true;
                 }
@@ -70,10 +87,10 @@ public class DeadCodeElimination {
         q.offer(inst);
         while (!q.isEmpty()) {
             inst = q.poll();
-            if (usefulInstrs.contains(inst)) {
+            if (usefulInstrs.get(inst.getIndex())) {
                 continue;
             }
-            usefulInstrs.add(inst);
+            usefulInstrs.set(inst.getIndex());
             for (int i = 0; i < inst.getOperandNum(); ++i) {
                 if (inst.getOperand(i) instanceof Instruction) {
                     q.offer((Instruction) inst.getOperand(i));
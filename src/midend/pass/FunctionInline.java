@@ -1,22 +1,37 @@
 package midend.pass;
 
+import midend.analysis.AnalysisManager.Analysis;
 import midend.ir.*;
+import utils.Config;
 import utils.IList;
 import utils.ValueCopy;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashMap;
 
-public class FunctionInline {
-    public void run(Module m) {
+public class FunctionInline implements Pass {
+    @Override
+    public EnumSet<Analysis> required() {
+        return EnumSet.of(Analysis.INTERPROCEDURAL, Analysis.LIVENESS);
+    }
+
+    // 内联时维护了前驱后继和调用图，被调函数的副作用和全局变量读写早已并入调用者
+    @Override
+    public EnumSet<Analysis> preserved() {
+        return EnumSet.of(Analysis.PRED_SUCC, Analysis.INTERPROCEDURAL);
+    }
+
+    @Override
+    public boolean run(Module m) {
         ArrayList<Function> inlineFunctions = new ArrayList<>();
         for (IList.INode<Function, Module> fNode : m.functionList) {
             Function func = fNode.getValue();
             if (func.getName().equals("main") || func.isBuiltin()) {
                 continue;
             }
-            if (!func.isRecurrent()) {
+            if (!func.isRecurrent() && !tooMuchPressure(func)) {
                 inlineFunctions.add(func);
             }
         }
@@ -24,6 +39,20 @@ public class FunctionInline {
             inlineFunction(func);
         }
         new BranchOptimization().run(m);
+        return true;
+    }
+
+    // 内联后被调函数的值和调用点处活跃的值同时占寄存器，任一调用点上两者之和超过上限就保留调用
+    // 在内联任何函数之前判断，用的都是内联前的压力
+    private boolean tooMuchPressure(Function f) {
+        int calleePressure = f.getLiveness().getMaxPressure();
+        for (Use use : f.getUses()) {
+            BasicBlock bb = use.getUser().getParent();
+            if (bb.getParent().getLiveness().getMaxPressure(bb) + calleePressure > Config.maxRegisterPressure) {
+                return true;
+            }
+        }
+        return false;
     }
 
     private void inlineFunction(Function f) {
@@ -48,7 +77,7 @@ public class FunctionInline {
     private void inlineCall(Instruction.Call call) {
         Function f = call.getFunc();
         BasicBlock curBB = call.node.getParent().getHolder();
-        BasicBlock nxtBB = new BasicBlock("function_inline_next__" + f.getName() + (++Module.module.basicBlockIdx), null);
+        BasicBlock nxtBB = new BasicBlock("function_inline_next__" + f.getName() + (++Module.get().basicBlockIdx), null);
         nxtBB.node.insertAfter(curBB.node);
         Function funcCopy = new ValueCopy(new HashMap<>()).copyFunction(f);
         Instruction.Br entryBr = new Instruction.Br(funcCopy.getList().getEntry().getValue(), null);
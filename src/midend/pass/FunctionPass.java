@@ -0,0 +1,21 @@
+package midend.pass;
+
+import midend.ir.Function;
+import midend.ir.Module;
+import utils.IList;
+
+// 各函数互不影响的 pass，由 AnalysisManager 逐个函数运行，只让改动过的函数的分析失效
+public interface FunctionPass extends Pass {
+    boolean run(Function f);
+
+    @Override
+    default boolean run(Module m) {
+        boolean changed = false;
+        for (IList.INode<Function, Module> fNode : m.functionList) {
+            if (!fNode.getValue().isBuiltin()) {
+                changed |= run(fNode.getValue());
+            }
+        }
+        return changed;
+    }
+}
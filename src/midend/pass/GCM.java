@@ -1,26 +1,36 @@
 package midend.pass;
 
+import midend.analysis.AnalysisManager.Analysis;
 import midend.analysis.LoopInfoAnalysis;
+import midend.analysis.SSALivenessAnalysis;
 import midend.ir.*;
 import midend.ir.Instruction.*;
+import utils.Config;
 import utils.IList;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.EnumSet;
 
-public class GCM {
-    public void run(Module m) {
-        for (IList.INode<Function, Module> fNode : m.functionList) {
-            Function f = fNode.getValue();
-            if (f.isBuiltin()) {
-                continue;
-            }
-            runGCMOnFunction(f);
-        }
+public class GCM implements FunctionPass {
+    @Override
+    public EnumSet<Analysis> required() {
+        return EnumSet.of(Analysis.DOMINANCE, Analysis.LOOP_INFO, Analysis.LIVENESS);
     }
 
-    private void runGCMOnFunction(Function f) {
+    // 只在块之间移动指令
+    @Override
+    public EnumSet<Analysis> preserved() {
+        return EnumSet.allOf(Analysis.class);
+    }
+
+    @Override
+    public boolean run(Function f) {
         ArrayList<Instruction> instructions = new ArrayList<>();
         for (IList.INode<BasicBlock, Function> bNode : f.getList()) {
+            // GVN 折叠分支后留下的不可达块不在支配树里，留给 BranchOptimization 删除
+            if (!bNode.getValue().inDominatorTree()) {
+                continue;
+            }
             for (IList.INode<Instruction, BasicBlock> iNode : bNode.getValue().getList()) {
                 instructions.add(iNode.getValue());
             }
@@ -32,6 +42,7 @@ public class GCM {
         for (Instruction instr : instructions) {
             scheduleLate(instr);
         }
+        return true;
     }
 
     private void scheduleEarly(Instruction instr) {
@@ -90,25 +101,41 @@ public class GCM {
             if (userInst.tag == InstrTag.Phi) {
                 userBB = userBB.getPredecessors().get(use.getOperandRank());
             }
-            lca = LCA(lca, userBB);
+            if (userBB.inDominatorTree()) {
+                lca = LCA(lca, userBB);
+            }
+        }
+        if (lca == null) {
+            return;
         }
         BasicBlock finalBB = lca;
         BasicBlock cur = lca;
         LoopInfoAnalysis.LoopInfo loopInfo = instr.getParent().getParent().getLoopInfo();
+        // 提到 cur 后值在 cur 到 lca 之间的块里一直活跃，这些块的压力已到上限时不再往外提（用本轮调度前的压力）
+        SSALivenessAnalysis.Liveness liveness = instr.getParent().getParent().getLiveness();
+        int pressure = 0;
         while (cur != instr.getParent()) {// System.out.println(cur.getLLVM() + " " + loopInfo.BBLoopDepth(cur));
-            if (loopInfo.BBLoopDepth(cur) < loopInfo.BBLoopDepth(finalBB)) {
+            if (loopInfo.BBLoopDepth(cur) < loopInfo.BBLoopDepth(finalBB) && pressure < Config.maxRegisterPressure) {
                 finalBB = cur;
             }
+            pressure = Math.max(pressure, liveness.getMaxPressure(cur));
             cur = cur.getIdominator();
         }
         if (finalBB == lca) {
-            for (IList.INode<Instruction, BasicBlock> iNode : finalBB.getList()) {
-                if (iNode.getValue().tag != InstrTag.Phi && iNode.getValue().containOperand(instr)) {
-                    instr.node.removeSelf();
-                    instr.node.insertBefore(iNode);
-                    return;
+            // 放到 finalBB 中第一个使用者之前，用结点序号比较先后，不必扫描整个块
+            Instruction firstUser = null;
+            for (Use use : instr.getUses()) {
+                Instruction userInst = use.getUser();
+                if (userInst.tag != InstrTag.Phi && userInst.getParent() == finalBB
+                        && (firstUser == null || userInst.node.comesBefore(firstUser.node))) {
+                    firstUser = userInst;
                 }
             }
+            if (firstUser != null) {
+                instr.node.removeSelf();
+                instr.node.insertBefore(firstUser.node);
+                return;
+            }
         }
         instr.node.removeSelf();
         instr.node.insertBefore(finalBB.getList().getLast());
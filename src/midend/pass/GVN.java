@@ -1,6 +1,8 @@
 package midend.pass;
 
+import midend.analysis.AnalysisManager.Analysis;
 import midend.analysis.ArrayAnalysis;
+import midend.analysis.DomTreeUpdater;
 import midend.ir.*;
 import midend.ir.Constant.*;
 import midend.ir.Type.*;
@@ -10,23 +12,41 @@ import utils.Pair;
 
 import java.util.*;
 
-public class GVN {
+public class GVN implements Pass {
     /*
     1、删去只有br的块
     2、对一些确定的binary操作优化
     3、对相同值合并
      */
     private Module m;
+    // 折叠条件跳转会删边，随时维护支配树，GCM 紧接着要用
+    private DomTreeUpdater domTreeUpdater;
+    private boolean changed;
 
-    public void run(Module module) {
+    @Override
+    public EnumSet<Analysis> required() {
+        return EnumSet.of(Analysis.DOMINANCE, Analysis.INTERPROCEDURAL);
+    }
+
+    @Override
+    public EnumSet<Analysis> preserved() {
+        return EnumSet.of(Analysis.PRED_SUCC, Analysis.DOMINANCE);
+    }
+
+    @Override
+    public boolean run(Module module) {
         this.m = module;
+        changed = false;
         runGVN();
+        return changed;
     }
 
     private void runGVN() {
         for (IList.INode<Function, Module> fNode : m.functionList) {
             if (!fNode.getValue().isBuiltin()) {
+                domTreeUpdater = new DomTreeUpdater(fNode.getValue());
                 runGVNonFunction(fNode.getValue());
+                domTreeUpdater.flush();
                 //unreachableBasicBlockRemove(fNode.getValue());
             }
         }
@@ -49,15 +69,17 @@ public class GVN {
                 use.getUser().removeSelf();
             }
             m.globalList.remove(GV);
+            changed = true;
         }
         for (IList.INode<Function, Module> fNode : m.functionList) {
             if (!fNode.getValue().isBuiltin() && fNode.getValue().getUses().isEmpty() && !fNode.getValue().getName().equals("main")) {
                 fNode.getValue().node.removeSelf();
+                changed = true;
             }
         }
     }
 
-    public static void removeBrFlow(BasicBlock fr, BasicBlock to) {
+    private void removeBrFlow(BasicBlock fr, BasicBlock to) {
         int pos = to.getPredecessors().indexOf(fr);
         for (IList.INode<Instruction, BasicBlock> iNode : to.getList()) {
             if (iNode.getValue() instanceof Instruction.Phi) {
@@ -66,6 +88,7 @@ public class GVN {
         }
         to.getPredecessors().remove(pos);
         fr.getSuccessors().remove(to);
+        domTreeUpdater.deleteEdge(fr, to);
     }
 
     private void runGVNonFunction(Function f) {
@@ -101,6 +124,7 @@ public class GVN {
         }
         valueTable.removeIf(v -> v.getFir() == origin);
         origin.removeSelf(value);
+        changed = true;
     }
 
     private Value findBinaryInstr(BinaryInst binaryInst) {
@@ -261,7 +285,7 @@ public class GVN {
                 ((BinaryInst) lhs).rhs() instanceof ConstantInt &&
                 ((BinaryInst) lhs).tag == InstrTag.Add) {
             Value newLhs = ((BinaryInst) lhs).lhs();
-            Value newRhs = new ConstantInt(IntegerType.getI32(), ((ConstantInt) rhs).getValue() + ((ConstantInt) ((BinaryInst) lhs).rhs()).getValue());
+            Value newRhs = ConstantInt.get(IntegerType.getI32(), ((ConstantInt) rhs).getValue() + ((ConstantInt) ((BinaryInst) lhs).rhs()).getValue());
             instr.setOperand(0, newLhs);
             instr.setOperand(1, newRhs);
             return instr;
@@ -283,7 +307,7 @@ public class GVN {
         Value lhs = instr.getOperand(0);
         Value rhs = instr.getOperand(1);
         if (lhs.equals(rhs)) {
-            return new ConstantInt(IntegerType.getI32(), 0);
+            return ConstantInt.get(IntegerType.getI32(), 0);
         }
         if (rhs instanceof ConstantInt && ((ConstantInt) rhs).getValue() == 0) {
             return lhs;
@@ -346,7 +370,7 @@ public class GVN {
         Value lhs = instr.getOperand(0);
         Value rhs = instr.getOperand(1);
         if (lhs.equals(rhs)) {
-            return new ConstantInt(IntegerType.getI32(), 1);
+            return ConstantInt.get(IntegerType.getI32(), 1);
         }
         if (rhs instanceof ConstantInt && ((ConstantInt) rhs).getValue() == 1) {
             return lhs;
@@ -358,7 +382,7 @@ public class GVN {
         Value lhs = instr.getOperand(0);
         Value rhs = instr.getOperand(1);
         if (lhs.equals(rhs)) {
-            return new ConstantInt(IntegerType.getI1(), 1);
+            return ConstantInt.get(IntegerType.getI1(), 1);
         }
         return instr;
     }
@@ -367,7 +391,7 @@ public class GVN {
         Value lhs = instr.getOperand(0);
         Value rhs = instr.getOperand(1);
         if (lhs.equals(rhs)) {
-            return new ConstantInt(IntegerType.getI1(), 0);
+            return ConstantInt.get(IntegerType.getI1(), 0);
         }
         return instr;
     }
@@ -386,7 +410,7 @@ public class GVN {
         if (pointer instanceof GlobalVariable) {
             GlobalVariable gv = (GlobalVariable) pointer;
             if (gv.isConstant() && gv.getInit() == null) {
-                return new ConstantInt(0);
+                return ConstantInt.get(0);
             }
         }
         if (load.getPointer() instanceof GlobalVariable) {
@@ -406,7 +430,7 @@ public class GVN {
             return call;
         }
         int res = new Simulate().simulate(call.getFunc(), ((ConstantInt) call.getOperand(1)).getValue());
-        return new ConstantInt(IntegerType.getI32(), res);
+        return ConstantInt.get(IntegerType.getI32(), res);
     }
 
     public static Value simplifyAbs(Abs abs) {
@@ -414,7 +438,7 @@ public class GVN {
         if (operand instanceof ConstantInt) {
             int value = ((ConstantInt) operand).getValue();
             if (value < 0) {
-                return new ConstantInt(IntegerType.getI32(), -value);
+                return ConstantInt.get(IntegerType.getI32(), -value);
             }
             return operand;
         }
@@ -425,10 +449,10 @@ public class GVN {
         Value lhs = instr.getOperand(0);
         Value rhs = instr.getOperand(1);
         if (lhs instanceof ConstantInt && ((ConstantInt) lhs).getValue() == 0) {
-            return new ConstantInt(0);
+            return ConstantInt.get(0);
         }
         if (rhs instanceof ConstantInt && ((ConstantInt) rhs).getValue() == 0) {
-            return new ConstantInt(0);
+            return ConstantInt.get(0);
         }
         if (lhs instanceof ConstantInt && ((ConstantInt) lhs).getValue() == -1) {
             return rhs;
@@ -449,10 +473,10 @@ public class GVN {
             return lhs;
         }
         if (lhs instanceof ConstantInt && ((ConstantInt) lhs).getValue() == -1) {
-            return new ConstantInt(-1);
+            return ConstantInt.get(-1);
         }
         if (rhs instanceof ConstantInt && ((ConstantInt) rhs).getValue() == -1) {
-            return new ConstantInt(-1);
+            return ConstantInt.get(-1);
         }
         return instr;
     }
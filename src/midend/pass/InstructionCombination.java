@@ -1,25 +1,26 @@
 package midend.pass;
 
+import midend.analysis.AnalysisManager.Analysis;
 import midend.ir.*;
 import midend.ir.Constant.*;
 import midend.ir.Instruction.*;
 import midend.ir.Type.*;
 import utils.IList;
 
-public class InstructionCombination {
-    public void run(Module m) {
-        for (IList.INode<Function, Module> fNode : m.functionList) {
-            Function func = fNode.getValue();
-            if (!func.isBuiltin()) {
-                run(func);
-            }
-        }
+import java.util.EnumSet;
+
+public class InstructionCombination implements FunctionPass {
+    // 只改写块内的算术指令
+    @Override
+    public EnumSet<Analysis> preserved() {
+        return EnumSet.allOf(Analysis.class);
     }
 
     ConstantInt cst;
     Value val;
 
-    public void run(Function func) {
+    @Override
+    public boolean run(Function func) {
         for (IList.INode<BasicBlock, Function> bNode : func.getList()) {
             BasicBlock bb = bNode.getValue();
             for (IList.INode<Instruction, BasicBlock> iNode : bb.getList()) {
@@ -31,11 +32,11 @@ public class InstructionCombination {
                     Value lhs = instr.getOperand(0);
                     if (isConstMulValue(lhs)) {
                         instr.setOperand(0, val);
-                        instr.setOperand(1, new ConstantInt(IntegerType.getI32(), cst.getValue() * 2));
+                        instr.setOperand(1, ConstantInt.get(IntegerType.getI32(), cst.getValue() * 2));
                         instr.tag = InstrTag.Mul;
                         continue;
                     }
-                    instr.setOperand(1, new ConstantInt(IntegerType.getI32(), 2));
+                    instr.setOperand(1, ConstantInt.get(IntegerType.getI32(), 2));
                     instr.tag = InstrTag.Mul;
                     continue;
                 }
@@ -47,12 +48,12 @@ public class InstructionCombination {
                     Value r_lhs = ((BinaryInst) lhs).getOperand(1);
                     if (r_lhs instanceof ConstantInt) {
                         instr.setOperand(0, l_lhs);
-                        ConstantInt c = new ConstantInt(IntegerType.getI32(), ((ConstantInt) rhs).getValue() + ((ConstantInt) r_lhs).getValue());
+                        ConstantInt c = ConstantInt.get(IntegerType.getI32(), ((ConstantInt) rhs).getValue() + ((ConstantInt) r_lhs).getValue());
                         instr.setOperand(1, c);
                         ((BinaryInst) lhs).removeSelf();
                     } else if (l_lhs instanceof ConstantInt) {
                         instr.setOperand(0, r_lhs);
-                        ConstantInt c = new ConstantInt(IntegerType.getI32(), ((ConstantInt) rhs).getValue() + ((ConstantInt) l_lhs).getValue());
+                        ConstantInt c = ConstantInt.get(IntegerType.getI32(), ((ConstantInt) rhs).getValue() + ((ConstantInt) l_lhs).getValue());
                         instr.setOperand(1, c);
                         ((BinaryInst) lhs).removeSelf();
                     }
@@ -63,23 +64,23 @@ public class InstructionCombination {
                     Value r_rhs = ((BinaryInst) rhs).getOperand(1);
                     if (r_rhs instanceof ConstantInt) {
                         instr.setOperand(1, l_rhs);
-                        ConstantInt c = new ConstantInt(IntegerType.getI32(), ((ConstantInt) lhs).getValue() + ((ConstantInt) r_rhs).getValue());
+                        ConstantInt c = ConstantInt.get(IntegerType.getI32(), ((ConstantInt) lhs).getValue() + ((ConstantInt) r_rhs).getValue());
                         instr.setOperand(0, c);
                         ((BinaryInst) rhs).removeSelf();
                     } else if (l_rhs instanceof ConstantInt) {
                         instr.setOperand(1, r_rhs);
-                        ConstantInt c = new ConstantInt(IntegerType.getI32(), ((ConstantInt) lhs).getValue() + ((ConstantInt) l_rhs).getValue());
+                        ConstantInt c = ConstantInt.get(IntegerType.getI32(), ((ConstantInt) lhs).getValue() + ((ConstantInt) l_rhs).getValue());
                         instr.setOperand(0, c);
                         ((BinaryInst) rhs).removeSelf();
                     }
                 }
                 if (isConstMulValue(lhs) && rhs == val) {
                     instr.setOperand(0, val);
-                    instr.setOperand(1, new ConstantInt(IntegerType.getI32(), cst.getValue() + 1));
+                    instr.setOperand(1, ConstantInt.get(IntegerType.getI32(), cst.getValue() + 1));
                     instr.tag = InstrTag.Mul;
                 } else if (isConstMulValue(rhs) && lhs == val) {
                     instr.setOperand(0, val);
-                    instr.setOperand(1, new ConstantInt(IntegerType.getI32(), cst.getValue() + 1));
+                    instr.setOperand(1, ConstantInt.get(IntegerType.getI32(), cst.getValue() + 1));
                     instr.tag = InstrTag.Mul;
                 } else if (isConstMulValue(lhs)) {
                     ConstantInt t_cst = cst;
@@ -87,13 +88,14 @@ public class InstructionCombination {
                     if (isConstMulValue(rhs)) {
                         if (t_val == val) {
                             instr.setOperand(0, val);
-                            instr.setOperand(1, new ConstantInt(IntegerType.getI32(), cst.getValue() + t_cst.getValue()));
+                            instr.setOperand(1, ConstantInt.get(IntegerType.getI32(), cst.getValue() + t_cst.getValue()));
                             instr.tag = InstrTag.Mul;
                         }
                     }
                 }
             }
         }
+        return true;
     }
     public boolean isConstMulValue(Value instr) {
         if (instr instanceof BinaryInst && ((BinaryInst) instr).tag == InstrTag.Mul) {
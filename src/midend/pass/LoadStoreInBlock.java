@@ -1,24 +1,29 @@
 package midend.pass;
 
+import midend.analysis.AnalysisManager.Analysis;
 import midend.ir.*;
 import midend.ir.Instruction.*;
 import utils.IList;
 
+import java.util.EnumSet;
 import java.util.HashMap;
 
-public class LoadStoreInBlock {
-    public void run(Module module) {
-        for (IList.INode<Function, Module> fNode : module.functionList) {
-            if (!fNode.getValue().isBuiltin()) {
-                run(fNode.getValue());
-            }
-        }
+public class LoadStoreInBlock implements FunctionPass {
+    private boolean changed;
+
+    // 只删 load，CFG 不变；被删的 load 可能是函数里唯一一次读某个全局变量
+    @Override
+    public EnumSet<Analysis> preserved() {
+        return EnumSet.of(Analysis.PRED_SUCC, Analysis.DOMINANCE, Analysis.LOOP_INFO);
     }
 
-    private void run(Function function) {
+    @Override
+    public boolean run(Function function) {
+        changed = false;
         for (IList.INode<BasicBlock, Function> bNode : function.getList()) {
             run(bNode.getValue());
         }
+        return changed;
     }
 
     public static void removeBrFlow(BasicBlock fr, BasicBlock to) {
@@ -49,6 +54,7 @@ public class LoadStoreInBlock {
             }
         }
         origin.removeSelf(value);
+        changed = true;
     }
 
     private void run(BasicBlock bb) {
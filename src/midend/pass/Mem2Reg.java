@@ -1,31 +1,35 @@
 package midend.pass;
 
+import midend.analysis.AnalysisManager.Analysis;
 import midend.ir.*;
 import midend.ir.Instruction.*;
 import utils.IList;
 
 import java.util.*;
 
-public class Mem2Reg implements Pass {
+public class Mem2Reg implements FunctionPass {
     @Override
-    public boolean run(Module m) {
-        for (IList.INode<Function, Module> fNode : m.functionList) {
-            Function f = fNode.getValue();
-            if (!f.isBuiltin()) {
-                run(f);
-            }
-        }
-        return true;
+    public EnumSet<Analysis> required() {
+        return EnumSet.of(Analysis.DOMINANCE);
+    }
+
+    // 只改写了函数内的局部变量，CFG 不变
+    @Override
+    public EnumSet<Analysis> preserved() {
+        return EnumSet.allOf(Analysis.class);
     }
 
     private final HashMap<Phi, Alloca> phi2Alloca = new HashMap<>();
-    private final HashMap<Alloca, ArrayList<BasicBlock>> defs = new HashMap<>();
+    private final LinkedHashMap<Alloca, ArrayList<BasicBlock>> defs = new LinkedHashMap<>();
 
-    public void run(Function f) {
+    @Override
+    public boolean run(Function f) {
         phi2Alloca.clear();
         defs.clear();
+        f.renumber();
         insertPhi(f);
         renameVariable(f);
+        return true;
     }
 
     private void insertPhi(Function f) {
@@ -45,13 +49,13 @@ public class Mem2Reg implements Pass {
             }
         }
         for (Alloca alloca : defs.keySet()) {
-            HashSet<BasicBlock> F = new HashSet<>();
+            BitSet F = new BitSet(f.getNumBlocks());
             Queue<BasicBlock> W = new LinkedList<>(defs.get(alloca));
             while (!W.isEmpty()) {
                 BasicBlock X = W.remove();
                 for (BasicBlock Y : X.getDominanceFrontier()) {
-                    if (!F.contains(Y)) {
-                        F.add(Y);
+                    if (!F.get(Y.getIndex())) {
+                        F.set(Y.getIndex());
                         Phi phi = new Phi(alloca.getAllocated(), Y.getPredecessors().size(), null);
                         phi.node.insertAtEntry(Y.getList());
                         phi2Alloca.put(phi, alloca);
@@ -68,7 +72,7 @@ public class Mem2Reg implements Pass {
         HashMap<Alloca, Value> renameValues = new HashMap<>();
         for (Alloca alloca : defs.keySet()) {
             if (alloca.getAllocated() == Type.IntegerType.getI32()) {
-                renameValues.put(alloca, new Constant.ConstantInt(0));
+                renameValues.put(alloca, Constant.ConstantInt.get(0));
             }
         }
         dfsBB(f.getList().getEntry().getValue(), renameValues);
@@ -76,11 +80,8 @@ public class Mem2Reg implements Pass {
 
     private void dfsBB(BasicBlock bb, HashMap<Alloca, Value> renameValues) {
         HashMap<Alloca, Value> newRenameValues = new HashMap<>(renameValues);
-        ArrayList<Instruction> instructions = new ArrayList<>();
         for (IList.INode<Instruction, BasicBlock> iNode : bb.getList()) {
-            instructions.add(iNode.getValue());
-        }
-        for (Instruction instr : instructions) {
+            Instruction instr = iNode.getValue();
             switch (instr.getTag()) {
                 case Alloca: {
                     if (newRenameValues.containsKey((Alloca) instr)) {
@@ -1,7 +1,21 @@
 package midend.pass;
 
+import midend.analysis.AnalysisManager.Analysis;
 import midend.ir.Module;
 
+import java.util.EnumSet;
+
 public interface Pass {
+    // 返回是否改动了 IR，没有改动时分析结果全部保留
     boolean run(Module m);
+
+    // 运行前必须是最新的分析
+    default EnumSet<Analysis> required() {
+        return EnumSet.noneOf(Analysis.class);
+    }
+
+    // 改动了 IR 之后仍然有效的分析
+    default EnumSet<Analysis> preserved() {
+        return EnumSet.noneOf(Analysis.class);
+    }
 }
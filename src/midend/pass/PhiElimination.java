@@ -1,28 +1,31 @@
 package midend.pass;
 
+import midend.analysis.AnalysisManager.Analysis;
 import midend.ir.*;
 import midend.ir.Instruction.*;
 import utils.IList;
 import utils.Pair;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.Stack;
 
-public class PhiElimination implements Pass {
+public class PhiElimination implements FunctionPass {
     @Override
-    public boolean run(Module m) {
-        for (IList.INode<Function, Module> fNode : m.functionList) {
-            Function func = fNode.getValue();
-            if (!func.isBuiltin()) {
-                run(func);
-            }
-        }
-        return true;
+    public EnumSet<Analysis> required() {
+        return EnumSet.of(Analysis.PRED_SUCC);
+    }
+
+    // 拆关键边时维护了前驱后继
+    @Override
+    public EnumSet<Analysis> preserved() {
+        return EnumSet.of(Analysis.PRED_SUCC, Analysis.INTERPROCEDURAL);
     }
 
-    public void run(Function f) {
-        HashMap<Pair<BasicBlock, BasicBlock>, ArrayList<Move>> phiMoves = new HashMap<>();
+    @Override
+    public boolean run(Function f) {
+        LinkedHashMap<Pair<BasicBlock, BasicBlock>, ArrayList<Move>> phiMoves = new LinkedHashMap<>();
         for (IList.INode<BasicBlock, Function> bNode : f.getList()) {
             BasicBlock bb = bNode.getValue();
             if (bb.getPredecessors().size() <= 1) {
@@ -39,7 +42,7 @@ public class PhiElimination implements Pass {
                 continue;
             }
             for (int i = 0; i < bb.getPredecessors().size(); ++i) {
-                HashMap<Value, Value> phiDst2Src = new HashMap<>();
+                LinkedHashMap<Value, Value> phiDst2Src = new LinkedHashMap<>();
                 BasicBlock predBB = bb.getPredecessors().get(i);
                 for (Instruction.Phi phi : phis) {
                     phiDst2Src.put(phi, phi.getOperand(i));
@@ -107,5 +110,6 @@ public class PhiElimination implements Pass {
                 new Br(mcBB, splitBB);
             }
         }
+        return true;
     }
 }
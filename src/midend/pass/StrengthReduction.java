@@ -1,23 +1,24 @@
 package midend.pass;
 
+import midend.analysis.AnalysisManager.Analysis;
 import midend.ir.*;
 import midend.ir.Instruction.*;
 import midend.ir.Constant.*;
 import utils.IList;
 import utils.Pair;
 
-public class StrengthReduction {
+import java.util.EnumSet;
+
+public class StrengthReduction implements FunctionPass {
     // TODO: 2022/12/17 有bug，来不及改了，详见258
-    public void run(Module m) {
-        for (IList.INode<Function, Module> fNode : m.functionList) {
-            Function func = fNode.getValue();
-            if (!fNode.getValue().isBuiltin()) {
-                runCalc(func);
-            }
-        }
+    // 只把乘除换成移位等指令
+    @Override
+    public EnumSet<Analysis> preserved() {
+        return EnumSet.allOf(Analysis.class);
     }
 
-    private void runCalc(Function f) {
+    @Override
+    public boolean run(Function f) {
         for (IList.INode<BasicBlock, Function> bNode : f.getList()) {
             for (IList.INode<Instruction, BasicBlock> iNode : bNode.getValue().getList()) {
                 if (iNode.getValue().getTag() == InstrTag.Sdiv || iNode.getValue().getTag() == InstrTag.Srem) {
@@ -37,13 +38,14 @@ public class StrengthReduction {
                     if (bi.rhs() instanceof ConstantInt) {
                         int rhs = ((ConstantInt) bi.rhs()).getValue();
                         if (rhs == 1 << ceilLog2(rhs)) {
-                            BinaryInst shl = new BinaryInst(InstrTag.Shl, bi.lhs(), new ConstantInt(ceilLog2(rhs)), bi);
+                            BinaryInst shl = new BinaryInst(InstrTag.Shl, bi.lhs(), ConstantInt.get(ceilLog2(rhs)), bi);
                             iNode.getValue().removeSelf(shl);
                         }
                     }
                 }
             }
         }
+        return true;
     }
 
     private int ceilLog2(int x) {
@@ -90,31 +92,31 @@ public class StrengthReduction {
         Value finalValue;
         Instruction finalInst;
         if (divisor == -2147483648) {
-            finalValue = finalInst = new BinaryInst(InstrTag.Slt, div.lhs(), new ConstantInt(-2147483648), div);
+            finalValue = finalInst = new BinaryInst(InstrTag.Slt, div.lhs(), ConstantInt.get(-2147483648), div);
             return new Pair<>(finalValue, finalInst);
         } else if (Math.abs(divisor) == 1) {
             finalValue = div.lhs();
             finalInst = div;
         } else if (Integer.bitCount(Math.abs(divisor)) == 1) {
             Instruction prev = div;
-            prev = new BinaryInst(InstrTag.Ashr, div.lhs(), new ConstantInt(m.log - 1), prev);
+            prev = new BinaryInst(InstrTag.Ashr, div.lhs(), ConstantInt.get(m.log - 1), prev);
             if (m.log != 32) {
-                prev = new BinaryInst(InstrTag.Lshr, prev, new ConstantInt(32 - m.log), prev);
+                prev = new BinaryInst(InstrTag.Lshr, prev, ConstantInt.get(32 - m.log), prev);
             }
             prev = new BinaryInst(InstrTag.Add, prev, div.lhs(), prev);
-            prev = new BinaryInst(InstrTag.Ashr, prev, new ConstantInt(m.log), prev);
+            prev = new BinaryInst(InstrTag.Ashr, prev, ConstantInt.get(m.log), prev);
             finalValue = prev;
             finalInst = prev;
         } else {
             Instruction prev = div;
             if (m.multiplier < Integer.MAX_VALUE) {
-                prev = new BinaryInst(InstrTag.MulH, div.lhs(), new ConstantInt((int) m.multiplier), prev);
+                prev = new BinaryInst(InstrTag.MulH, div.lhs(), ConstantInt.get((int) m.multiplier), prev);
             } else {
-                prev = new BinaryInst(InstrTag.MulH, div.lhs(), new ConstantInt((int) (m.multiplier - (1L << 32))), prev);
+                prev = new BinaryInst(InstrTag.MulH, div.lhs(), ConstantInt.get((int) (m.multiplier - (1L << 32))), prev);
                 prev = new BinaryInst(InstrTag.Add, prev, div.lhs(), prev);
             }
-            prev = new BinaryInst(InstrTag.Ashr, prev, new ConstantInt(m.shift), prev);
-            Instruction sign = new BinaryInst(InstrTag.Slt, div.lhs(), new ConstantInt(0), prev);
+            prev = new BinaryInst(InstrTag.Ashr, prev, ConstantInt.get(m.shift), prev);
+            Instruction sign = new BinaryInst(InstrTag.Slt, div.lhs(), ConstantInt.get(0), prev);
             finalValue = finalInst = new BinaryInst(InstrTag.Add, prev, sign, sign);
         }
         if (divisor < 0) {
@@ -0,0 +1,41 @@
+package utils;
+
+import backend.mc.MCModule;
+import midend.ir.Module;
+
+// 一次编译的全部可变状态：IR 模块、机器码模块、Logger 的缓冲区和输出位置
+// 上下文绑定在线程上，Module.get()、MCModule.get() 和 Logger 都从当前上下文取；编译完丢掉上下文就整体释放
+public class CompileContext {
+    private static final ThreadLocal<CompileContext> current = ThreadLocal.withInitial(CompileContext::new);
+
+    public final Module module = new Module();
+    public final MCModule mcModule = new MCModule();
+    public final Logger.State log = new Logger.State();
+    public final String mipsFileName;
+    public final boolean dumpLLVM;
+    public final PhaseStats phases = new PhaseStats();
+
+    public CompileContext() {
+        this(Config.mipsFileName, true);
+    }
+
+    public CompileContext(String mipsFileName, boolean dumpLLVM) {
+        this.mipsFileName = mipsFileName;
+        this.dumpLLVM = dumpLLVM;
+    }
+
+    public static CompileContext get() {
+        return current.get();
+    }
+
+    // 在本上下文中执行 task，结束后恢复线程原来的上下文；fork-join 的 worker 也要这样绑定
+    public void run(Runnable task) {
+        CompileContext prev = current.get();
+        current.set(this);
+        try {
+            task.run();
+        } finally {
+            current.set(prev);
+        }
+    }
+}
@@ -6,10 +6,20 @@ import backend.register.SpillScheme.SpillSchemeChoice;
 public class Config {
     public static final boolean submit = false;
     public static final boolean optimize = false;
+    public static final boolean cacheIR = false;
+    public static final String irCacheDir = "ircache";
     public static final String inputFileName = "testfile.txt";
+    public static final boolean lexWholeFile = true;
+    public static final boolean streamFrontend = false;
+    public static final boolean parallelIRGen = false;
+    public static final boolean parallelSemantic = false;
+    public static final boolean semanticBuildIR = true;
+    public static final boolean flatExp = true;
+    public static final boolean foldConstInParser = true;
     public static final String errorOutputFileName = "error.txt";
     public static final String outputFileName = "output.txt";
     public static final String mipsFileName = "mips.txt";
+    public static final boolean streamMIPS = false;
     public static final boolean allocateAllRegisters = false;
     public static final boolean allocateOtherPhyRegs = false;
     public static final boolean collectGEPConstant = false;
@@ -17,6 +27,9 @@ public class Config {
     public static final SpillSchemeChoice spillChoice = SpillSchemeChoice.CountInstr;
     public static final boolean useT0InsteadOfVRInSingleLLVMInstr = true;
     public static final RegisterAllocatorChoice registerAllocatorChoice = RegisterAllocatorChoice.full;
+    public static final int maxRegisterPressure = 17;
     public static final boolean mainReturnVal = true;
     public static final String statisticFileName = "statistic.txt";
+    public static final boolean phaseStatistic = false;
+    public static final String phaseStatisticFileName = "phase_statistic.csv";
 }
@@ -1,12 +1,17 @@
 package utils;
 
+import java.util.ConcurrentModificationException;
 import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 public class IList<Value, Holder> implements Iterable<IList.INode<Value, Holder>> {
     private final Holder holder;
     private final INode<Value, Holder> head;
     private final INode<Value, Holder> tail;
     private int nodeNum = 0;
+    // 结点序号是否有效：插入时在前后结点的序号之间取中点，没有空隙时置为无效，comesBefore 时再整体重排
+    private boolean ordered = false;
+    private static final long ORDER_GAP = 1L << 16;
 
     public IList(Holder holder) {
         this.holder = holder;
@@ -20,6 +25,16 @@ public class IList<Value, Holder> implements Iterable<IList.INode<Value, Holder>
         head.next = tail;
         tail.prev = head;
         this.nodeNum = 0;
+        this.ordered = false;
+    }
+
+    private void renumberOrder() {
+        long order = 0;
+        for (INode<Value, Holder> node = head; node != null; node = node.next) {
+            node.order = order;
+            order += ORDER_GAP;
+        }
+        ordered = true;
     }
 
     public boolean isEmpty() {
@@ -53,6 +68,7 @@ public class IList<Value, Holder> implements Iterable<IList.INode<Value, Holder>
         private INode<Value, Holder> prev = null;
         private INode<Value, Holder> next = null;
         private IList<Value, Holder> parent = null;
+        private long order;
 
         public INode(IList<Value, Holder> parent) {
             this.parent = parent;
@@ -84,6 +100,7 @@ public class IList<Value, Holder> implements Iterable<IList.INode<Value, Holder>
             this.next = prev.next;
             prev.next = this;
             if (this.next != null) this.next.prev = this;
+            assignOrder();
         }
 
         public void insertBefore(INode<Value, Holder> next) {
@@ -93,6 +110,18 @@ public class IList<Value, Holder> implements Iterable<IList.INode<Value, Holder>
             this.next = next;
             next.prev = this;
             if (this.prev != null) this.prev.next = this;
+            assignOrder();
+        }
+
+        private void assignOrder() {
+            if (!parent.ordered) {
+                return;
+            }
+            if (prev != null && next != null && next.order - prev.order >= 2) {
+                order = prev.order + (next.order - prev.order) / 2;
+            } else {
+                parent.ordered = false;
+            }
         }
 
         public void insertAtEntry(IList<Value, Holder> father) {
@@ -127,28 +156,66 @@ public class IList<Value, Holder> implements Iterable<IList.INode<Value, Holder>
         public boolean isEntry() {
             return this.equals(this.getParent().getEntry());
         }
+
+        // 同一链表中 this 是否在 that 之前，均摊 O(1)
+        public boolean comesBefore(INode<Value, Holder> that) {
+            if (this.parent == null || this.parent != that.parent) {
+                throw new RuntimeException("comesBefore requires two nodes in the same list");
+            }
+            if (!parent.ordered) {
+                parent.renumberOrder();
+            }
+            return this.order < that.order;
+        }
     }
 
+    // 允许在迭代中删除当前结点，此时从它被删除时的后继继续；
+    // 也允许把当前结点移到别的链表，insertAfter/insertBefore 会改掉它的 prev/next，所以返回它时先记下后继，从那里继续；
+    // 在本链表内移动当前结点不支持。要走到的后继已不在本链表中时说明链表被并发修改，直接抛异常，不沿着失效的指针走下去
     class IIterator implements Iterator<INode<Value, Holder>> {
         INode<Value, Holder> head;
         INode<Value, Holder> tail;
         INode<Value, Holder> cur;
+        // 返回 cur 时它的后继
+        INode<Value, Holder> succ;
 
         IIterator(INode<Value, Holder> head, INode<Value, Holder> tail) {
             this.head = head;
             this.tail = tail;
             cur = head;
+            succ = head.next;
+        }
+
+        private INode<Value, Holder> successor() {
+            // 还在本链表中，或者被删除（removeSelf 保留了删除时的 next）时沿当前指针走，能看到之后插在它后面的结点
+            return cur.parent == IList.this || cur.parent == null ? cur.next : succ;
         }
 
         @Override
         public boolean hasNext() {
-            return cur.next != tail;
+            return successor() != tail;
         }
 
         @Override
         public INode<Value, Holder> next() {
-            cur = cur.next;
+            INode<Value, Holder> nxt = successor();
+            if (nxt == tail) {
+                throw new NoSuchElementException();
+            }
+            if (nxt == null || nxt.parent != IList.this) {
+                throw new ConcurrentModificationException("IList modified during iteration beyond removing or moving away the current node");
+            }
+            cur = nxt;
+            succ = nxt.next;
             return cur;
         }
+
+        @Override
+        public void remove() {
+            if (cur == head || cur.parent != IList.this) {
+                throw new IllegalStateException();
+            }
+            cur.removeSelf();
+        }
     }
 }
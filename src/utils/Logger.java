@@ -16,34 +16,41 @@ import java.util.ArrayList;
 import java.util.Collections;
 
 public class Logger {
-    private static Lexer.TokenStream tokens;
-    private static Ast ast;
-    private static final ArrayList<ErrorHandler.Error> errors = new ArrayList<>();
-    private static final ArrayList<MCInstr.MCMove> coalescedMoves = new ArrayList<>();
-    private static final ArrayList<MCInstr.MCMove> constrainedMoves = new ArrayList<>();
-    private static final ArrayList<MCInstr.MCMove> frozenMoves = new ArrayList<>();
+    // 每次编译各有一份，挂在 CompileContext 上，编译结束随上下文一起丢掉
+    public static class State {
+        private Lexer.TokenStream tokens;
+        private Ast ast;
+        private final ArrayList<ErrorHandler.Error> errors = new ArrayList<>();
+        private final ArrayList<MCInstr.MCMove> coalescedMoves = new ArrayList<>();
+        private final ArrayList<MCInstr.MCMove> constrainedMoves = new ArrayList<>();
+        private final ArrayList<MCInstr.MCMove> frozenMoves = new ArrayList<>();
+    }
+
+    private static State state() {
+        return CompileContext.get().log;
+    }
 
     public static void logLexerResult(Lexer.TokenStream lexerTokens) {
-        tokens = lexerTokens;
+        state().tokens = lexerTokens;
     }
 
     @SuppressWarnings({"unused"})
     public static void printLexerResult() {
-        tokens.print();
+        state().tokens.print();
     }
 
     @SuppressWarnings({"unused"})
     public static void printLexerResult(String filePath) {
-        tokens.print(filePath);
+        state().tokens.print(filePath);
     }
 
     public static void logAst(Ast parserAst) {
-        ast = parserAst;
+        state().ast = parserAst;
     }
 
     @SuppressWarnings({"unused"})
     public static void printParserResult() {
-        for (String s : ast.getRes()) {
+        for (String s : state().ast.getRes()) {
             System.out.println(s);
         }
     }
@@ -55,7 +62,7 @@ public class Logger {
             FileOutputStream fos = new FileOutputStream(file);
             OutputStreamWriter osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
             BufferedWriter writer = new BufferedWriter(osw);
-            for (String s : ast.getRes()) {
+            for (String s : state().ast.getRes()) {
                 writer.append(s).append("\n");
             }
             writer.flush();
@@ -69,12 +76,15 @@ public class Logger {
 
     @SuppressWarnings({"unused"})
     public static void logLLVM(String name) {
-        new EmitLLVM("D:\\compile\\test\\" + name + ".ll").run(Module.module);
+        if (!CompileContext.get().dumpLLVM) {
+            return;
+        }
+        new EmitLLVM("D:\\compile\\test\\" + name + ".ll").run(Module.get());
     }
 
     @SuppressWarnings({"unused"})
     public static void printLLVM() {
-        for (IList.INode<Function, Module> fNode : Module.module.functionList) {
+        for (IList.INode<Function, Module> fNode : Module.get().functionList) {
             System.out.println(fNode.getValue());
             for (IList.INode<BasicBlock, Function> bNode : fNode.getValue().getList()) {
                 System.out.println(bNode.getValue());
@@ -86,12 +96,20 @@ public class Logger {
     }
 
     public static void logError(int line, ErrorHandler.Error.ErrorType type) {
-        errors.add(new ErrorHandler.Error(line, type));
+        state().errors.add(new ErrorHandler.Error(line, type));
+    }
+
+    public static void logError(ErrorHandler.Error error) {
+        state().errors.add(error);
+    }
+
+    public static ArrayList<ErrorHandler.Error> getErrors() {
+        return state().errors;
     }
 
     @SuppressWarnings({"unused"})
     public static void printErrors(String path) {
-        for (ErrorHandler.Error error : errors) {
+        for (ErrorHandler.Error error : state().errors) {
             System.out.println(error);
         }
         File file = new File(path);
@@ -99,8 +117,8 @@ public class Logger {
             FileOutputStream fos = new FileOutputStream(file);
             OutputStreamWriter osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
             BufferedWriter writer = new BufferedWriter(osw);
-            Collections.sort(errors);
-            for (ErrorHandler.Error error : errors) {
+            Collections.sort(state().errors);
+            for (ErrorHandler.Error error : state().errors) {
                 writer.append(error.toString()).append("\n");
             }
             writer.flush();
@@ -114,7 +132,7 @@ public class Logger {
 
     @SuppressWarnings({"unused"})
     public static void printMIPS(String mips) {
-        File file = new File(Config.mipsFileName);
+        File file = new File(CompileContext.get().mipsFileName);
         try {
             FileOutputStream fos = new FileOutputStream(file);
             OutputStreamWriter osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
@@ -168,30 +186,39 @@ public class Logger {
         }
     }
 
+    // 各阶段的耗时、分配和 IR 规模，CSV 格式见 PhaseStats.toCSV
+    public static void printPhaseStatistic(String path) {
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), StandardCharsets.UTF_8))) {
+            writer.append(CompileContext.get().phases.toCSV());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     public static void logCoalescedMove(MCInstr.MCMove move) {
-        coalescedMoves.add(move);
+        state().coalescedMoves.add(move);
     }
 
     @SuppressWarnings({"unused"})
     public static void printCoalescedMoves() {
-        System.out.println(coalescedMoves);
+        System.out.println(state().coalescedMoves);
     }
 
     public static void logConstrainedMove(MCInstr.MCMove move) {
-        constrainedMoves.add(move);
+        state().constrainedMoves.add(move);
     }
 
     @SuppressWarnings({"unused"})
     public static void printConstrainedMoves() {
-        System.out.println(constrainedMoves);
+        System.out.println(state().constrainedMoves);
     }
 
     public static void logFrozenMoves(MCInstr.MCMove move) {
-        frozenMoves.add(move);
+        state().frozenMoves.add(move);
     }
 
     @SuppressWarnings({"unused"})
     public static void printFrozenMoves() {
-        System.out.println(frozenMoves);
+        System.out.println(state().frozenMoves);
     }
 }
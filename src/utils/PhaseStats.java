@@ -0,0 +1,111 @@
+package utils;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.function.IntSupplier;
+
+// 编译各阶段的统计：墙钟时间、本线程分配的字节数、阶段前后的 IR 规模（中端是 IR 指令数，后端是机器指令数）
+// 阶段可以嵌套，记录按开始顺序排列，depth 是嵌套层数；fork-join worker 上的分配不计入
+public class PhaseStats {
+    private static final com.sun.management.ThreadMXBean threadBean = allocationBean();
+
+    public static class Record {
+        public final String name;
+        public final int depth;
+        public final int sizeBefore;
+        public long nanos;
+        public long allocatedBytes;
+        public int sizeAfter;
+
+        private Record(String name, int depth, int sizeBefore) {
+            this.name = name;
+            this.depth = depth;
+            this.sizeBefore = sizeBefore;
+        }
+    }
+
+    // 一个进行中的阶段，end() 时补全记录
+    public static class Phase {
+        private final PhaseStats stats;
+        private final Record record;
+        private final IntSupplier size;
+        private final long startNanos;
+        private final long startBytes;
+
+        private Phase(PhaseStats stats, Record record, IntSupplier size) {
+            this.stats = stats;
+            this.record = record;
+            this.size = size;
+            this.startBytes = allocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+
+        public void end() {
+            record.nanos = System.nanoTime() - startNanos;
+            record.allocatedBytes = startBytes < 0 ? -1 : allocatedBytes() - startBytes;
+            record.sizeAfter = size == null ? -1 : size.getAsInt();
+            --stats.depth;
+        }
+    }
+
+    private final ArrayList<Record> records = new ArrayList<>();
+    private int depth = 0;
+
+    // 在当前编译上下文中开始一个阶段；size 给出 IR 规模，为 null 时不统计
+    public static Phase begin(String name, IntSupplier size) {
+        PhaseStats stats = CompileContext.get().phases;
+        Record record = new Record(name, stats.depth++, size == null ? -1 : size.getAsInt());
+        stats.records.add(record);
+        return new Phase(stats, record, size);
+    }
+
+    public static void time(String name, IntSupplier size, Runnable task) {
+        Phase phase = begin(name, size);
+        task.run();
+        phase.end();
+    }
+
+    public ArrayList<Record> getRecords() {
+        return records;
+    }
+
+    // 最外层阶段按名字累加的耗时（纳秒）
+    public LinkedHashMap<String, Long> topLevelNanos() {
+        LinkedHashMap<String, Long> res = new LinkedHashMap<>();
+        for (Record r : records) {
+            if (r.depth == 0) {
+                Long old = res.get(r.name);
+                res.put(r.name, old == null ? r.nanos : old + r.nanos);
+            }
+        }
+        return res;
+    }
+
+    // CSV：阶段名,嵌套层数,耗时(ns),分配字节数,阶段前规模,阶段后规模；不可用的量记为 -1
+    public String toCSV() {
+        StringBuilder sb = new StringBuilder("phase,depth,nanos,allocated_bytes,size_before,size_after\n");
+        for (Record r : records) {
+            sb.append(r.name).append(',').append(r.depth).append(',').append(r.nanos).append(',')
+                    .append(r.allocatedBytes).append(',').append(r.sizeBefore).append(',').append(r.sizeAfter).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static long allocatedBytes() {
+        return threadBean == null ? -1 : threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static com.sun.management.ThreadMXBean allocationBean() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+        com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+        if (!sunBean.isThreadAllocatedMemorySupported()) {
+            return null;
+        }
+        sunBean.setThreadAllocatedMemoryEnabled(true);
+        return sunBean;
+    }
+}
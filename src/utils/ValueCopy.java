@@ -116,9 +116,9 @@ public class ValueCopy {
     public Function copyFunction(Function source) {
         ArrayList<Phi> phis = new ArrayList<>();
         ArrayList<Move> moves = new ArrayList<>();
-        Function copy = new Function("copy_" + source.getName(), source.getType(), null, false, Module.module);
+        Function copy = new Function("copy_" + source.getName(), source.getType(), null, false, Module.get());
         for (IList.INode<BasicBlock, Function> bNode : source.getList()) {
-            this.putValue(bNode.getValue(), new BasicBlock(bNode.getValue().getName() + "__copy__" + source.getName() + (++Module.module.basicBlockIdx), copy));
+            this.putValue(bNode.getValue(), new BasicBlock(bNode.getValue().getName() + "__copy__" + source.getName() + (++Module.get().basicBlockIdx), copy));
         }
         for (int i = 0; i < source.getParamList().size(); ++i) {
             this.putValue(source.getParamList().get(i), copy.getParamList().get(i));